@@ -421,6 +421,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         if (!force && mDisabledFlags == disabledFlags)
             return;
         mDisabledFlags = disabledFlags;
+        mPulse.setNavbarDisabledFlags(disabledFlags);
 
         final boolean disableHome = ((disabledFlags & View.STATUS_BAR_DISABLE_HOME) != 0);
         final boolean disableRecent = ((disabledFlags & View.STATUS_BAR_DISABLE_RECENT) != 0);
@@ -622,6 +623,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
                         visibilityToString(mCurrentView.getVisibility())));
 
         pw.println("    }");
+        mPulse.dump(fd, pw, args);
     }
 
     protected static String viewInfo(View v) {
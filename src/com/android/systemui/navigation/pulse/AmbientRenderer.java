@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * Low power bars for the lockscreen navbar and ambient surfaces. A
+ * handful of log spaced bars drawn straight from each frame, with no
+ * motion engine, lava lamp or fade pass, and one paint set up front.
+ * It asks for the smallest capture at a dozen captures per second, so
+ * the Visualizer, DSP thread and draw all idle along with it
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+
+import com.android.systemui.R;
+
+public class AmbientRenderer extends Renderer {
+    private static final long COLOR_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_ACCENT_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_COLOR);
+
+    private Paint mPaint;
+    private RenderPlan mPlan;
+    private int mBars;
+    private int mCaptureRate;
+    private float mDbFuzzFactor;
+    private boolean mVertical;
+    private boolean mLeftInLandscape;
+    private int mWidth, mHeight;
+    private boolean mDrawn;
+
+    public AmbientRenderer(Context context, Handler handler, PulseView view,
+            PulseController controller) {
+        super(context, handler, view);
+        mBars = context.getResources().getInteger(R.integer.config_pulseAmbientBars);
+        // one capture per frame the ambient surface may draw
+        mCaptureRate = context.getResources().getInteger(
+                R.integer.config_pulseAmbientFrameRate) * 1000;
+        // no antialiasing, the bars are axis aligned and it's a pass per line
+        mPaint = new Paint();
+        mPaint.setAntiAlias(false);
+        mDbFuzzFactor = 5f;
+        mPlan = new RenderPlan();
+        onSettingsChanged(controller.getSettingsStore().getSettings(),
+                PulseSettingsStore.ALL_KEYS);
+    }
+
+    @Override
+    public void setLeftInLandscape(boolean leftInLandscape) {
+        if (mLeftInLandscape != leftInLandscape) {
+            mLeftInLandscape = leftInLandscape;
+            onSizeChanged(0, 0, 0, 0);
+        }
+    }
+
+    private void buildPlan(int binCount) {
+        // few bars over a small capture, so spread them over the whole
+        // spectrum instead of the low end. Bin 0 is DC and Nyquist
+        mPlan.setBins(binCount, 1, mBars, 1, RenderPlan.MAPPING_LOG);
+        mPlan.setBaseline(mVertical ? (mLeftInLandscape ? 0 : mWidth) : mHeight,
+                mVertical && mLeftInLandscape ? 1 : -1);
+        mPlan.layoutFilled(mVertical, mVertical ? mHeight : mWidth);
+        mPlan.setScale(mDbFuzzFactor, 0);
+        mPaint.setStrokeWidth(mPlan.getStrokeWidth());
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        if (mView.getWidth() > 0 && mView.getHeight() > 0) {
+            mWidth = mView.getWidth();
+            mHeight = mView.getHeight();
+            mVertical = mHeight > mWidth;
+            buildPlan(mPlan.getBinCount() > 0 ? mPlan.getBinCount() : getRequiredBins());
+        }
+    }
+
+    // one bin per bar and the DC bin is already below the smallest capture
+    @Override
+    public int getRequiredBins() {
+        return mBars + 1;
+    }
+
+    @Override
+    public int getRequiredCaptureRate() {
+        return mCaptureRate;
+    }
+
+    @Override
+    public void onStreamAnalyzed(boolean isValid) {
+        if (!isValid) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onVisualizerLinkChanged(boolean linked) {
+        if (!linked) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onFFTUpdate(SpectrumFrame frame) {
+        if (mPlan.getBinCount() != frame.getBinCount()) {
+            buildPlan(frame.getBinCount());
+        }
+        mPlan.fillLines(frame.getMagnitudes());
+        mDrawn = true;
+        postInvalidate();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mDrawn) {
+            canvas.drawLines(mPlan.getLines(), 0, mPlan.getBarCount() * 4, mPaint);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        clear();
+    }
+
+    // album colors come and go with tracks, stay on the user's color instead
+    // of repainting while the device is dozing
+    @Override
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        if ((changedKeys & COLOR_KEYS) != 0) {
+            if (settings.getBoolean(PulseSettingsStore.KEY_ACCENT_COLOR, false)) {
+                mPaint.setColor(mContext.getResources().getColor(R.color.pulseAccentColor));
+            } else {
+                mPaint.setColor(settings.getInt(PulseSettingsStore.KEY_COLOR, Color.WHITE));
+            }
+        }
+
+        if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_SOLID_FUDGE_FACTOR)) != 0) {
+            mDbFuzzFactor = settings.getInt(PulseSettingsStore.KEY_SOLID_FUDGE_FACTOR, 5);
+            mPlan.setScale(mDbFuzzFactor, 0);
+        }
+    }
+
+    @Override
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "ambient: bars=" + mPlan.getBarCount() + " bins="
+                + mPlan.getBinCount() + " captureRate=" + mCaptureRate + "mHz");
+    }
+
+    private void clear() {
+        if (mDrawn) {
+            mDrawn = false;
+            postInvalidate();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Moves every bar towards its target with a critically damped spring,
+ * all bars stepped together from one Choreographer frame callback. The
+ * spring is solved in closed form so any frame interval is stable.
+ * Stops posting frame callbacks once every bar is at rest
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.view.Choreographer;
+
+public class BarMotionEngine implements Choreographer.FrameCallback {
+    public interface Listener {
+        /**
+         * Bars moved this frame. Called once per frame on the UI thread
+         *
+         * @param positions - current position of each bar
+         * @param count - number of valid entries in positions
+         */
+        public void onBarsUpdated(float[] positions, int count);
+    }
+
+    // covers ~95% of a step in 128ms, the duration of the old per bar animators
+    private static final float DEF_OMEGA = 40f;
+    private static final float REST_DISTANCE = 0.5f;
+    private static final float REST_VELOCITY = 5f;
+    private static final float NANOS_PER_SECOND = 1000000000f;
+    // don't let a long stall fling bars straight to target
+    private static final long MAX_FRAME_NANOS = 50 * 1000000L;
+
+    private final Choreographer mChoreographer;
+    private final Listener mListener;
+    private float[] mCurrent = new float[0];
+    private float[] mTarget = new float[0];
+    private float[] mVelocity = new float[0];
+    private int mCount;
+    private float mOmega = DEF_OMEGA;
+    private long mLastFrameNanos;
+    private boolean mRunning;
+
+    public BarMotionEngine(Listener listener) {
+        mChoreographer = Choreographer.getInstance();
+        mListener = listener;
+    }
+
+    public void setBarCount(int count) {
+        if (mCurrent.length < count) {
+            mCurrent = new float[count];
+            mTarget = new float[count];
+            mVelocity = new float[count];
+        }
+        mCount = count;
+    }
+
+    public int getBarCount() {
+        return mCount;
+    }
+
+    /**
+     * Place a bar without animating
+     */
+    public void snapTo(int bar, float position) {
+        mCurrent[bar] = mTarget[bar] = position;
+        mVelocity[bar] = 0f;
+    }
+
+    public void setTarget(int bar, float target) {
+        mTarget[bar] = target;
+    }
+
+    /**
+     * Set the first count targets at once
+     */
+    public void setTargets(float[] targets, int count) {
+        System.arraycopy(targets, 0, mTarget, 0, Math.min(count, mCount));
+    }
+
+    /**
+     * Begin moving towards the current targets. Safe to call every frame
+     */
+    public void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameNanos = 0;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos == 0) {
+            // first frame after waking up, nothing has elapsed yet
+            mLastFrameNanos = frameTimeNanos;
+            mChoreographer.postFrameCallback(this);
+            return;
+        }
+        final long elapsed = Math.min(frameTimeNanos - mLastFrameNanos, MAX_FRAME_NANOS);
+        mLastFrameNanos = frameTimeNanos;
+        final boolean atRest = step(elapsed / NANOS_PER_SECOND);
+        mListener.onBarsUpdated(mCurrent, mCount);
+        if (atRest) {
+            mRunning = false;
+        } else {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Advance all bars
+     *
+     * @param dt - seconds since the last step
+     * @return true if every bar came to rest on its target
+     */
+    private boolean step(float dt) {
+        final float omega = mOmega;
+        final float decay = (float) Math.exp(-omega * dt);
+        final float[] current = mCurrent;
+        final float[] target = mTarget;
+        final float[] velocity = mVelocity;
+        boolean atRest = true;
+        for (int i = 0; i < mCount; i++) {
+            // x(t) = target + (c1 + c2 * t) * e^(-omega * t)
+            final float c1 = current[i] - target[i];
+            final float c2 = velocity[i] + omega * c1;
+            final float offset = (c1 + c2 * dt) * decay;
+            final float v = (c2 - omega * (c1 + c2 * dt)) * decay;
+            if (Math.abs(offset) < REST_DISTANCE && Math.abs(v) < REST_VELOCITY) {
+                current[i] = target[i];
+                velocity[i] = 0f;
+            } else {
+                current[i] = target[i] + offset;
+                velocity[i] = v;
+                atRest = false;
+            }
+        }
+        return atRest;
+    }
+}
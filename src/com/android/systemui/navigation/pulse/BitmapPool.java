@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Offscreen surfaces kept across relinks, rotations and renderer swaps.
+ * Bitmaps are matched on width, height and config. Released bitmaps are
+ * retained up to a byte budget, least recently released evicted first.
+ * UI thread only
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+public class BitmapPool {
+    // a couple of full screen navbar surfaces at 1440p
+    public static final int DEF_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final int mMaxBytes;
+    // oldest first
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+    private int mRetainedBytes;
+    private int mHits;
+    private int mMisses;
+
+    public BitmapPool() {
+        this(DEF_MAX_BYTES);
+    }
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return a cleared bitmap, from the pool if one matches
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                mBitmaps.remove(i);
+                mRetainedBytes -= bitmap.getAllocationByteCount();
+                mHits++;
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+        mMisses++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Hand a bitmap back. It must not be drawn to or from afterwards
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.add(bitmap);
+        mRetainedBytes += bytes;
+        while (mRetainedBytes > mMaxBytes) {
+            Bitmap oldest = mBitmaps.remove(0);
+            mRetainedBytes -= oldest.getAllocationByteCount();
+            oldest.recycle();
+        }
+    }
+
+    public void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mRetainedBytes = 0;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "bitmap pool: hits=" + mHits + " misses=" + mMisses
+                + " retained=" + mBitmaps.size() + " (" + mRetainedBytes / 1024 + "KB of "
+                + mMaxBytes / 1024 + "KB)");
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * A few capture buffers handed out in turn. A capture is consumed on
+ * the capture looper before the ring comes back around to its buffer,
+ * so reading into the next one never touches a buffer still in use,
+ * and once warm nothing is allocated
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class CaptureBufferRing {
+    private final byte[][] mBuffers;
+    private int mIndex;
+    private long mAllocatedBytes;
+
+    public CaptureBufferRing(int count) {
+        mBuffers = new byte[count][];
+    }
+
+    /**
+     * @param size - bytes per capture, a buffer of another size is replaced
+     * @return the least recently handed out buffer
+     */
+    public byte[] next(int size) {
+        mIndex = (mIndex + 1) % mBuffers.length;
+        byte[] buffer = mBuffers[mIndex];
+        if (buffer == null || buffer.length != size) {
+            buffer = new byte[size];
+            mBuffers[mIndex] = buffer;
+            mAllocatedBytes += size;
+        }
+        return buffer;
+    }
+
+    /**
+     * @return bytes allocated for buffers since construction
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+}
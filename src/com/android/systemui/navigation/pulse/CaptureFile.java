@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Recorded stream of Visualizer captures. Big endian binary layout:
+ *
+ *   header
+ *     int    magic 'PLSC'
+ *     short  format version
+ *     int    capture size in bytes
+ *     int    sampling rate in milliHertz, as reported by Visualizer
+ *     int    audio session id
+ *     long   wall clock time recording started, millis
+ *   frames, until end of stream
+ *     byte   FRAME_FFT or FRAME_WAVEFORM
+ *     int    microseconds since the previous frame
+ *     short  length
+ *     byte[] capture
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CaptureFile {
+    public static final int FRAME_FFT = 1;
+    public static final int FRAME_WAVEFORM = 2;
+
+    private static final int MAGIC = 0x504C5343;
+    private static final int VERSION = 1;
+
+    public static final class Frame {
+        public final int type;
+        // relative to the first frame
+        public final long timeNanos;
+        public final byte[] data;
+
+        public Frame(int type, long timeNanos, byte[] data) {
+            this.type = type;
+            this.timeNanos = timeNanos;
+            this.data = data;
+        }
+    }
+
+    private final int mCaptureSize;
+    private final int mSamplingRate;
+    private final int mAudioSessionId;
+    private final long mStartTimeMillis;
+    private final List<Frame> mFrames;
+
+    public CaptureFile(int captureSize, int samplingRate, int audioSessionId,
+            long startTimeMillis, List<Frame> frames) {
+        mCaptureSize = captureSize;
+        mSamplingRate = samplingRate;
+        mAudioSessionId = audioSessionId;
+        mStartTimeMillis = startTimeMillis;
+        mFrames = Collections.unmodifiableList(frames);
+    }
+
+    public int getCaptureSize() {
+        return mCaptureSize;
+    }
+
+    public int getSamplingRate() {
+        return mSamplingRate;
+    }
+
+    public int getAudioSessionId() {
+        return mAudioSessionId;
+    }
+
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    public List<Frame> getFrames() {
+        return mFrames;
+    }
+
+    public static CaptureFile read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Pulse capture");
+        }
+        final int version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported Pulse capture version " + version);
+        }
+        final int captureSize = in.readInt();
+        final int samplingRate = in.readInt();
+        final int sessionId = in.readInt();
+        final long startTime = in.readLong();
+        List<Frame> frames = new ArrayList<>();
+        long timeNanos = 0;
+        while (true) {
+            final int type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                break;
+            }
+            timeNanos += in.readInt() * 1000L;
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            frames.add(new Frame(type, timeNanos, data));
+        }
+        return new CaptureFile(captureSize, samplingRate, sessionId, startTime, frames);
+    }
+
+    public void write(OutputStream output) throws IOException {
+        Writer writer = new Writer(output, mAudioSessionId, mStartTimeMillis);
+        for (Frame frame : mFrames) {
+            writer.writeFrame(frame.type, frame.timeNanos, frame.data, mSamplingRate);
+        }
+        writer.close();
+    }
+
+    /**
+     * Streams captures to disk as they arrive. The header is written with
+     * the first frame, once capture size and sampling rate are known
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream mOut;
+        private final int mAudioSessionId;
+        private final long mStartTimeMillis;
+        private boolean mHeaderWritten;
+        private long mLastFrameNanos;
+
+        public Writer(OutputStream output, int audioSessionId, long startTimeMillis) {
+            mOut = new DataOutputStream(new BufferedOutputStream(output));
+            mAudioSessionId = audioSessionId;
+            mStartTimeMillis = startTimeMillis;
+        }
+
+        public void writeFrame(int type, long timeNanos, byte[] data, int samplingRate)
+                throws IOException {
+            if (!mHeaderWritten) {
+                mOut.writeInt(MAGIC);
+                mOut.writeShort(VERSION);
+                mOut.writeInt(data.length);
+                mOut.writeInt(samplingRate);
+                mOut.writeInt(mAudioSessionId);
+                mOut.writeLong(mStartTimeMillis);
+                mHeaderWritten = true;
+                mLastFrameNanos = timeNanos;
+            }
+            final int deltaMicros = (int) ((timeNanos - mLastFrameNanos) / 1000);
+            mOut.writeByte(type);
+            mOut.writeInt(deltaMicros);
+            mOut.writeShort(data.length);
+            mOut.write(data);
+            // advance by what was written so rounding doesn't accumulate
+            mLastFrameNanos += deltaMicros * 1000L;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Picks the smallest capture size and slowest capture rate that still
+ * give the renderers what they asked for. Renderers state their need in
+ * FFT bins and captures per second; 0 means as much as the source offers,
+ * which is what Pulse always used. Kept free of android.* so it runs on
+ * a plain JDK
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+public class CaptureNegotiator {
+    // full rate never used all of the source, leave it headroom as before
+    private static final float DEF_RATE_FRACTION = 0.75f;
+
+    private int mMinSize;
+    private int mMaxSize;
+    private int mMaxRate;
+    private int mRequiredBins;
+    private int mRequiredRate;
+    private int mCaptureSize;
+    private int mCaptureRate;
+    private int mNegotiations;
+
+    /**
+     * What the source can do
+     *
+     * @param minSize - smallest capture, in bytes
+     * @param maxSize - largest capture, in bytes
+     * @param maxRate - fastest capture rate, in milliHertz
+     * @return true if the chosen capture changed
+     */
+    public boolean setLimits(int minSize, int maxSize, int maxRate) {
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        mMaxRate = maxRate;
+        return negotiate();
+    }
+
+    /**
+     * What the renderers need
+     *
+     * @param bins - FFT bins per capture, 0 for the largest capture
+     * @param rate - captures per second in milliHertz, 0 for the default rate
+     * @return true if the chosen capture changed
+     */
+    public boolean setNeeds(int bins, int rate) {
+        mRequiredBins = bins;
+        mRequiredRate = rate;
+        return negotiate();
+    }
+
+    /**
+     * @return capture size in bytes, 0 until limits are known
+     */
+    public int getCaptureSize() {
+        return mCaptureSize;
+    }
+
+    /**
+     * @return capture rate in milliHertz, 0 until limits are known
+     */
+    public int getCaptureRate() {
+        return mCaptureRate;
+    }
+
+    /**
+     * @return FFT bytes per second with the chosen capture
+     */
+    public long getBytesPerSecond() {
+        return (long) mCaptureSize * mCaptureRate / 1000;
+    }
+
+    /**
+     * @return FFT bytes per second saved against the largest capture at
+     *         the default rate
+     */
+    public long getSavedBytesPerSecond() {
+        return (long) mMaxSize * getDefaultRate() / 1000 - getBytesPerSecond();
+    }
+
+    /**
+     * @return smallest power of two capture holding the bins, in [minSize, maxSize]
+     */
+    public static int chooseCaptureSize(int bins, int minSize, int maxSize) {
+        if (bins <= 0 || bins * 2 >= maxSize) {
+            return maxSize;
+        }
+        int size = Math.max(1, minSize);
+        while (size < bins * 2) {
+            size <<= 1;
+        }
+        return Math.min(size, maxSize);
+    }
+
+    /**
+     * @return the needed rate, at most the source's maximum and never
+     *         faster than the default unless asked to be
+     */
+    public static int chooseCaptureRate(int rate, int maxRate) {
+        if (rate <= 0) {
+            return (int) (maxRate * DEF_RATE_FRACTION);
+        }
+        return Math.min(rate, maxRate);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + String.format(
+                "capture: size=%d rate=%.1fHz need bins=%d rate=%.1fHz negotiations=%d"
+                + " fft=%.1fKB/s saved=%.1fKB/s",
+                mCaptureSize, mCaptureRate / 1000f, mRequiredBins, mRequiredRate / 1000f,
+                mNegotiations, getBytesPerSecond() / 1024f, getSavedBytesPerSecond() / 1024f));
+    }
+
+    /**
+     * @return rate used when nothing asks for one, in milliHertz
+     */
+    public int getDefaultRate() {
+        return chooseCaptureRate(0, mMaxRate);
+    }
+
+    private boolean negotiate() {
+        if (mMaxSize <= 0 || mMaxRate <= 0) {
+            return false;
+        }
+        final int size = chooseCaptureSize(mRequiredBins, mMinSize, mMaxSize);
+        final int rate = chooseCaptureRate(mRequiredRate, mMaxRate);
+        if (size == mCaptureSize && rate == mCaptureRate) {
+            return false;
+        }
+        mCaptureSize = size;
+        mCaptureRate = rate;
+        mNegotiations++;
+        return true;
+    }
+}
@@ -16,10 +16,10 @@
 
 package com.android.systemui.navigation.pulse;
 
-import android.content.ContentResolver;
+import java.io.PrintWriter;
+
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -28,11 +28,11 @@ import android.graphics.Paint;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Bitmap.Config;
 import android.graphics.PorterDuff.Mode;
-import android.net.Uri;
 import android.os.Handler;
-import android.os.UserHandle;
-import android.provider.Settings;
+import android.os.SystemProperties;
 import android.util.TypedValue;
+import android.view.DisplayListCanvas;
+import android.view.RenderNode;
 
 import com.android.internal.util.NotificationColorUtil;
 import com.android.systemui.R;
@@ -40,16 +40,45 @@ import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class FadingBlockRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
     //private static final int DEF_PAINT_ALPHA = (byte) 188;
-    private byte[] mFFTBytes;
+    // every frame the whole trail is faded to FADE_ALPHA / 255
+    private static final int FADE_ALPHA = 200;
+    // frames until a line drops under one step of alpha
+    private static final int TRAIL_LENGTH =
+            (int) Math.ceil(Math.log(255) / Math.log(255f / FADE_ALPHA));
+    private static final float[] TRAIL_ALPHAS = new float[TRAIL_LENGTH];
+    // debug only: keep the software trail surface on hardware windows
+    private static final String PROP_SOFTWARE_TRAILS = "debug.pulse.sw_trails";
+
+    private static final long COLOR_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_AUTO_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_ACCENT_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_ENABLED)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_SPEED)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_COLOR_FROM)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_COLOR_TO);
+    private static final long DASH_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_FILLED_BLOCK_SIZE)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_EMPTY_BLOCK_SIZE);
+    private static final long PLAN_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_CUSTOM_DIV)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_CUSTOM_FUDGE_FACTOR);
+
+    static {
+        // a line is faded once in the frame it is drawn, then once per frame after
+        for (int age = 0; age < TRAIL_LENGTH; age++) {
+            TRAIL_ALPHAS[age] = (float) Math.pow(FADE_ALPHA / 255f, age + 1);
+        }
+    }
+
     private Paint mPaint;
     private Paint mFadePaint;
     private boolean mVertical;
     private boolean mLeftInLandscape;
-    private FFTAverage[] mFFTAverage;
-    private float[] mFFTPoints;
-    private byte rfk, ifk;
-    private int dbValue;
-    private float magnitude;
+    // rebuilt lazily on the next frame after size or settings change
+    private RenderPlan mPlan;
+    private boolean mPlanDirty = true;
+    private int mMapping;
     private int mDivisions;
     private int mAccentColor;
     private int mUserColor;
@@ -62,15 +91,25 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     private Bitmap mCanvasBitmap;
     private Canvas mCanvas;
     private Matrix mMatrix;
+    // draws the trails back up to view size, and tints them in mask mode
+    private Paint mBitmapPaint;
+    private boolean mAlphaMask;
+    private int mDownscale;
+    private int mQualityTier = QualityPolicy.TIER_FULL;
+    // on hardware windows each frame's lines are recorded once into a
+    // RenderNode and the ring is composited with falling alpha, so the
+    // fade is a handful of draw calls instead of a full surface fill
+    private boolean mHardwareTrails;
+    private RenderNode[] mTrails;
+    private int mTrailHead;
+    private int mTrailCount;
     private int mWidth;
     private int mHeight;
 
     private ColorAnimator mLavaLamp;
-    private LegacySettingsObserver mObserver;
     private boolean mPulseAccentColorEnabled;
     private boolean mLavaLampEnabled;
     private boolean mIsValidStream;
-    private boolean mSmoothingEnabled;
 
     private PulseController mController;
 
@@ -78,16 +117,23 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
             PulseController controller) {
         super(context, handler, view);
         mController = controller;
-        mObserver = new LegacySettingsObserver(handler);
-        mLavaLamp = new ColorAnimator();
-        mLavaLamp.setColorAnimatorListener(this);
+        // shared with every other renderer of this style, e.g. on other surfaces
+        mLavaLamp = controller.getLavaLamp(PulseSettingsStore.KEY_LAVALAMP_SPEED);
         mPaint = new Paint();
         mFadePaint = new Paint();
-        mFadePaint.setColor(Color.argb(200, 255, 255, 255));
+        mFadePaint.setColor(Color.argb(FADE_ALPHA, 255, 255, 255));
         mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
         mMatrix = new Matrix();
-        mDbFuzz = mContext.getResources().getInteger(R.integer.config_pulseDbFuzz);
-        mObserver.updateSettings();
+        mPlan = new RenderPlan();
+        mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Resources res = mContext.getResources();
+        mDbFuzz = res.getInteger(R.integer.config_pulseDbFuzz);
+        mAlphaMask = res.getBoolean(R.bool.config_pulseBlockAlphaMask);
+        mDownscale = validateDownscale(res.getInteger(R.integer.config_pulseBlockDownscale));
+        mMapping = res.getBoolean(R.bool.config_pulseLogFrequency)
+                ? RenderPlan.MAPPING_LOG : RenderPlan.MAPPING_LINEAR;
+        onSettingsChanged(controller.getSettingsStore().getSettings(),
+                PulseSettingsStore.ALL_KEYS);
         mPaint.setAntiAlias(true);
         onSizeChanged(0, 0, 0, 0);
     }
@@ -98,61 +144,45 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         if (isValid) {
             onSizeChanged(0, 0, 0, 0);
             if (mLavaLampEnabled  && !mPulseAccentColorEnabled) {
-                mLavaLamp.start();
+                mLavaLamp.addColorAnimatorListener(this);
             }
         }
     }
 
     @Override
-    public void onFFTUpdate(byte[] bytes) {
-        mFFTBytes = bytes;
-        if (mFFTBytes != null) {
-            if (mFFTPoints == null || mFFTPoints.length < mFFTBytes.length * 4) {
-                mFFTPoints = new float[mFFTBytes.length * 4];
-            }
-            int divisionLength = mFFTBytes.length / mDivisions;
-            if (mSmoothingEnabled) {
-                if (mFFTAverage == null || mFFTAverage.length != divisionLength) {
-                    setupFFTAverage(divisionLength);
-                }
-            } else {
-                mFFTAverage = null;
-            }
-            for (int i = 0; i < divisionLength; i++) {
-                if (mVertical) {
-                    mFFTPoints[i * 4 + 1] = i * 4 * mDivisions;
-                    mFFTPoints[i * 4 + 3] = i * 4 * mDivisions;
-                } else {
-                    mFFTPoints[i * 4] = i * 4 * mDivisions;
-                    mFFTPoints[i * 4 + 2] = i * 4 * mDivisions;
-                }
-                rfk = mFFTBytes[mDivisions * i];
-                ifk = mFFTBytes[mDivisions * i + 1];
-                magnitude = (rfk * rfk + ifk * ifk);
-                dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-                if (mSmoothingEnabled) {
-                    dbValue = mFFTAverage[i].average(dbValue);
-                }
-                if (mVertical) {
-                    mFFTPoints[i * 4] = mLeftInLandscape ? 0 : mWidth;
-                    mFFTPoints[i * 4 + 2] = mLeftInLandscape ? (dbValue * mDbFuzzFactor + mDbFuzz)
-                            : (mWidth - (dbValue * mDbFuzzFactor + mDbFuzz));
-                } else {
-                    mFFTPoints[i * 4 + 1] = mHeight;
-                    mFFTPoints[i * 4 + 3] = mHeight - (dbValue * mDbFuzzFactor + mDbFuzz);
-                }
-            }
+    public void onFFTUpdate(SpectrumFrame frame) {
+        if (!mHardwareTrails && mCanvas == null) {
+            return;
+        }
+        if (mPlanDirty || mPlan.getBinCount() != frame.getBinCount()) {
+            buildPlan(frame.getBinCount());
+        }
+        mPlan.fillLines(frame.getMagnitudes());
+        final int count = mPlan.getBarCount() * 4;
+        if (mHardwareTrails) {
+            recordTrail(count);
+        } else {
+            mCanvas.drawLines(mPlan.getLines(), 0, count, mPaint);
+            mCanvas.drawPaint(mFadePaint);
         }
-        mCanvas.drawLines(mFFTPoints, mPaint);
-        mCanvas.drawPaint(mFadePaint);
         postInvalidate();
     }
 
-    private void setupFFTAverage(int size) {
-        mFFTAverage = new FFTAverage[size];
-        for (int i = 0; i < size; i++) {
-            mFFTAverage[i] = new FFTAverage();
-        }
+    private void buildPlan(int binCount) {
+        // mDivisions strides raw capture bytes of the largest capture, each
+        // bin is two of them. A smaller capture strides fewer bins to land
+        // on the same frequencies
+        final int binStride = Math.max(1, mDivisions / 2 * binCount / REFERENCE_BINS);
+        mPlan.setBins(binCount, 0, binCount / binStride, binStride, mMapping);
+        mPlan.setBaseline(mVertical ? (mLeftInLandscape ? 0 : mWidth) : mHeight,
+                mVertical && mLeftInLandscape ? 1 : -1);
+        mPlan.layoutSpaced(mVertical, 4 * mDivisions);
+        mPlan.setScale(mDbFuzzFactor, mDbFuzz);
+        // a bin of a coarser capture spans more of the spectrum and holds
+        // more of the music, 3dB per halving. Take that back out so bars
+        // stand as tall as they did on the largest capture
+        mPlan.setGain((float) (10 * Math.log10((double) binCount / REFERENCE_BINS)));
+        mPlanDirty = false;
     }
 
     @Override
@@ -161,8 +191,37 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
             mWidth = mView.getWidth();
             mHeight = mView.getHeight();
             mVertical = mHeight > mWidth;
-            mCanvasBitmap = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_8888);
-            mCanvas = new Canvas(mCanvasBitmap);
+            mPlanDirty = true;
+            mTrailCount = 0;
+            mHardwareTrails = mView.isHardwareAccelerated()
+                    && !SystemProperties.getBoolean(PROP_SOFTWARE_TRAILS, false);
+            if (mHardwareTrails) {
+                releaseCanvas();
+                return;
+            }
+            final int downscale = getDownscale();
+            final int bitmapWidth = Math.max(1, mWidth / downscale);
+            final int bitmapHeight = Math.max(1, mHeight / downscale);
+            final Config config = mAlphaMask ? Config.ALPHA_8 : Config.ARGB_8888;
+            if (mCanvasBitmap != null && mCanvasBitmap.getWidth() == bitmapWidth
+                    && mCanvasBitmap.getHeight() == bitmapHeight
+                    && mCanvasBitmap.getConfig() == config) {
+                // same surface, just start the trails over
+                mCanvasBitmap.eraseColor(Color.TRANSPARENT);
+            } else {
+                final BitmapPool pool = mController.getBitmapPool();
+                pool.release(mCanvasBitmap);
+                mCanvasBitmap = pool.acquire(bitmapWidth, bitmapHeight, config);
+                if (mCanvas == null) {
+                    mCanvas = new Canvas(mCanvasBitmap);
+                } else {
+                    mCanvas.setBitmap(mCanvasBitmap);
+                }
+            }
+            // geometry stays in view coordinates, the canvas scales it down
+            mCanvas.setMatrix(null);
+            mCanvas.scale(1f / downscale, 1f / downscale);
+            mMatrix.setScale(downscale, downscale);
         }
     }
 
@@ -190,21 +249,118 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
 
     @Override
     public void destroy() {
-        mContext.getContentResolver().unregisterContentObserver(mObserver);
-        mLavaLamp.stop();
+        mLavaLamp.removeColorAnimatorListener(this);
+        releaseCanvas();
+        if (mTrails != null) {
+            for (RenderNode node : mTrails) {
+                node.discardDisplayList();
+            }
+            mTrails = null;
+        }
+        mTrailCount = 0;
+    }
+
+    private void releaseCanvas() {
+        mController.getBitmapPool().release(mCanvasBitmap);
         mCanvasBitmap = null;
+        mCanvas = null;
+    }
+
+    private void recordTrail(int count) {
+        if (mTrails == null) {
+            mTrails = new RenderNode[TRAIL_LENGTH];
+            for (int i = 0; i < TRAIL_LENGTH; i++) {
+                mTrails[i] = RenderNode.create("PulseTrail", mView);
+                // dashes barely overlap, skip the offscreen layer alpha would need
+                mTrails[i].setHasOverlappingRendering(false);
+            }
+        }
+        final RenderNode node = mTrails[mTrailHead];
+        node.setLeftTopRightBottom(0, 0, mWidth, mHeight);
+        final DisplayListCanvas canvas = node.start(mWidth, mHeight);
+        try {
+            canvas.drawLines(mPlan.getLines(), 0, count, mPaint);
+        } finally {
+            node.end(canvas);
+        }
+        mTrailHead = (mTrailHead + 1) % TRAIL_LENGTH;
+        mTrailCount = Math.min(mTrailCount + 1, TRAIL_LENGTH);
+    }
+
+    private void drawTrails(DisplayListCanvas canvas) {
+        // oldest first so newer lines land on top
+        for (int age = mTrailCount - 1; age >= 0; age--) {
+            final RenderNode node = mTrails[(mTrailHead - 1 - age + TRAIL_LENGTH) % TRAIL_LENGTH];
+            node.setAlpha(TRAIL_ALPHAS[age]);
+            canvas.drawRenderNode(node);
+        }
     }
 
     @Override
     public void onVisualizerLinkChanged(boolean linked) {
         if (!linked) {
-            mLavaLamp.stop();
+            mLavaLamp.removeColorAnimatorListener(this);
         }
     }
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawBitmap(mCanvasBitmap, mMatrix, null);
+        if (mHardwareTrails) {
+            // software snapshots of a hardware window get no trails
+            if (canvas.isHardwareAccelerated() && mTrailCount > 0) {
+                drawTrails((DisplayListCanvas) canvas);
+            }
+            return;
+        }
+        if (mCanvasBitmap == null) {
+            return;
+        }
+        if (mAlphaMask) {
+            // the mask already carries the paint alpha
+            mBitmapPaint.setColor(mPaint.getColor() | 0xff000000);
+        }
+        canvas.drawBitmap(mCanvasBitmap, mMatrix, mBitmapPaint);
+    }
+
+    /**
+     * Bars sit mDivisions / 2 bins apart in the largest capture, so a
+     * capture that much coarser still has a bin on every bar. Only whole
+     * power of two steps keep each bar on exactly the same frequency, and
+     * buildPlan() corrects the level for the wider bins. Log bars group
+     * neighbouring bins and want the finest capture
+     */
+    @Override
+    public int getRequiredBins() {
+        if (mMapping == RenderPlan.MAPPING_LOG) {
+            return 0;
+        }
+        return REFERENCE_BINS / Integer.lowestOneBit(mDivisions / 2);
+    }
+
+    @Override
+    public void setQualityTier(int tier) {
+        if (mQualityTier != tier) {
+            mQualityTier = tier;
+            // hardware trails are already cheap, only the software surface shrinks
+            if (!mHardwareTrails) {
+                onSizeChanged(0, 0, 0, 0);
+            }
+        }
+    }
+
+    @Override
+    public int getRetainedBytes() {
+        // trail display lists are small next to the software surface
+        return mCanvasBitmap == null ? 0 : mCanvasBitmap.getAllocationByteCount();
+    }
+
+    @Override
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "trails: " + (mHardwareTrails
+                ? "hardware nodes=" + mTrailCount + "/" + TRAIL_LENGTH
+                : "software " + (mCanvasBitmap == null ? "none"
+                        : mCanvasBitmap.getWidth() + "x" + mCanvasBitmap.getHeight()
+                        + " " + mCanvasBitmap.getConfig())));
     }
 
     /*private int applyPaintAlphaToColor(int color) {
@@ -213,86 +369,22 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         return (DEF_PAINT_ALPHA << 24) | (opaqueColor & 0x00ffffff);
     }*/
 
-    private class LegacySettingsObserver extends ContentObserver {
-        public LegacySettingsObserver(Handler handler) {
-            super(handler);
-            register();
-        }
-
-        void register() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_ACCENT_COLOR_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_COLOR), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_SPEED), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_DIMEN), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_DIV), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_FILLED_BLOCK_SIZE), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_EMPTY_BLOCK_SIZE), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_FUDGE_FACTOR), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_AUTO_COLOR), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_SMOOTHING_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-        }
-
-        @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            updateSettings();
-        }
-
-        public void updateSettings() {
-            ContentResolver resolver = mContext.getContentResolver();
-            final Resources res = mContext.getResources();
+    @Override
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        final Resources res = mContext.getResources();
 
-            mAutoColor = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_AUTO_COLOR, 0,
-                    UserHandle.USER_CURRENT) == 1;
+        if ((changedKeys & COLOR_KEYS) != 0) {
+            mAutoColor = settings.getBoolean(PulseSettingsStore.KEY_AUTO_COLOR, false);
 
-            mPulseAccentColorEnabled = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.PULSE_ACCENT_COLOR_ENABLED, 0, UserHandle.USER_CURRENT) == 1;
+            mPulseAccentColorEnabled = settings.getBoolean(PulseSettingsStore.KEY_ACCENT_COLOR,
+                    false);
 
-            mLavaLampEnabled = !mAutoColor && Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_ENABLED, 1, UserHandle.USER_CURRENT) == 1;
+            mLavaLampEnabled = !mAutoColor
+                    && settings.getBoolean(PulseSettingsStore.KEY_LAVALAMP_ENABLED, true);
 
-            mUserColor = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_COLOR,
-                    mContext.getResources().getColor(R.color.config_pulseFillColor),
-                    UserHandle.USER_CURRENT);
-            mAccentColor = mContext.getResources().getColor(R.color.pulseAccentColor);
+            mUserColor = settings.getInt(PulseSettingsStore.KEY_COLOR,
+                    res.getColor(R.color.config_pulseFillColor));
+            mAccentColor = res.getColor(R.color.pulseAccentColor);
 
             if (mPulseAccentColorEnabled) {
                 mPaint.setColor(mAccentColor);
@@ -302,55 +394,45 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                 int lastColor = mController.getAlbumArtColor();
                 mPaint.setColor(mAutoColor && lastColor != -1 ? lastColor : mUserColor);
             }
-            int time = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_SPEED, 10000,
-                    UserHandle.USER_CURRENT);
-            mLavaLamp.setAnimationTime(time);
-            
-            int lavaLampColorFrom= Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM,
-                    0xffff8080,
-                    UserHandle.USER_CURRENT);
-            int lavaLampColorTo = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO,
-                    0xff8080ff,
-                    UserHandle.USER_CURRENT);
-            mLavaLamp.setAnimationColors(lavaLampColorFrom, lavaLampColorTo);
+            mLavaLamp.setAnimationTime(
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_SPEED, 10000));
+            mLavaLamp.setAnimationColors(
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_COLOR_FROM, 0xffff8080),
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_COLOR_TO, 0xff8080ff));
 
             if (mLavaLampEnabled && mIsValidStream && !mPulseAccentColorEnabled) {
-                mLavaLamp.start();
+                mLavaLamp.addColorAnimatorListener(this);
             } else {
-                mLavaLamp.stop();
+                mLavaLamp.removeColorAnimatorListener(this);
             }
-            int emptyBlock = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_EMPTY_BLOCK_SIZE, 1,
-                    UserHandle.USER_CURRENT);
-            int customDimen = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_CUSTOM_DIMEN, 14,
-                    UserHandle.USER_CURRENT);
-            int numDivision = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_CUSTOM_DIV, 16,
-                    UserHandle.USER_CURRENT);
-            int fudgeFactor = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_CUSTOM_FUDGE_FACTOR, 4,
-                    UserHandle.USER_CURRENT);
-            int filledBlock = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_FILLED_BLOCK_SIZE, 4,
-                    UserHandle.USER_CURRENT);
+        }
 
+        if ((changedKeys & DASH_KEYS) != 0) {
+            int filledBlock = settings.getInt(PulseSettingsStore.KEY_FILLED_BLOCK_SIZE, 4);
+            int emptyBlock = settings.getInt(PulseSettingsStore.KEY_EMPTY_BLOCK_SIZE, 1);
             mPathEffect1 = getLimitedDimenValue(filledBlock, 4, 8, res);
             mPathEffect2 = getLimitedDimenValue(emptyBlock, 0, 4, res);
-            mPaint.setPathEffect(null);
             mPaint.setPathEffect(new android.graphics.DashPathEffect(new float[] {
                     mPathEffect1,
                     mPathEffect2
             }, 0));
+        }
+
+        if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_CUSTOM_DIMEN)) != 0) {
+            int customDimen = settings.getInt(PulseSettingsStore.KEY_CUSTOM_DIMEN, 14);
             mPaint.setStrokeWidth(getLimitedDimenValue(customDimen, 1, 30, res));
+        }
+
+        if ((changedKeys & PLAN_KEYS) != 0) {
+            int numDivision = settings.getInt(PulseSettingsStore.KEY_CUSTOM_DIV, 16);
+            int fudgeFactor = settings.getInt(PulseSettingsStore.KEY_CUSTOM_FUDGE_FACTOR, 4);
+            final int oldDivisions = mDivisions;
             mDivisions = validateDivision(numDivision);
             mDbFuzzFactor = Math.max(2, Math.min(6, fudgeFactor));
-
-            mSmoothingEnabled = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_SMOOTHING_ENABLED, 0, UserHandle.USER_CURRENT) == 1;
+            mPlanDirty = true;
+            if (mDivisions != oldDivisions) {
+                mController.updateCaptureNeeds();
+            }
         }
     }
 
@@ -359,6 +441,14 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                 Math.max(min, Math.min(max, val)), res.getDisplayMetrics());
     }
 
+    private int getDownscale() {
+        return Math.max(mDownscale, QualityPolicy.getTrailDownscale(mQualityTier));
+    }
+
+    private static int validateDownscale(int val) {
+        return val == 2 || val == 4 ? val : 1;
+    }
+
     private static int validateDivision(int val) {
         // if a bad value was passed from settings (not divisible by 2)
         // reset to default value of 16. Validate range.
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Where VisualizerStreamHandler gets its captures from. Normally the
+ * platform Visualizer, but a recorded or synthetic stream can stand in
+ * for it so Pulse behaves the same without real audio playing
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public interface FftSource {
+    public interface Callback {
+        public void onFftDataCapture(byte[] fft, int samplingRate);
+
+        public void onWaveFormDataCapture(byte[] waveform, int samplingRate);
+    }
+
+    /**
+     * Set up capture for a session. Captures don't flow until setEnabled(true)
+     *
+     * @param audioSessionId - session to capture, 0 for the output mix
+     * @param callback - receives captures on the looper open() was called on
+     * @return true if the source is ready
+     */
+    public boolean open(int audioSessionId, Callback callback);
+
+    public boolean isOpen();
+
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Drop to a capture rate just high enough to notice audio coming back,
+     * or return to the full rate
+     */
+    public void setProbing(boolean probing);
+
+    /**
+     * Deliver waveform captures as well as FFT captures. Off after open(),
+     * since only waveform renderers want them
+     */
+    public void setWaveformEnabled(boolean enabled);
+
+    /**
+     * Read captures into reused buffers on our own vsync paced schedule
+     * instead of taking a new array from the platform for each. May
+     * change while open, captures keep flowing
+     */
+    public void setPullMode(boolean pull);
+
+    /**
+     * @return bytes of capture buffers allocated since open()
+     */
+    public long getAllocatedBytes();
+
+    /**
+     * @return smallest and largest capture size in bytes. Valid once open
+     */
+    public int[] getCaptureSizeRange();
+
+    /**
+     * @return fastest capture rate in milliHertz. Valid once open
+     */
+    public int getMaxCaptureRate();
+
+    /**
+     * Capture size and rate to use while not probing. Sources that can't
+     * change them keep what they have
+     *
+     * @param captureSize - bytes per capture, within getCaptureSizeRange()
+     * @param rate - captures per second in milliHertz
+     */
+    public void setCaptureFormat(int captureSize, int rate);
+
+    /**
+     * Stop capture and free any resources. open() may be called again later
+     */
+    public void release();
+}
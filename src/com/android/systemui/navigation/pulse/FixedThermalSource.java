@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * A thermal status set by hand. Backs the debug.pulse.thermal override,
+ * and stands in for the platform in tests of the quality policy
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class FixedThermalSource implements ThermalSource {
+    private int mStatus;
+    private Listener mListener;
+
+    public FixedThermalSource(int status) {
+        mStatus = status;
+    }
+
+    public void setThermalStatus(int status) {
+        if (mStatus != status) {
+            mStatus = status;
+            if (mListener != null) {
+                mListener.onThermalStatusChanged(status);
+            }
+        }
+    }
+
+    @Override
+    public int getThermalStatus() {
+        return mStatus;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+}
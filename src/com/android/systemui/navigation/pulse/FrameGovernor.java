@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Paces Pulse invalidation on vsync. The frame rate is always the display
+ * refresh rate divided by a whole number, so frames are evenly spaced on
+ * 60, 90 and 120Hz panels alike. The divisor goes up in power save mode
+ * and while drawing costs more than its share of a vsync period
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.view.Choreographer;
+
+public class FrameGovernor implements Choreographer.FrameCallback {
+    public interface Target {
+        /**
+         * A frame is due, invalidate now. Called on the UI thread
+         */
+        public void onFrameDue();
+    }
+
+    /**
+     * Source of vsync callbacks, Choreographer unless faked
+     */
+    public interface FrameClock {
+        public void postFrameCallback(Choreographer.FrameCallback callback);
+        public void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final float DEF_REFRESH_RATE = 60f;
+    private static final int POWER_SAVE_MAX_FPS = 30;
+    private static final int MAX_LOAD_DIVISOR = 4;
+    // draw cost as a fraction of one vsync period
+    private static final float DRAW_BUDGET_FRACTION = 0.25f;
+    private static final float DRAW_RELAX_FRACTION = 0.1f;
+    // frames between load adjustments, so one slow frame doesn't flap the rate
+    private static final int LOAD_SETTLE_FRAMES = 30;
+    // weight of the newest sample in the moving averages
+    private static final float EMA_ALPHA = 0.1f;
+
+    private final FrameClock mFrameClock;
+    private final Target mTarget;
+    private final int mMaxFps;
+
+    private float mRefreshRate = DEF_REFRESH_RATE;
+    private long mVsyncNanos = (long) (NANOS_PER_SECOND / DEF_REFRESH_RATE);
+    private boolean mPowerSaveMode;
+    private int mFrameRateCap;
+    private boolean mSuspended;
+    private long mSkippedFrames;
+    private int mLoadDivisor = 1;
+    private int mDivisor;
+    private long mTargetIntervalNanos;
+
+    private boolean mFrameRequested;
+    private boolean mCallbackPosted;
+    private long mLastFrameNanos;
+    private int mFramesSinceLoadChange;
+    private float mDrawCostNanos;
+    private float mJitterNanos;
+    private long mMaxJitterNanos;
+
+    public FrameGovernor(Target target, int maxFps) {
+        this(target, maxFps, new FrameClock() {
+            @Override
+            public void postFrameCallback(Choreographer.FrameCallback callback) {
+                Choreographer.getInstance().postFrameCallback(callback);
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                Choreographer.getInstance().removeFrameCallback(callback);
+            }
+        });
+    }
+
+    public FrameGovernor(Target target, int maxFps, FrameClock frameClock) {
+        mTarget = target;
+        mMaxFps = Math.max(1, maxFps);
+        mFrameClock = frameClock;
+        updateDivisor();
+    }
+
+    public void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0f && refreshRate != mRefreshRate) {
+            mRefreshRate = refreshRate;
+            mVsyncNanos = (long) (NANOS_PER_SECOND / refreshRate);
+            updateDivisor();
+        }
+    }
+
+    public void setPowerSaveMode(boolean enabled) {
+        if (mPowerSaveMode != enabled) {
+            mPowerSaveMode = enabled;
+            updateDivisor();
+        }
+    }
+
+    /**
+     * @param fps - frame rate ceiling from the quality tier, 0 for none
+     */
+    public void setFrameRateCap(int fps) {
+        if (mFrameRateCap != fps) {
+            mFrameRateCap = fps;
+            updateDivisor();
+        }
+    }
+
+    /**
+     * Drop frame requests while the view can't be seen
+     */
+    public void setSuspended(boolean suspended) {
+        mSuspended = suspended;
+        if (suspended) {
+            cancel();
+        }
+    }
+
+    public boolean isSuspended() {
+        return mSuspended;
+    }
+
+    /**
+     * @return frame requests dropped while suspended
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /**
+     * Ask for an invalidate on the next vsync slot. Cheap to call often,
+     * requests between two slots are coalesced into one frame
+     */
+    public void requestFrame() {
+        if (mSuspended) {
+            mSkippedFrames++;
+            return;
+        }
+        mFrameRequested = true;
+        if (!mCallbackPosted) {
+            mCallbackPosted = true;
+            mFrameClock.postFrameCallback(this);
+        }
+    }
+
+    public void cancel() {
+        mFrameRequested = false;
+        if (mCallbackPosted) {
+            mCallbackPosted = false;
+            mFrameClock.removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * Feed back how long the last draw took on the UI thread
+     *
+     * @param costNanos - time spent in draw
+     */
+    public void onDrawComplete(long costNanos) {
+        mDrawCostNanos += (costNanos - mDrawCostNanos) * EMA_ALPHA;
+        if (++mFramesSinceLoadChange < LOAD_SETTLE_FRAMES) {
+            return;
+        }
+        if (mDrawCostNanos > mVsyncNanos * DRAW_BUDGET_FRACTION
+                && mLoadDivisor < MAX_LOAD_DIVISOR) {
+            mLoadDivisor++;
+            updateDivisor();
+        } else if (mDrawCostNanos < mVsyncNanos * DRAW_RELAX_FRACTION && mLoadDivisor > 1) {
+            mLoadDivisor--;
+            updateDivisor();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mCallbackPosted = false;
+        if (!mFrameRequested) {
+            return;
+        }
+        // half a vsync of slack absorbs timestamp noise
+        final long elapsed = frameTimeNanos - mLastFrameNanos;
+        if (mLastFrameNanos != 0 && elapsed < mTargetIntervalNanos - mVsyncNanos / 2) {
+            mCallbackPosted = true;
+            mFrameClock.postFrameCallback(this);
+            return;
+        }
+        if (mLastFrameNanos != 0 && elapsed < mTargetIntervalNanos * 2) {
+            // only measure jitter between back to back frames, not after idle gaps
+            final long jitter = Math.abs(elapsed - mTargetIntervalNanos);
+            mJitterNanos += (jitter - mJitterNanos) * EMA_ALPHA;
+            mMaxJitterNanos = Math.max(mMaxJitterNanos, jitter);
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mFrameRequested = false;
+        mTarget.onFrameDue();
+    }
+
+    public float getTargetFrameRate() {
+        return mRefreshRate / mDivisor;
+    }
+
+    /**
+     * @return frame rate this governor would run at unthrottled
+     */
+    public float getMaxFrameRate() {
+        return Math.min(mRefreshRate, mMaxFps);
+    }
+
+    public float getRefreshRate() {
+        return mRefreshRate;
+    }
+
+    public int getDivisor() {
+        return mDivisor;
+    }
+
+    public long getJitterNanos() {
+        return (long) mJitterNanos;
+    }
+
+    public long getMaxJitterNanos() {
+        return mMaxJitterNanos;
+    }
+
+    public long getDrawCostNanos() {
+        return (long) mDrawCostNanos;
+    }
+
+    private void updateDivisor() {
+        int maxFps = mPowerSaveMode ? Math.min(mMaxFps, POWER_SAVE_MAX_FPS) : mMaxFps;
+        if (mFrameRateCap > 0) {
+            maxFps = Math.min(maxFps, mFrameRateCap);
+        }
+        // smallest whole divisor that keeps us at or under maxFps
+        final int baseDivisor = Math.max(1, (int) Math.ceil(mRefreshRate / maxFps - 0.01f));
+        mDivisor = baseDivisor * mLoadDivisor;
+        mTargetIntervalNanos = mVsyncNanos * mDivisor;
+        mFramesSinceLoadChange = 0;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Lock free, latest wins hand off of frames from one producer
+ * thread to one consumer thread. The producer writes into a back buffer
+ * while the consumer reads a front buffer; a third spare frame is swapped
+ * atomically between them so neither side ever waits or copies. A frame
+ * published before the previous one was consumed simply replaces it
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameMailbox<T> {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FLAG_DIRTY = 0x4;
+
+    private final Object[] mFrames;
+
+    // index of the spare frame, plus FLAG_DIRTY if it holds an unread frame
+    private final AtomicInteger mSpare = new AtomicInteger(0);
+    // owned by the producer
+    private int mBack = 1;
+    // owned by the consumer
+    private int mFront = 2;
+
+    /**
+     * @param a, b, c - three distinct frames to rotate through
+     */
+    public FrameMailbox(T a, T b, T c) {
+        mFrames = new Object[] { a, b, c };
+    }
+
+    /**
+     * Producer only
+     *
+     * @return the frame to fill before calling publish()
+     */
+    @SuppressWarnings("unchecked")
+    public T getBackFrame() {
+        return (T) mFrames[mBack];
+    }
+
+    /**
+     * Producer only. Hand the back frame to the consumer
+     *
+     * @return true if an unread frame was replaced, i.e. dropped
+     */
+    public boolean publish() {
+        final int old = mSpare.getAndSet(mBack | FLAG_DIRTY);
+        mBack = old & INDEX_MASK;
+        return (old & FLAG_DIRTY) != 0;
+    }
+
+    /**
+     * Consumer only. The returned frame stays valid until the next call
+     *
+     * @return the latest published frame, or null if nothing new arrived
+     */
+    @SuppressWarnings("unchecked")
+    public T consume() {
+        if ((mSpare.get() & FLAG_DIRTY) == 0) {
+            return null;
+        }
+        final int old = mSpare.getAndSet(mFront);
+        mFront = old & INDEX_MASK;
+        return (T) mFrames[mFront];
+    }
+}
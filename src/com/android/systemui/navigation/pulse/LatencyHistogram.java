@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Fixed bucket latency histogram. Buckets grow by a quarter octave from
+ * 10us to ~650ms, so percentiles are accurate to about 19%. Recording is
+ * a binary search and an increment, no allocation. Meant to be written
+ * from one thread; readers only ever see slightly stale counts
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+public class LatencyHistogram {
+    private static final long MIN_BOUND_NANOS = 10 * 1000L;
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    private static final int BUCKET_COUNT = 64;
+    // upper bound of each bucket, anything larger lands in the overflow bucket
+    private static final long[] BOUNDS = new long[BUCKET_COUNT];
+
+    static {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            BOUNDS[i] = (long) (MIN_BOUND_NANOS
+                    * Math.pow(2, (double) i / BUCKETS_PER_OCTAVE));
+        }
+    }
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKET_COUNT + 1];
+    private long mCount;
+    private long mMaxNanos;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public void record(long nanos) {
+        int low = 0;
+        int high = BUCKET_COUNT;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        mCounts[low]++;
+        mCount++;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @param percentile - 0..100
+     * @return upper bound of the bucket holding the percentile, 0 if empty
+     */
+    public long getPercentileNanos(float percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(mCount * percentile / 100f);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mMaxNanos = 0;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(String.format("%s%s: n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                prefix, mName, mCount,
+                toMillis(getPercentileNanos(50)),
+                toMillis(getPercentileNanos(90)),
+                toMillis(getPercentileNanos(99)),
+                toMillis(mMaxNanos)));
+    }
+
+    private static float toMillis(long nanos) {
+        return nanos / 1000000f;
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Decides when Pulse holds a Visualizer link. Every condition is an input
+ * bit and the link is wanted only while all of them are set. Input
+ * changes are debounced: after the last change in a window the net
+ * result is applied once, so a keyguard flap or a run of volume keys
+ * costs nothing instead of a link, an unlink and their binder calls.
+ * Single threaded, the scheduler decides which thread
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+public class LinkStateMachine {
+    public interface Actions {
+        public void link();
+        public void unlink();
+    }
+
+    /**
+     * Delayed execution and time, a Handler unless faked
+     */
+    public interface Scheduler {
+        public void postDelayed(Runnable r, long delayMillis);
+        public void removeCallbacks(Runnable r);
+        public long uptimeMillis();
+    }
+
+    public static final int INPUT_ENABLED = 1 << 0;
+    public static final int INPUT_SCREEN_ON = 1 << 1;
+    public static final int INPUT_MEDIA_PLAYING = 1 << 2;
+    public static final int INPUT_KEYGUARD_HIDDEN = 1 << 3;
+    public static final int INPUT_UNMUTED = 1 << 4;
+    public static final int INPUT_NOT_PINNED = 1 << 5;
+    public static final int INPUT_POWER_ALLOWED = 1 << 6;
+    public static final int INPUT_SUBSCRIBED = 1 << 7;
+    public static final int INPUT_VISIBLE = 1 << 8;
+    public static final int ALL_INPUTS = (1 << 9) - 1;
+    // indexed by bit
+    private static final String[] INPUT_NAMES = {
+            "enabled", "screenOn", "playing", "keyguardHidden", "unmuted", "notPinned",
+            "powerAllowed", "subscribed", "visible"
+    };
+
+    private static final int HISTORY_SIZE = 16;
+
+    private final Actions mActions;
+    private final Scheduler mScheduler;
+    private final long mDebounceMillis;
+
+    private int mInputs;
+    private boolean mLinked;
+    private boolean mApplyPosted;
+    private int mPendingEvents;
+    // stream rejected, playing is ignored until it is seen false
+    private boolean mRejected;
+
+    private long mEvents;
+    private long mAbsorbed;
+    private int mLinks;
+    private int mUnlinks;
+
+    // ring of applied transitions, oldest overwritten first
+    private final long[] mHistoryTimes = new long[HISTORY_SIZE];
+    private final int[] mHistoryInputs = new int[HISTORY_SIZE];
+    private final boolean[] mHistoryLinked = new boolean[HISTORY_SIZE];
+    private final int[] mHistoryEvents = new int[HISTORY_SIZE];
+    private int mHistoryHead;
+    private int mHistoryCount;
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mApplyPosted = false;
+            apply();
+        }
+    };
+
+    /**
+     * @param debounceMillis - how long inputs must hold still before the
+     *        link follows them
+     */
+    public LinkStateMachine(Actions actions, Scheduler scheduler, long debounceMillis) {
+        mActions = actions;
+        mScheduler = scheduler;
+        mDebounceMillis = debounceMillis;
+    }
+
+    /**
+     * Report every input at once. Cheap to call on any event, changes or not
+     *
+     * @param inputs - INPUT_* bits currently true
+     */
+    public void setInputs(int inputs) {
+        mEvents++;
+        mPendingEvents++;
+        if (mRejected) {
+            if ((inputs & INPUT_MEDIA_PLAYING) == 0) {
+                mRejected = false;
+            } else {
+                inputs &= ~INPUT_MEDIA_PLAYING;
+            }
+        }
+        mInputs = inputs & ALL_INPUTS;
+        if (isLinkWanted() == mLinked) {
+            // back where we are, whatever was pending cancels out
+            if (mApplyPosted) {
+                mScheduler.removeCallbacks(mApplyRunnable);
+                mApplyPosted = false;
+            }
+            mAbsorbed += mPendingEvents;
+            mPendingEvents = 0;
+            return;
+        }
+        // restart the window, only the last change in a burst is acted on
+        if (mApplyPosted) {
+            mScheduler.removeCallbacks(mApplyRunnable);
+        }
+        mApplyPosted = true;
+        mScheduler.postDelayed(mApplyRunnable, mDebounceMillis);
+    }
+
+    /**
+     * The link was dropped from outside without a verdict on the stream,
+     * e.g. a validation that ran out of time. The next input event takes
+     * it up again
+     */
+    public void onLinkLost() {
+        mLinked = false;
+    }
+
+    /**
+     * The link was dropped because the stream was rejected, all zeros like
+     * DRM protected playback. The same playback would only fail again, so
+     * it isn't taken up again until media stops playing and starts over
+     */
+    public void onLinkRejected() {
+        onLinkLost();
+        mRejected = true;
+        mInputs &= ~INPUT_MEDIA_PLAYING;
+    }
+
+    public boolean isLinked() {
+        return mLinked;
+    }
+
+    public boolean isLinkWanted() {
+        return mInputs == ALL_INPUTS;
+    }
+
+    public boolean isPending() {
+        return mApplyPosted;
+    }
+
+    public int getInputs() {
+        return mInputs;
+    }
+
+    public int getLinkCount() {
+        return mLinks;
+    }
+
+    public int getUnlinkCount() {
+        return mUnlinks;
+    }
+
+    /**
+     * @return events that settled without a link or unlink of their own
+     */
+    public long getAbsorbedCount() {
+        return mAbsorbed;
+    }
+
+    public static String inputsToString(int inputs) {
+        final StringBuilder sb = new StringBuilder();
+        for (int bit = 0; bit < INPUT_NAMES.length; bit++) {
+            if ((inputs & (1 << bit)) == 0) {
+                sb.append(sb.length() > 0 ? "," : "").append('!').append(INPUT_NAMES[bit]);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : "all";
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + String.format(
+                "link: linked=%b wanted=%b pending=%b rejected=%b inputs=%s events=%d"
+                + " absorbed=%d links=%d unlinks=%d",
+                mLinked, isLinkWanted(), mApplyPosted, mRejected, inputsToString(mInputs),
+                mEvents, mAbsorbed, mLinks, mUnlinks));
+        final long now = mScheduler.uptimeMillis();
+        for (int i = 0; i < mHistoryCount; i++) {
+            final int index = (mHistoryHead - mHistoryCount + i + HISTORY_SIZE) % HISTORY_SIZE;
+            pw.println(prefix + String.format("  -%.1fs %s after %d events (%s)",
+                    (now - mHistoryTimes[index]) / 1000f,
+                    mHistoryLinked[index] ? "link" : "unlink", mHistoryEvents[index],
+                    inputsToString(mHistoryInputs[index])));
+        }
+    }
+
+    private void apply() {
+        final boolean wanted = isLinkWanted();
+        if (wanted == mLinked) {
+            // the link was lost while an unlink was pending
+            mAbsorbed += mPendingEvents;
+            mPendingEvents = 0;
+            return;
+        }
+        mLinked = wanted;
+        if (wanted) {
+            mLinks++;
+            mActions.link();
+        } else {
+            mUnlinks++;
+            mActions.unlink();
+        }
+        record(wanted);
+    }
+
+    private void record(boolean linked) {
+        mHistoryTimes[mHistoryHead] = mScheduler.uptimeMillis();
+        mHistoryInputs[mHistoryHead] = mInputs;
+        mHistoryLinked[mHistoryHead] = linked;
+        mHistoryEvents[mHistoryHead] = mPendingEvents;
+        mHistoryHead = (mHistoryHead + 1) % HISTORY_SIZE;
+        mHistoryCount = Math.min(mHistoryCount + 1, HISTORY_SIZE);
+        // the last event of the burst made the transition
+        mAbsorbed += mPendingEvents - 1;
+        mPendingEvents = 0;
+    }
+}
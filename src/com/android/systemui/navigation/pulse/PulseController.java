@@ -24,10 +24,14 @@
 
 package com.android.systemui.navigation.pulse;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.android.systemui.Dependency;
+import com.android.systemui.R;
 import com.android.systemui.SysUiServiceProvider;
 import com.android.systemui.navigation.pulse.PulseController;
 
@@ -36,22 +40,24 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.media.AudioManager;
 import android.media.IAudioService;
-import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
+import android.os.Trace;
 import android.os.UserHandle;
-import android.provider.Settings;
 import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.animation.Animation;
 import android.widget.FrameLayout;
@@ -61,8 +67,10 @@ import com.android.systemui.statusbar.NotificationMediaManager;
 import com.android.systemui.statusbar.CommandQueue.Callbacks;
 import com.android.systemui.statusbar.phone.StatusBar;
 import com.android.systemui.statusbar.policy.KeyguardMonitor;
+import com.android.systemui.navigation.utils.ColorAnimator;
 
-public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.Callback, NotificationMediaManager.MediaUpdateListener {
+public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.Callback, NotificationMediaManager.MediaUpdateListener,
+        PulseView.Host {
     public interface PulseStateListener {
         public void onStartPulse();
         public void onStopPulse();
@@ -71,16 +79,54 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     public static final boolean DEBUG = false;
 
     private static final String TAG = PulseController.class.getSimpleName();
-    private static final int RENDER_STYLE_LEGACY = 0;
-    private static final int RENDER_STYLE_CM = 1;
+    // 0..2 pins the thermal status instead of asking the platform
+    private static final String PROP_THERMAL_OVERRIDE = "debug.pulse.thermal";
+    // navbar disabled flags that leave nothing of the navigation bar to draw in
+    private static final int NAVIGATION_DISABLED_FLAGS = View.STATUS_BAR_DISABLE_HOME
+            | View.STATUS_BAR_DISABLE_BACK | View.STATUS_BAR_DISABLE_RECENT;
+    public static final int RENDER_STYLE_LEGACY = 0;
+    public static final int RENDER_STYLE_CM = 1;
+    public static final int RENDER_STYLE_WAVEFORM = 2;
+    // the navbar on the lockscreen and ambient surfaces only, the style
+    // setting never picks it
+    public static final int RENDER_STYLE_AMBIENT = 3;
 
     private Context mContext;
     private Handler mHandler;
     private AudioManager mAudioManager;
     private Renderer mRenderer;
+    private RendererRegistry mRenderers;
+    // last media colors, handed to a renderer when it is swapped in
+    private boolean mColorizedMedia;
+    private int[] mColors;
     private VisualizerStreamHandler mStreamHandler;
+    private LinkStateMachine mLinkState;
+    // the navbar and every PulseSurface draw from the same stream
+    private final SpectrumMultiplexer mMultiplexer = new SpectrumMultiplexer();
+    private final List<PulseSurface> mSurfaces = new ArrayList<>();
+    private PulseDspThread mDspThread;
+    private Choreographer mChoreographer;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    // capture time of the last frame handed to the renderer, until it is drawn
+    private long mUndrawnCaptureTimeNanos;
+
+    private final LatencyHistogram mDeliveryLatency = new LatencyHistogram("dsp to ui");
+    private final LatencyHistogram mUpdateCost = new LatencyHistogram("renderer update");
+    private final LatencyHistogram mDrawCost = new LatencyHistogram("renderer draw");
+    private final LatencyHistogram mEndToEndLatency = new LatencyHistogram("capture to draw");
+    private final LatencyHistogram mRendererSwitch = new LatencyHistogram("renderer switch");
+    // offscreen surfaces outlive renderers, relinks and rotations
+    private final BitmapPool mBitmapPool = new BitmapPool();
     private final List<PulseStateListener> mStateListeners = new ArrayList<>();
-    private SettingsObserver mSettingsObserver;
+    // lava lamps by the setting that times them, shared by renderers of a style
+    private final SparseArray<ColorAnimator> mLavaLamps = new SparseArray<>();
+    private final QualityPolicy mQualityPolicy = new QualityPolicy(System.nanoTime());
+    private ThermalSource mThermalSource;
+    private boolean mUnlinkInPowerSave;
+    // the navbar switches to the ambient style on the lockscreen
+    private boolean mAmbientOnLockscreen;
+    private int mAmbientFrameRate;
+    private PulseSettingsStore mSettingsStore;
     private KeyguardMonitor mKeyguardMonitor;
     private Bitmap mAlbumArt;
     private PulseView mPulseView;
@@ -89,6 +135,7 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
 
     // Pulse state
     private boolean mPulseEnabled;
+    private boolean mSmoothingEnabled;
     private boolean mKeyguardShowing;
     private boolean mLinked;
     private boolean mPowerSaveModeEnabled;
@@ -98,6 +145,7 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     private boolean mScreenPinningEnabled;
     private boolean mIsMediaPlaying;
     private boolean mAttached;
+    private boolean mNavigationDisabled;
 
     private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
@@ -105,19 +153,26 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
             String action = intent.getAction();
             if (Intent.ACTION_SCREEN_OFF.equals(action)) {
                 mScreenOn = false;
-                doLinkage();
+                onAmbientStateChanged();
             } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
                 mScreenOn = true;
-                doLinkage();
+                onAmbientStateChanged();
             } else if (PowerManager.ACTION_POWER_SAVE_MODE_CHANGING.equals(intent.getAction())) {
                 mPowerSaveModeEnabled = intent.getBooleanExtra(PowerManager.EXTRA_POWER_SAVE_MODE,
                         false);
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        doLinkage();
-                    }
-                });
+                mPulseView.getFrameGovernor().setPowerSaveMode(mPowerSaveModeEnabled);
+                for (PulseSurface surface : mSurfaces) {
+                    surface.getView().getFrameGovernor().setPowerSaveMode(mPowerSaveModeEnabled);
+                }
+                mQualityPolicy.setPowerSave(mPowerSaveModeEnabled);
+                updateQualityTier();
+                doLinkage();
+            } else if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+                final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 100);
+                final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+                mQualityPolicy.setBattery(scale > 0 ? level * 100 / scale : 100,
+                        intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+                updateQualityTier();
             } else if (AudioManager.STREAM_MUTE_CHANGED_ACTION.equals(intent.getAction())
                     || (AudioManager.VOLUME_CHANGED_ACTION.equals(intent.getAction()))) {
                 int streamType = intent.getIntExtra(AudioManager.EXTRA_VOLUME_STREAM_TYPE, -1);
@@ -125,12 +180,7 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
                     boolean muted = isMusicMuted(streamType);
                     if (mMusicStreamMuted != muted) {
                         mMusicStreamMuted = muted;
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                doLinkage();
-                            }
-                        });
+                        doLinkage();
                     }
                 }
             }
@@ -140,9 +190,7 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     private final VisualizerStreamHandler.Listener mStreamListener = new VisualizerStreamHandler.Listener() {
         @Override
         public void onStreamAnalyzed(boolean isValid) {
-            if (mRenderer != null) {
-                mRenderer.onStreamAnalyzed(isValid);
-            }
+            mMultiplexer.dispatchStreamAnalyzed(isValid);
             if (isValid) {
                 notifyStateListeners(true);
                 turnOnPulse();
@@ -151,81 +199,253 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
             }
         }
 
+        // captures arrive on the dsp thread
         @Override
         public void onFFTUpdate(byte[] bytes) {
-            if (mRenderer != null) {
-                mRenderer.onFFTUpdate(bytes);
-            }
+            mDspThread.onFftCapture(bytes);
         }
 
         @Override
         public void onWaveFormUpdate(byte[] bytes) {
-            if (mRenderer != null) {
-                mRenderer.onWaveFormUpdate(bytes);
+            mDspThread.onWaveformCapture(bytes);
+        }
+    };
+
+    private final LinkStateMachine.Actions mLinkActions = new LinkStateMachine.Actions() {
+        @Override
+        public void link() {
+            doLinkVisualizer();
+        }
+
+        @Override
+        public void unlink() {
+            doUnlinkVisualizer();
+        }
+    };
+
+    private final PulseDspThread.Callback mDspCallback = new PulseDspThread.Callback() {
+        @Override
+        public void onFrameAvailable() {
+            // only one pending vsync at a time, the mailbox keeps the latest frame
+            if (mFrameScheduled.compareAndSet(false, true)) {
+                mChoreographer.postFrameCallback(mFrameCallback);
             }
         }
     };
 
-    private class SettingsObserver extends ContentObserver {
-        public SettingsObserver(Handler handler) {
-            super(handler);
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled.set(false);
+            SpectrumFrame frame = mDspThread.consumeFrame();
+            if (frame != null) {
+                final long start = System.nanoTime();
+                mDeliveryLatency.record(start - frame.getPublishTimeNanos());
+                Trace.beginSection("Pulse#onFFTUpdate");
+                mMultiplexer.dispatchFFTUpdate(frame);
+                Trace.endSection();
+                mUpdateCost.record(System.nanoTime() - start);
+                mUndrawnCaptureTimeNanos = frame.getCaptureTimeNanos();
+            }
+            WaveformFrame waveform = mDspThread.consumeWaveform();
+            if (waveform != null) {
+                Trace.beginSection("Pulse#onWaveFormUpdate");
+                mMultiplexer.dispatchWaveFormUpdate(waveform);
+                Trace.endSection();
+            }
         }
+    };
 
-        void register() {
-            mContext.getContentResolver().registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_ENABLED), false, this,
-                    UserHandle.USER_ALL);
-            mContext.getContentResolver().registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_RENDER_STYLE_URI), false, this,
-                    UserHandle.USER_ALL);
+    private final ThermalSource.Listener mThermalListener = new ThermalSource.Listener() {
+        @Override
+        public void onThermalStatusChanged(int status) {
+            mQualityPolicy.setThermalStatus(status);
+            updateQualityTier();
         }
+    };
 
+    private final PulseSettingsStore.Listener mSettingsListener =
+            new PulseSettingsStore.Listener() {
         @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            if (uri.equals(Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_ENABLED))) {
-                updateEnabled();
-                doLinkage();
-            } else if (uri.equals(Settings.Secure.getUriFor(Settings.Secure.PULSE_RENDER_STYLE_URI))) {
-                updateRenderMode();
+        public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+            if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_SMOOTHING)) != 0) {
+                updateSmoothing(settings);
+            }
+            if ((changedKeys
+                    & PulseSettingsStore.mask(PulseSettingsStore.KEY_SCREEN_BRIGHTNESS)) != 0) {
+                updateBrightness(settings);
+                updateQualityTier();
+            }
+            // parked renderers too, so a swap needs no catching up
+            mRenderers.onSettingsChanged(settings, changedKeys);
+            for (PulseSurface surface : mSurfaces) {
+                surface.onSettingsChanged(settings, changedKeys);
+            }
+            if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_RENDER_STYLE)) != 0) {
+                updateRenderMode(settings);
                 loadRenderer();
             }
+            if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_ENABLED)) != 0) {
+                updateEnabled(settings);
+                doLinkage();
+            }
+        }
+    };
+
+    // the navbar view, subscribed while attached
+    private final SpectrumMultiplexer.Subscriber mNavbarSubscriber =
+            new SpectrumMultiplexer.Subscriber() {
+        @Override
+        public void onStreamAnalyzed(boolean isValid) {
+            if (mRenderer != null) {
+                mRenderer.onStreamAnalyzed(isValid);
+            }
+        }
+
+        @Override
+        public void onVisualizerLinkChanged(boolean linked) {
+            if (mRenderer != null) {
+                mRenderer.onVisualizerLinkChanged(linked);
+            }
+            mPulseView.postInvalidate();
+        }
+
+        @Override
+        public void onFFTUpdate(SpectrumFrame frame) {
+            if (mRenderer != null) {
+                mRenderer.onFFTUpdate(frame);
+            }
+        }
+
+        @Override
+        public void onWaveFormUpdate(WaveformFrame frame) {
+            if (mRenderer != null) {
+                mRenderer.onWaveFormUpdate(frame);
+            }
         }
 
-        void updateSettings() {
-            updateEnabled();
-            updateRenderMode();
+        @Override
+        public int getWaveformColumns() {
+            return mRenderer != null ? mRenderer.getWaveformColumns() : 0;
         }
 
-        void updateEnabled() {
-            mPulseEnabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
-                    Settings.Secure.FLING_PULSE_ENABLED, 0, UserHandle.USER_CURRENT) == 1;
+        @Override
+        public int getRequiredBins() {
+            return mRenderer != null ? mRenderer.getRequiredBins() : 0;
         }
 
-        void updateRenderMode() {
-            mPulseStyle = Settings.Secure.getIntForUser(mContext.getContentResolver(),
-                    Settings.Secure.PULSE_RENDER_STYLE_URI, RENDER_STYLE_CM, UserHandle.USER_CURRENT);
+        @Override
+        public int getRequiredCaptureRate() {
+            return mRenderer != null ? mRenderer.getRequiredCaptureRate() : 0;
         }
     };
 
+    private void updateEnabled(PulseSettingsStore.Snapshot settings) {
+        mPulseEnabled = settings.getBoolean(PulseSettingsStore.KEY_ENABLED, false);
+    }
+
+    private void updateRenderMode(PulseSettingsStore.Snapshot settings) {
+        mPulseStyle = settings.getInt(PulseSettingsStore.KEY_RENDER_STYLE, RENDER_STYLE_CM);
+    }
+
+    private void updateSmoothing(PulseSettingsStore.Snapshot settings) {
+        boolean enabled = settings.getBoolean(PulseSettingsStore.KEY_SMOOTHING, false);
+        if (enabled != mSmoothingEnabled) {
+            mSmoothingEnabled = enabled;
+            updateDspSmoothing();
+        }
+    }
+
+    // ambient surfaces draw every frame as is, so don't pay to smooth them
+    private void updateDspSmoothing() {
+        mDspThread.setSmoothingEnabled(mSmoothingEnabled && mQualityPolicy.isSmoothingAllowed()
+                && !isAmbientState());
+    }
+
     public PulseController(Context context, Handler handler) {
         mContext = context;
         mHandler = handler;
-        mSettingsObserver = new SettingsObserver(handler);
-        mSettingsObserver.updateSettings();
+        mLinkState = new LinkStateMachine(mLinkActions, new LinkStateMachine.Scheduler() {
+            @Override
+            public void postDelayed(Runnable r, long delayMillis) {
+                mHandler.postDelayed(r, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable r) {
+                mHandler.removeCallbacks(r);
+            }
+
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+        }, context.getResources().getInteger(R.integer.config_pulseLinkDebounceMs));
+        mChoreographer = Choreographer.getInstance();
+        mDspThread = new PulseDspThread();
+        mDspThread.setCallback(mDspCallback);
+        mSettingsStore = new PulseSettingsStore(context, handler,
+                Dependency.get(Dependency.BG_LOOPER));
+        PulseSettingsStore.Snapshot settings = mSettingsStore.getSettings();
+        updateEnabled(settings);
+        updateRenderMode(settings);
+        updateSmoothing(settings);
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         mMusicStreamMuted = isMusicMuted(AudioManager.STREAM_MUSIC);
         PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
         mPowerSaveModeEnabled = pm.isPowerSaveMode();
-        mSettingsObserver.register();
-        mStreamHandler = new VisualizerStreamHandler(mContext, this, mStreamListener);
+        mQualityPolicy.setPowerSave(mPowerSaveModeEnabled);
+        mUnlinkInPowerSave = context.getResources().getBoolean(
+                R.bool.config_pulseUnlinkInPowerSave);
+        mAmbientOnLockscreen = context.getResources().getBoolean(
+                R.bool.config_pulseAmbientOnLockscreen);
+        mAmbientFrameRate = context.getResources().getInteger(
+                R.integer.config_pulseAmbientFrameRate);
+        mSettingsStore.addListener(mSettingsListener);
+        mSettingsStore.register();
+        mStreamHandler = new VisualizerStreamHandler(mContext, this, mStreamListener,
+                mDspThread.getLooper());
         mPulseView = new PulseView(context, this);
+        mPulseView.getFrameGovernor().setPowerSaveMode(mPowerSaveModeEnabled);
+        mRenderers = new RendererRegistry(
+                context.getResources().getInteger(R.integer.config_pulseWarmRendererKb) * 1024);
+        mRenderers.register(RENDER_STYLE_LEGACY, new RendererRegistry.Factory() {
+            @Override
+            public Renderer create() {
+                return createRenderer(RENDER_STYLE_LEGACY, mPulseView);
+            }
+        });
+        mRenderers.register(RENDER_STYLE_CM, new RendererRegistry.Factory() {
+            @Override
+            public Renderer create() {
+                return createRenderer(RENDER_STYLE_CM, mPulseView);
+            }
+        });
+        mRenderers.register(RENDER_STYLE_WAVEFORM, new RendererRegistry.Factory() {
+            @Override
+            public Renderer create() {
+                return createRenderer(RENDER_STYLE_WAVEFORM, mPulseView);
+            }
+        });
+        mRenderers.register(RENDER_STYLE_AMBIENT, new RendererRegistry.Factory() {
+            @Override
+            public Renderer create() {
+                return createRenderer(RENDER_STYLE_AMBIENT, mPulseView);
+            }
+        });
         loadRenderer();
+        final int thermalOverride = SystemProperties.getInt(PROP_THERMAL_OVERRIDE, -1);
+        setThermalSource(thermalOverride >= 0 ? new FixedThermalSource(thermalOverride)
+                : new ThermalServiceSource(handler));
+        updateBrightness(mSettingsStore.getSettings());
+        updateQualityTier();
         SysUiServiceProvider.getComponent(context, CommandQueue.class).addCallbacks(this);
         mKeyguardMonitor = Dependency.get(KeyguardMonitor.class);
         mKeyguardMonitor.addCallback(this);
         IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
         filter.addAction(Intent.ACTION_SCREEN_ON);
         filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGING);
+        filter.addAction(Intent.ACTION_BATTERY_CHANGED);
         filter.addAction(AudioManager.STREAM_MUTE_CHANGED_ACTION);
         filter.addAction(AudioManager.VOLUME_CHANGED_ACTION);
         context.registerReceiverAsUser(mBroadcastReceiver, UserHandle.ALL, filter, null, null);
@@ -237,7 +457,7 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
             parent.addView(mPulseView);
             mAttached = true;
             log("attachPulseTo() ");
-            doLinkage();
+            updateNavbarSubscription();
         }
     }
 
@@ -247,10 +467,79 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
             parent.removeView(v);
             mAttached = false;
             log("detachPulseFrom() ");
-            doLinkage();
+            updateNavbarSubscription();
         }
     }
 
+    /**
+     * Start drawing Pulse on another surface. Joins the current link if
+     * there is one, and may link if the navbar alone wasn't enough
+     */
+    public void addSurface(PulseSurface surface) {
+        if (mSurfaces.contains(surface)) {
+            return;
+        }
+        mSurfaces.add(surface);
+        surface.getView().getFrameGovernor().setPowerSaveMode(mPowerSaveModeEnabled);
+        surface.setQualityTier(mQualityPolicy.getTier(), mQualityPolicy.getFrameRateCap());
+        surface.onSettingsChanged(mSettingsStore.getSettings(), PulseSettingsStore.ALL_KEYS);
+        if (mColors != null) {
+            surface.setColors(mColorizedMedia, mColors);
+        }
+        subscribe(surface);
+    }
+
+    public void removeSurface(PulseSurface surface) {
+        if (mSurfaces.remove(surface)) {
+            unsubscribe(surface);
+        }
+    }
+
+    /**
+     * @param style - one of RENDER_STYLE_*, anything else gets the legacy style
+     * @param view - view the renderer draws into
+     */
+    public Renderer createRenderer(int style, PulseView view) {
+        switch (style) {
+            case RENDER_STYLE_CM:
+                return new SolidLineRenderer(mContext, mHandler, view, this);
+            case RENDER_STYLE_WAVEFORM:
+                return new WaveformRenderer(mContext, mHandler, view, this);
+            case RENDER_STYLE_AMBIENT:
+                return new AmbientRenderer(mContext, mHandler, view, this);
+            case RENDER_STYLE_LEGACY:
+            default:
+                return new FadingBlockRenderer(mContext, mHandler, view, this);
+        }
+    }
+
+    private void subscribe(SpectrumMultiplexer.Subscriber subscriber) {
+        if (!mMultiplexer.add(subscriber)) {
+            return;
+        }
+        // catch up on a link already running, instead of relinking
+        if (mLinked) {
+            subscriber.onVisualizerLinkChanged(true);
+            if (mStreamHandler.isValidStream()) {
+                subscriber.onStreamAnalyzed(true);
+            }
+        }
+        updateCaptureNeeds();
+        doLinkage();
+    }
+
+    private void unsubscribe(SpectrumMultiplexer.Subscriber subscriber) {
+        if (!mMultiplexer.remove(subscriber)) {
+            return;
+        }
+        if (mLinked) {
+            subscriber.onStreamAnalyzed(false);
+            subscriber.onVisualizerLinkChanged(false);
+        }
+        updateCaptureNeeds();
+        doLinkage();
+    }
+
     public void addStateListener(PulseStateListener listener) {
         mStateListeners.add(listener);
         if (shouldDrawPulse()) {
@@ -274,21 +563,53 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
         }
     }
 
+    /**
+     * Swap in the renderer for the current style, or the ambient one on
+     * the lockscreen. The outgoing one is parked warm and the incoming one
+     * is handed the current size, orientation, colors and link state
+     */
     private void loadRenderer() {
+        final long start = System.nanoTime();
+        final int style;
+        if (isNavbarAmbient()) {
+            style = RENDER_STYLE_AMBIENT;
+        } else if (mPulseStyle != RENDER_STYLE_AMBIENT && mRenderers.isRegistered(mPulseStyle)) {
+            style = mPulseStyle;
+        } else {
+            style = RENDER_STYLE_LEGACY;
+        }
+        final Renderer renderer = mRenderers.get(style);
+        if (renderer == mRenderer) {
+            return;
+        }
         final boolean isRendering = shouldDrawPulse();
         if (isRendering) {
             mStreamHandler.pause();
         }
         if (mRenderer != null) {
-            mRenderer.destroy();
-            mRenderer = null;
+            // a parked renderer sees itself unlinked, which stops its animations
+            mRenderer.onStreamAnalyzed(false);
+            mRenderer.onVisualizerLinkChanged(false);
         }
-        mRenderer = getRenderer();
+        mRenderer = renderer;
+        mRenderer.setQualityTier(mQualityPolicy.getTier());
         mRenderer.setLeftInLandscape(mLeftInLandscape);
+        mRenderer.onSizeChanged(mPulseView.getWidth(), mPulseView.getHeight(), 0, 0);
+        if (mColors != null) {
+            mRenderer.setColors(mColorizedMedia, mColors);
+        }
+        if (mLinked && isNavbarSubscribed()) {
+            mRenderer.onVisualizerLinkChanged(true);
+        }
         if (isRendering) {
-            mRenderer.onStreamAnalyzed(true);
+            if (isNavbarSubscribed()) {
+                mRenderer.onStreamAnalyzed(true);
+            }
             mStreamHandler.resume();
         }
+        updateCaptureNeeds();
+        mRenderers.trim(mRenderer);
+        mRendererSwitch.record(System.nanoTime() - start);
     }
 
     @Override
@@ -300,9 +621,60 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     @Override
     public void onKeyguardShowingChanged() {
         mKeyguardShowing = mKeyguardMonitor.isShowing();
+        onAmbientStateChanged();
+    }
+
+    /**
+     * @return true on the lockscreen or with the screen off, where only
+     *         the ambient style draws
+     */
+    private boolean isAmbientState() {
+        return mKeyguardShowing || !mScreenOn;
+    }
+
+    /**
+     * @return true while the navbar draws the ambient style, on the
+     *         lockscreen with the screen on
+     */
+    private boolean isNavbarAmbient() {
+        return mAmbientOnLockscreen && mKeyguardShowing && mScreenOn;
+    }
+
+    private boolean isNavbarSubscribed() {
+        return mAttached && (!isAmbientState() || isNavbarAmbient());
+    }
+
+    /**
+     * The navbar stops drawing with the screen off, and on the lockscreen
+     * unless it draws the ambient style there. If an ambient surface
+     * keeps the link, it's the only subscriber left
+     */
+    private void updateNavbarSubscription() {
+        if (isNavbarSubscribed()) {
+            subscribe(mNavbarSubscriber);
+        } else {
+            unsubscribe(mNavbarSubscriber);
+        }
+    }
+
+    private void onAmbientStateChanged() {
+        loadRenderer();
+        updateNavbarFrameRateCap();
+        updateNavbarSubscription();
+        updateDspSmoothing();
         doLinkage();
     }
 
+    // the ambient style draws no faster than it captures
+    private void updateNavbarFrameRateCap() {
+        int frameRateCap = mQualityPolicy.getFrameRateCap();
+        if (isNavbarAmbient()) {
+            frameRateCap = frameRateCap > 0 ? Math.min(frameRateCap, mAmbientFrameRate)
+                    : mAmbientFrameRate;
+        }
+        mPulseView.getFrameGovernor().setFrameRateCap(frameRateCap);
+    }
+
     @Override
     public void leftInLandscapeChanged(boolean isLeft) {
         if (mLeftInLandscape != isLeft) {
@@ -313,12 +685,37 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
         }
     }
 
+    @Override
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
         if (mRenderer != null) {
             mRenderer.onSizeChanged(w, h, oldw, oldh);
         }
     }
 
+    @Override
+    public void onPulseVisibilityChanged(boolean visible) {
+        onPulseVisibilityChanged();
+    }
+
+    /**
+     * The navbar view or a surface was shown or hidden
+     */
+    public void onPulseVisibilityChanged() {
+        doLinkage();
+    }
+
+    /**
+     * @param disabledFlags - View.STATUS_BAR_DISABLE_* the navbar was handed
+     */
+    public void setNavbarDisabledFlags(int disabledFlags) {
+        final boolean disabled =
+                (disabledFlags & NAVIGATION_DISABLED_FLAGS) == NAVIGATION_DISABLED_FLAGS;
+        if (mNavigationDisabled != disabled) {
+            mNavigationDisabled = disabled;
+            doLinkage();
+        }
+    }
+
     /**
      * Current rendering state: There is a visualizer link and the fft stream is validated
      *
@@ -334,21 +731,110 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
         }
     }
 
+    @Override
     public void onDraw(Canvas canvas) {
         if (mPulseEnabled && shouldDrawPulse()) {
+            final long start = System.nanoTime();
+            Trace.beginSection("Pulse#draw");
             mRenderer.draw(canvas);
+            Trace.endSection();
+            final long end = System.nanoTime();
+            mDrawCost.record(end - start);
+            if (mUndrawnCaptureTimeNanos != 0) {
+                mEndToEndLatency.record(end - mUndrawnCaptureTimeNanos);
+                mUndrawnCaptureTimeNanos = 0;
+            }
         }
     }
 
-    private Renderer getRenderer() {
-        switch (mPulseStyle) {
-            case RENDER_STYLE_LEGACY:
-                return new FadingBlockRenderer(mContext, mHandler, mPulseView, this);
-            case RENDER_STYLE_CM:
-                return new SolidLineRenderer(mContext, mHandler, mPulseView, this);
-            default:
-                return new FadingBlockRenderer(mContext, mHandler, mPulseView, this);
+    public PulseSettingsStore getSettingsStore() {
+        return mSettingsStore;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * @param speedKey - PulseSettingsStore key timing the lava lamp
+     * @return the lava lamp every renderer timed by that key shares. It
+     *         runs while any of them is a listener
+     */
+    public ColorAnimator getLavaLamp(int speedKey) {
+        ColorAnimator lavaLamp = mLavaLamps.get(speedKey);
+        if (lavaLamp == null) {
+            lavaLamp = new ColorAnimator();
+            mLavaLamps.put(speedKey, lavaLamp);
         }
+        return lavaLamp;
+    }
+
+    /**
+     * Negotiate the capture with what subscribed renderers need: the
+     * smallest FFT and slowest rate that serve them all, and the waveform
+     * only while one draws it. Renderers call this again when a need changes
+     */
+    public void updateCaptureNeeds() {
+        final int columns = mMultiplexer.getWaveformColumns();
+        mDspThread.setWaveformColumns(columns);
+        mStreamHandler.setWaveformEnabled(columns > 0);
+        int rate = mMultiplexer.getRequiredCaptureRate();
+        final int rateCap = mQualityPolicy.getCaptureRateCap();
+        if (rateCap > 0) {
+            rate = rate > 0 ? Math.min(rate, rateCap) : rateCap;
+        }
+        mStreamHandler.setCaptureNeeds(mMultiplexer.getRequiredBins(), rate);
+    }
+
+    /**
+     * Replace where the quality policy gets its thermal status from
+     */
+    public void setThermalSource(ThermalSource source) {
+        if (mThermalSource != null) {
+            mThermalSource.setListener(null);
+        }
+        mThermalSource = source;
+        source.setListener(mThermalListener);
+        mThermalListener.onThermalStatusChanged(source.getThermalStatus());
+    }
+
+    /**
+     * @param pull - read captures into reused buffers on vsync instead of
+     *        taking a new array from each platform callback
+     */
+    public void setPullCapture(boolean pull) {
+        mStreamHandler.setPullCapture(pull);
+    }
+
+    private void updateBrightness(PulseSettingsStore.Snapshot settings) {
+        final int brightness = settings.getInt(PulseSettingsStore.KEY_SCREEN_BRIGHTNESS,
+                PowerManager.BRIGHTNESS_ON);
+        mQualityPolicy.setBrightness(brightness / (float) PowerManager.BRIGHTNESS_ON);
+    }
+
+    private void updateQualityTier() {
+        if (mQualityPolicy.update(System.nanoTime())) {
+            applyQualityTier();
+        }
+    }
+
+    /**
+     * Push the tier to everything it caps. All of it applies to a running
+     * link in place, nothing relinks
+     */
+    private void applyQualityTier() {
+        final int tier = mQualityPolicy.getTier();
+        final int frameRateCap = mQualityPolicy.getFrameRateCap();
+        updateNavbarFrameRateCap();
+        if (mRenderer != null) {
+            mRenderer.setQualityTier(tier);
+        }
+        for (PulseSurface surface : mSurfaces) {
+            surface.setQualityTier(tier, frameRateCap);
+        }
+        updateDspSmoothing();
+        updateCaptureNeeds();
+        log("applyQualityTier() " + QualityPolicy.tierToString(tier));
     }
 
     //TODO: get rid of this
@@ -378,35 +864,64 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     }
 
     /**
-     * if any of these conditions are met, we unlink regardless of any other states
-     *
-     * @return true if unlink is required, false if unlinking is not mandatory
+     * @return true if the navbar or any surface can be seen. Immersive
+     *         mode, a hidden navbar or disabled navigation leave nothing
+     *         worth capturing for
      */
-    private boolean isUnlinkRequired() {
-        return mKeyguardShowing
-                || !mScreenOn
-                || !mPulseEnabled
-                || mPowerSaveModeEnabled
-                || mMusicStreamMuted
-                || mScreenPinningEnabled
-                || !mAttached;
+    private boolean isPulseVisible() {
+        if (isNavbarSubscribed() && !mNavigationDisabled && mPulseView.isPulseVisible()) {
+            return true;
+        }
+        for (PulseSurface surface : mSurfaces) {
+            if (surface.getView().isPulseVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAmbientSurfaceVisible() {
+        for (PulseSurface surface : mSurfaces) {
+            if (surface.isAmbient() && surface.getView().isPulseVisible()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * All of these conditions must be met to allow a visualizer link
-     *
-     * @return true if all conditions are met to allow link, false if and conditions are not met
+     * Every condition a visualizer link needs, as LinkStateMachine inputs
      */
-    private boolean isAbleToLink() {
-        return mPulseEnabled
-                && mScreenOn
-                && mIsMediaPlaying
-                && !mLinked
-                && !mPowerSaveModeEnabled
-                && !mKeyguardShowing
-                && !mMusicStreamMuted
-                && !mScreenPinningEnabled
-                && mAttached;
+    private int getLinkInputs() {
+        int inputs = 0;
+        if (mPulseEnabled) {
+            inputs |= LinkStateMachine.INPUT_ENABLED;
+        }
+        if (mScreenOn) {
+            inputs |= LinkStateMachine.INPUT_SCREEN_ON;
+        }
+        if (mIsMediaPlaying) {
+            inputs |= LinkStateMachine.INPUT_MEDIA_PLAYING;
+        }
+        if (!mKeyguardShowing || isNavbarAmbient() || isAmbientSurfaceVisible()) {
+            inputs |= LinkStateMachine.INPUT_KEYGUARD_HIDDEN;
+        }
+        if (!mMusicStreamMuted) {
+            inputs |= LinkStateMachine.INPUT_UNMUTED;
+        }
+        if (!mScreenPinningEnabled) {
+            inputs |= LinkStateMachine.INPUT_NOT_PINNED;
+        }
+        if (!(mPowerSaveModeEnabled && mUnlinkInPowerSave)) {
+            inputs |= LinkStateMachine.INPUT_POWER_ALLOWED;
+        }
+        if (!mMultiplexer.isEmpty()) {
+            inputs |= LinkStateMachine.INPUT_SUBSCRIBED;
+        }
+        if (isPulseVisible()) {
+            inputs |= LinkStateMachine.INPUT_VISIBLE;
+        }
+        return inputs;
     }
 
     private void doUnlinkVisualizer() {
@@ -415,32 +930,18 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
                 mStreamHandler.unlink();
                 setVisualizerLocked(false);
                 mLinked = false;
-                if (mRenderer != null) {
-                    mRenderer.onVisualizerLinkChanged(false);
-                }
-                mPulseView.postInvalidate();
+                mMultiplexer.dispatchVisualizerLinkChanged(false);
                 notifyStateListeners(false);
             }
         }
     }
 
     /**
-     * Incoming event in which we need to
-     * toggle our link state.
+     * Incoming event that may change our link state. The state machine
+     * settles bursts of these into at most one link or unlink
      */
     private void doLinkage() {
-        if (isUnlinkRequired()) {
-            if (mLinked) {
-                // explicitly unlink
-                doUnlinkVisualizer();
-            }
-        } else {
-            if (isAbleToLink()) {
-                doLinkVisualizer();
-            } else if (mLinked) {
-                doUnlinkVisualizer();
-            }
-        }
+        mLinkState.setInputs(getLinkInputs());
     }
 
     /**
@@ -452,9 +953,18 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
     private void doSilentUnlinkVisualizer() {
         if (mStreamHandler != null) {
             if (mLinked) {
+                // read before unlink() forgets it
+                final boolean rejected = mStreamHandler.isStreamRejected();
                 mStreamHandler.unlink();
                 setVisualizerLocked(false);
                 mLinked = false;
+                // only zeros keep it down for the rest of the playback, a
+                // stream that was never confirmed gets the next event's link
+                if (rejected) {
+                    mLinkState.onLinkRejected();
+                } else {
+                    mLinkState.onLinkLost();
+                }
             }
         }
     }
@@ -467,11 +977,10 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
         if (mStreamHandler != null) {
             if (!mLinked) {
                 setVisualizerLocked(true);
+                mDspThread.reset();
                 mStreamHandler.link(0);
                 mLinked = true;
-                if (mRenderer != null) {
-                    mRenderer.onVisualizerLinkChanged(true);
-                }
+                mMultiplexer.dispatchVisualizerLinkChanged(true);
             }
         }
     }
@@ -486,9 +995,14 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
 
     @Override
     public void setPulseColors(boolean colorizedMedia, int[] colors) {
+        mColorizedMedia = colorizedMedia;
+        mColors = colors;
         if (mRenderer != null) {
             mRenderer.setColors(colorizedMedia, colors);
         }
+        for (PulseSurface surface : mSurfaces) {
+            surface.setColors(colorizedMedia, colors);
+        }
     }
 
     @Override
@@ -496,10 +1010,59 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
         return TAG + " " + getState();
     }
 
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("PulseController {");
+        pw.println("      state: " + getState());
+        final FrameGovernor governor = mPulseView.getFrameGovernor();
+        pw.println(String.format(
+                "      frame rate: target=%.1f refresh=%.1f divisor=%d jitter=%.2fms maxJitter=%.2fms drawCost=%.2fms",
+                governor.getTargetFrameRate(), governor.getRefreshRate(), governor.getDivisor(),
+                governor.getJitterNanos() / 1000000f, governor.getMaxJitterNanos() / 1000000f,
+                governor.getDrawCostNanos() / 1000000f));
+        final long now = System.nanoTime();
+        mQualityPolicy.dump(pw, "      ", now);
+        final int rate = mMultiplexer.getRequiredCaptureRate();
+        final long saved = mQualityPolicy.estimateSavedNanosPerSecond(
+                (rate > 0 ? rate : mStreamHandler.getDefaultCaptureRate()) / 1000f,
+                governor.getMaxFrameRate(),
+                mDspThread.getProcessCostNanos() + mUpdateCost.getPercentileNanos(50),
+                mDrawCost.getPercentileNanos(50));
+        pw.println(String.format("      quality savings: ~%.2fms cpu per second",
+                saved / 1000000f));
+        long skippedFrames = governor.getSkippedFrames();
+        for (PulseSurface surface : mSurfaces) {
+            skippedFrames += surface.getView().getFrameGovernor().getSkippedFrames();
+        }
+        pw.println(String.format(
+                "      visibility: visible=%b navbar=%b navigationDisabled=%b skipped frames=%d",
+                isPulseVisible(), mPulseView.isPulseVisible(), mNavigationDisabled,
+                skippedFrames));
+        pw.println(String.format("      ambient: state=%b navbar=%b surface visible=%b",
+                isAmbientState(), isNavbarAmbient(), isAmbientSurfaceVisible()));
+        mLinkState.dump(pw, "      ");
+        mDspThread.dump(pw, "      ");
+        mStreamHandler.dump(pw, "      ");
+        mSettingsStore.dump(pw, "      ");
+        mDeliveryLatency.dump(pw, "      ");
+        mUpdateCost.dump(pw, "      ");
+        mDrawCost.dump(pw, "      ");
+        mEndToEndLatency.dump(pw, "      ");
+        mBitmapPool.dump(pw, "      ");
+        mRendererSwitch.dump(pw, "      ");
+        mRenderers.dump(pw, "      ");
+        if (mRenderer != null) {
+            mRenderer.dump(pw, "      ");
+        }
+        mMultiplexer.dump(pw, "      ");
+        for (PulseSurface surface : mSurfaces) {
+            surface.dump(pw, "      ");
+        }
+        pw.println("    }");
+    }
+
     private String getState() {
         return "isPulseEnabled() = " + mPulseEnabled + " "
-                + "isAbleToLink() = " + isAbleToLink() + " "
-                + "isUnlinkRequired() = " + isUnlinkRequired() + " "
+                + "isLinkWanted() = " + mLinkState.isLinkWanted() + " "
                 + "shouldDrawPulse() = " + shouldDrawPulse() + " "
                 + "mScreenOn = " + mScreenOn + " "
                 + "mIsMediaPlaying = " + mIsMediaPlaying + " "
@@ -508,7 +1071,8 @@ public class PulseController implements CommandQueue.Callbacks, KeyguardMonitor.
                 + "mKeyguardShowing = " + mKeyguardShowing + " "
                 + "mMusicStreamMuted = " + mMusicStreamMuted + " "
                 + "mScreenPinningEnabled = " + mScreenPinningEnabled + " "
-                + "mAttached = " + mAttached + " ";
+                + "mAttached = " + mAttached + " "
+                + "isPulseVisible() = " + isPulseVisible() + " ";
     }
 
     private void log(String msg) {
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Visualizer captures land here instead of on the main thread. We run
+ * preprocessing and smoothing, then publish into a FrameMailbox the
+ * UI side drains once per vsync. If we fall behind, the newest capture
+ * wins and older ones are counted as dropped
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.Trace;
+
+public class PulseDspThread extends HandlerThread {
+    public interface Callback {
+        /**
+         * A new frame was published. Called on the DSP thread
+         */
+        public void onFrameAvailable();
+    }
+
+    private static final String TAG = PulseDspThread.class.getSimpleName();
+
+    private final SpectrumProcessor mSpectrumProcessor = new SpectrumProcessor();
+    private final SpectrumSmoother mSpectrumSmoother = new SpectrumSmoother();
+    private final FrameMailbox<SpectrumFrame> mMailbox = new FrameMailbox<>(
+            new SpectrumFrame(), new SpectrumFrame(), new SpectrumFrame());
+    private final AtomicReference<byte[]> mPendingCapture = new AtomicReference<>();
+    private Handler mHandler;
+    private Callback mCallback;
+    private boolean mSmoothingEnabled;
+    // captures are delivered on our own looper, so this pairs with mPendingCapture
+    private long mPendingCaptureTimeNanos;
+
+    // waveform captures take the same path through their own mailbox
+    private final WaveformDecimator mWaveformDecimator = new WaveformDecimator();
+    private final FrameMailbox<WaveformFrame> mWaveformMailbox = new FrameMailbox<>(
+            new WaveformFrame(), new WaveformFrame(), new WaveformFrame());
+    private final AtomicReference<byte[]> mPendingWaveform = new AtomicReference<>();
+    private long mPendingWaveformTimeNanos;
+
+    private final LatencyHistogram mQueueLatency = new LatencyHistogram("capture to dsp");
+    private final LatencyHistogram mProcessCost = new LatencyHistogram("dsp process");
+    private final LatencyHistogram mDecimateCost = new LatencyHistogram("waveform decimate");
+
+    // written by one thread each, so volatile is enough
+    private volatile long mFramesCaptured;
+    private volatile long mFramesProcessed;
+    private volatile long mFramesDropped;
+    private volatile long mFramesRendered;
+    private volatile long mWaveformsProcessed;
+    private volatile long mWaveformsDropped;
+
+    private final Runnable mProcessRunnable = new Runnable() {
+        @Override
+        public void run() {
+            processPendingCapture();
+        }
+    };
+
+    private final Runnable mWaveformRunnable = new Runnable() {
+        @Override
+        public void run() {
+            processPendingWaveform();
+        }
+    };
+
+    public PulseDspThread() {
+        super(TAG, Process.THREAD_PRIORITY_AUDIO + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+        start();
+        mHandler = new Handler(getLooper());
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Queue a raw FFT capture. Only the latest pending capture is kept
+     *
+     * @param fft - raw capture from Visualizer
+     */
+    public void onFftCapture(byte[] fft) {
+        mPendingCaptureTimeNanos = System.nanoTime();
+        mFramesCaptured++;
+        if (mPendingCapture.getAndSet(fft) != null) {
+            mFramesDropped++;
+        } else {
+            mHandler.post(mProcessRunnable);
+        }
+    }
+
+    /**
+     * Queue a raw waveform capture. Only the latest pending capture is kept
+     *
+     * @param waveform - raw capture from Visualizer
+     */
+    public void onWaveformCapture(byte[] waveform) {
+        mPendingWaveformTimeNanos = System.nanoTime();
+        if (mPendingWaveform.getAndSet(waveform) != null) {
+            mWaveformsDropped++;
+        } else {
+            mHandler.post(mWaveformRunnable);
+        }
+    }
+
+    /**
+     * @param columns - pixel columns waveforms are drawn into, 0 if none
+     */
+    public void setWaveformColumns(final int columns) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWaveformDecimator.setColumns(columns);
+            }
+        });
+    }
+
+    public void setSmoothingEnabled(final boolean enabled) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSmoothingEnabled != enabled) {
+                    mSmoothingEnabled = enabled;
+                    mSpectrumSmoother.reset();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget smoothing history, i.e. when a new stream is linked
+     */
+    public void reset() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPendingCapture.set(null);
+                mPendingWaveform.set(null);
+                mSpectrumSmoother.reset();
+            }
+        });
+    }
+
+    /**
+     * Consumer side, call once per vsync
+     *
+     * @return latest processed frame or null if nothing new was published
+     */
+    public SpectrumFrame consumeFrame() {
+        SpectrumFrame frame = mMailbox.consume();
+        if (frame != null) {
+            mFramesRendered++;
+        }
+        return frame;
+    }
+
+    /**
+     * Consumer side, call once per vsync
+     *
+     * @return latest decimated waveform or null if nothing new was published
+     */
+    public WaveformFrame consumeWaveform() {
+        return mWaveformMailbox.consume();
+    }
+
+    private void processPendingCapture() {
+        final byte[] fft = mPendingCapture.getAndSet(null);
+        if (fft == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        mQueueLatency.record(start - mPendingCaptureTimeNanos);
+        Trace.beginSection("Pulse#process");
+        final SpectrumFrame frame = mMailbox.getBackFrame();
+        mSpectrumProcessor.process(fft, mPendingCaptureTimeNanos, frame);
+        if (mSmoothingEnabled) {
+            mSpectrumSmoother.apply(frame);
+        }
+        Trace.endSection();
+        final long end = System.nanoTime();
+        frame.setPublishTimeNanos(end);
+        if (mMailbox.publish()) {
+            mFramesDropped++;
+        }
+        mProcessCost.record(end - start);
+        mFramesProcessed++;
+        if (mCallback != null) {
+            mCallback.onFrameAvailable();
+        }
+    }
+
+    private void processPendingWaveform() {
+        final byte[] waveform = mPendingWaveform.getAndSet(null);
+        if (waveform == null || mWaveformDecimator.getColumns() == 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        Trace.beginSection("Pulse#decimate");
+        final WaveformFrame frame = mWaveformMailbox.getBackFrame();
+        mWaveformDecimator.decimate(waveform, mPendingWaveformTimeNanos, frame);
+        Trace.endSection();
+        final long end = System.nanoTime();
+        frame.setPublishTimeNanos(end);
+        if (mWaveformMailbox.publish()) {
+            mWaveformsDropped++;
+        }
+        mDecimateCost.record(end - start);
+        mWaveformsProcessed++;
+        if (mCallback != null) {
+            mCallback.onFrameAvailable();
+        }
+    }
+
+    public long getFramesCaptured() {
+        return mFramesCaptured;
+    }
+
+    public long getFramesProcessed() {
+        return mFramesProcessed;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public long getFramesRendered() {
+        return mFramesRendered;
+    }
+
+    /**
+     * @return median time to process one capture
+     */
+    public long getProcessCostNanos() {
+        return mProcessCost.getPercentileNanos(50);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "frames: captured=" + mFramesCaptured
+                + " processed=" + mFramesProcessed
+                + " dropped=" + mFramesDropped
+                + " rendered=" + mFramesRendered);
+        mQueueLatency.dump(pw, prefix);
+        mProcessCost.dump(pw, prefix);
+        if (mWaveformsProcessed > 0) {
+            pw.println(prefix + "waveforms: processed=" + mWaveformsProcessed
+                    + " dropped=" + mWaveformsDropped);
+            mDecimateCost.dump(pw, prefix);
+        }
+    }
+}
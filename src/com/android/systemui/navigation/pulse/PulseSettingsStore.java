@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One observer for every Pulse setting, and the screen brightness the
+ * quality tiers follow. Changes are read on a background looper, only
+ * the keys that fired, and published to the main thread as an immutable
+ * Snapshot plus a mask of the keys whose value moved, so a renderer only
+ * rebuilds what those keys feed
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+public class PulseSettingsStore {
+    public interface Listener {
+        /**
+         * Called on the main thread
+         *
+         * @param settings - the new snapshot
+         * @param changedKeys - mask of mask(KEY_*) for every key that changed
+         */
+        public void onSettingsChanged(Snapshot settings, long changedKeys);
+    }
+
+    public static final int KEY_ENABLED = 0;
+    public static final int KEY_RENDER_STYLE = 1;
+    public static final int KEY_SMOOTHING = 2;
+    public static final int KEY_AUTO_COLOR = 3;
+    public static final int KEY_ACCENT_COLOR = 4;
+    public static final int KEY_COLOR = 5;
+    public static final int KEY_LAVALAMP_ENABLED = 6;
+    public static final int KEY_LAVALAMP_SPEED = 7;
+    public static final int KEY_LAVALAMP_SOLID_SPEED = 8;
+    public static final int KEY_LAVALAMP_COLOR_FROM = 9;
+    public static final int KEY_LAVALAMP_COLOR_TO = 10;
+    public static final int KEY_CUSTOM_DIMEN = 11;
+    public static final int KEY_CUSTOM_DIV = 12;
+    public static final int KEY_FILLED_BLOCK_SIZE = 13;
+    public static final int KEY_EMPTY_BLOCK_SIZE = 14;
+    public static final int KEY_CUSTOM_FUDGE_FACTOR = 15;
+    public static final int KEY_SOLID_FUDGE_FACTOR = 16;
+    public static final int KEY_SOLID_UNITS_COUNT = 17;
+    public static final int KEY_SOLID_UNITS_OPACITY = 18;
+    public static final int KEY_SCREEN_BRIGHTNESS = 19;
+
+    public static final long ALL_KEYS = -1L;
+
+    // keys that live in Settings.System, the rest are Settings.Secure
+    private static final long SYSTEM_KEYS = mask(KEY_SCREEN_BRIGHTNESS);
+
+    // indexed by KEY_*
+    private static final String[] NAMES = {
+            Settings.Secure.FLING_PULSE_ENABLED,
+            Settings.Secure.PULSE_RENDER_STYLE_URI,
+            Settings.Secure.FLING_PULSE_SMOOTHING_ENABLED,
+            Settings.Secure.PULSE_AUTO_COLOR,
+            Settings.Secure.PULSE_ACCENT_COLOR_ENABLED,
+            Settings.Secure.FLING_PULSE_COLOR,
+            Settings.Secure.FLING_PULSE_LAVALAMP_ENABLED,
+            Settings.Secure.FLING_PULSE_LAVALAMP_SPEED,
+            Settings.Secure.PULSE_LAVALAMP_SOLID_SPEED,
+            Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM,
+            Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO,
+            Settings.Secure.PULSE_CUSTOM_DIMEN,
+            Settings.Secure.PULSE_CUSTOM_DIV,
+            Settings.Secure.PULSE_FILLED_BLOCK_SIZE,
+            Settings.Secure.PULSE_EMPTY_BLOCK_SIZE,
+            Settings.Secure.PULSE_CUSTOM_FUDGE_FACTOR,
+            Settings.Secure.PULSE_SOLID_FUDGE_FACTOR,
+            Settings.Secure.PULSE_SOLID_UNITS_COUNT,
+            Settings.Secure.PULSE_SOLID_UNITS_OPACITY,
+            Settings.System.SCREEN_BRIGHTNESS
+    };
+
+    /**
+     * Values of every Pulse setting at one point in time. Settings that
+     * were never written, or don't parse, report the caller's default,
+     * which keeps per renderer defaults where they always were
+     */
+    public static final class Snapshot {
+        private final int[] mValues;
+        private final long mPresent;
+
+        private Snapshot(int[] values, long present) {
+            mValues = values;
+            mPresent = present;
+        }
+
+        public boolean has(int key) {
+            return (mPresent & mask(key)) != 0;
+        }
+
+        public int getInt(int key, int def) {
+            return has(key) ? mValues[key] : def;
+        }
+
+        public boolean getBoolean(int key, boolean def) {
+            return getInt(key, def ? 1 : 0) == 1;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler;
+    private final Handler mBgHandler;
+    // indexed by KEY_*, and the reverse for the observer. Both are filled
+    // in before anything is registered and only read after that
+    private final Uri[] mUris = new Uri[NAMES.length];
+    private final Map<Uri, Integer> mKeysByUri;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private volatile Snapshot mSettings;
+
+    // background looper only
+    private long mPendingKeys;
+    private boolean mReloadPosted;
+
+    // stats, written on the background looper
+    private volatile int mChangeEvents;
+    private volatile int mReloads;
+    private volatile int mReads;
+    private final LatencyHistogram mReloadTime = new LatencyHistogram("settings reload");
+
+    private final ContentObserver mObserver;
+
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mReloadPosted = false;
+            final long keys = mPendingKeys;
+            mPendingKeys = 0;
+            reload(keys, true);
+        }
+    };
+
+    public PulseSettingsStore(Context context, Handler mainHandler, Looper bgLooper) {
+        mResolver = context.getContentResolver();
+        mMainHandler = mainHandler;
+        mBgHandler = new Handler(bgLooper);
+        final HashMap<Uri, Integer> keysByUri = new HashMap<>();
+        for (int key = 0; key < NAMES.length; key++) {
+            mUris[key] = isSystem(key) ? Settings.System.getUriFor(NAMES[key])
+                    : Settings.Secure.getUriFor(NAMES[key]);
+            keysByUri.put(mUris[key], key);
+        }
+        mKeysByUri = Collections.unmodifiableMap(keysByUri);
+        mObserver = new ContentObserver(mBgHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                Integer key = mKeysByUri.get(uri);
+                mChangeEvents++;
+                // an unknown uri, read everything rather than miss it
+                mPendingKeys |= key != null ? mask(key) : ALL_KEYS;
+                // changes already queued behind us land in the same reload
+                if (!mReloadPosted) {
+                    mReloadPosted = true;
+                    mBgHandler.post(mReloadRunnable);
+                }
+            }
+        };
+        // the first snapshot is needed before anything can render
+        mSettings = new Snapshot(new int[NAMES.length], 0);
+        reload(ALL_KEYS, false);
+    }
+
+    public static long mask(int key) {
+        return 1L << key;
+    }
+
+    public void register() {
+        for (Uri uri : mUris) {
+            mResolver.registerContentObserver(uri, false, mObserver, UserHandle.USER_ALL);
+        }
+    }
+
+    public void unregister() {
+        mResolver.unregisterContentObserver(mObserver);
+    }
+
+    private static boolean isSystem(int key) {
+        return (SYSTEM_KEYS & mask(key)) != 0;
+    }
+
+    public Snapshot getSettings() {
+        return mSettings;
+    }
+
+    /**
+     * Main thread only
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final int events = mChangeEvents;
+        pw.println(prefix + String.format("settings: changes=%d reloads=%d reads=%d (%.1f per change)",
+                events, mReloads, mReads, events > 0 ? mReads / (float) events : 0f));
+        mReloadTime.dump(pw, prefix);
+    }
+
+    private void reload(long keys, boolean notify) {
+        final long start = System.nanoTime();
+        final Snapshot old = mSettings;
+        final int[] values = old.mValues.clone();
+        long present = old.mPresent;
+        long changed = 0;
+        int reads = 0;
+        for (int key = 0; key < NAMES.length; key++) {
+            final long bit = mask(key);
+            if ((keys & bit) == 0) {
+                continue;
+            }
+            reads++;
+            final String value = isSystem(key)
+                    ? Settings.System.getStringForUser(mResolver, NAMES[key],
+                            UserHandle.USER_CURRENT)
+                    : Settings.Secure.getStringForUser(mResolver, NAMES[key],
+                            UserHandle.USER_CURRENT);
+            boolean has = false;
+            int parsed = 0;
+            if (value != null) {
+                try {
+                    parsed = Integer.parseInt(value);
+                    has = true;
+                } catch (NumberFormatException e) {
+                }
+            }
+            if (has != old.has(key) || (has && parsed != old.mValues[key])) {
+                changed |= bit;
+            }
+            values[key] = parsed;
+            present = has ? present | bit : present & ~bit;
+        }
+        mReads += reads;
+        mReloads++;
+        mReloadTime.record(System.nanoTime() - start);
+        if (changed == 0) {
+            return;
+        }
+        final Snapshot settings = new Snapshot(values, present);
+        mSettings = settings;
+        if (!notify) {
+            return;
+        }
+        final long changedKeys = changed;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onSettingsChanged(settings, changedKeys);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * A Pulse surface other than the navbar, e.g. on the lockscreen or a
+ * secondary display. It owns its view, renderer and frame rate cap, and
+ * subscribes to the stream the navbar already links, so adding or
+ * removing one never relinks the Visualizer. The owner places
+ * getView() in its layout and hands the surface to
+ * PulseController.addSurface()
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+
+import com.android.systemui.R;
+
+public class PulseSurface implements PulseView.Host, SpectrumMultiplexer.Subscriber {
+    private final String mName;
+    private final PulseController mController;
+    private final PulseView mView;
+    private final Renderer mRenderer;
+    private final boolean mAmbient;
+    private boolean mLinked;
+    private boolean mIsValidStream;
+
+    /**
+     * @param name - shown in dump
+     * @param style - one of PulseController.RENDER_STYLE_*
+     * @param maxFps - frame rate cap for this surface alone. The ambient
+     *                 style caps it further at config_pulseAmbientFrameRate
+     */
+    public PulseSurface(Context context, PulseController controller, String name, int style,
+            int maxFps) {
+        mName = name;
+        mController = controller;
+        mAmbient = style == PulseController.RENDER_STYLE_AMBIENT;
+        if (mAmbient) {
+            maxFps = Math.min(maxFps, context.getResources().getInteger(
+                    R.integer.config_pulseAmbientFrameRate));
+        }
+        mView = new PulseView(context, this, maxFps);
+        mRenderer = controller.createRenderer(style, mView);
+    }
+
+    public PulseView getView() {
+        return mView;
+    }
+
+    /**
+     * @return true if this surface draws the low power ambient style, and
+     *         may keep Pulse linked on the lockscreen
+     */
+    public boolean isAmbient() {
+        return mAmbient;
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        mRenderer.onSizeChanged(w, h, oldw, oldh);
+    }
+
+    @Override
+    public void onPulseVisibilityChanged(boolean visible) {
+        mController.onPulseVisibilityChanged();
+    }
+
+    @Override
+    public void onDraw(Canvas canvas) {
+        if (mLinked && mIsValidStream) {
+            mRenderer.draw(canvas);
+        }
+    }
+
+    @Override
+    public void onStreamAnalyzed(boolean isValid) {
+        mIsValidStream = isValid;
+        mRenderer.onStreamAnalyzed(isValid);
+    }
+
+    @Override
+    public void onVisualizerLinkChanged(boolean linked) {
+        mLinked = linked;
+        if (!linked) {
+            mIsValidStream = false;
+        }
+        mRenderer.onVisualizerLinkChanged(linked);
+        mView.postInvalidate();
+    }
+
+    @Override
+    public void onFFTUpdate(SpectrumFrame frame) {
+        mRenderer.onFFTUpdate(frame);
+    }
+
+    @Override
+    public void onWaveFormUpdate(WaveformFrame frame) {
+        mRenderer.onWaveFormUpdate(frame);
+    }
+
+    @Override
+    public int getWaveformColumns() {
+        return mRenderer.getWaveformColumns();
+    }
+
+    @Override
+    public int getRequiredBins() {
+        return mRenderer.getRequiredBins();
+    }
+
+    @Override
+    public int getRequiredCaptureRate() {
+        return mRenderer.getRequiredCaptureRate();
+    }
+
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        mRenderer.onSettingsChanged(settings, changedKeys);
+    }
+
+    /**
+     * @param tier - QualityPolicy.TIER_*
+     * @param frameRateCap - fps ceiling of the tier, 0 for none
+     */
+    public void setQualityTier(int tier, int frameRateCap) {
+        mView.getFrameGovernor().setFrameRateCap(frameRateCap);
+        mRenderer.setQualityTier(tier);
+    }
+
+    public void setColors(boolean colorizedMedia, int[] colors) {
+        mRenderer.setColors(colorizedMedia, colors);
+    }
+
+    /**
+     * Free the renderer. Call after PulseController.removeSurface()
+     */
+    public void destroy() {
+        mRenderer.destroy();
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final FrameGovernor governor = mView.getFrameGovernor();
+        pw.println(prefix + String.format(
+                "surface %s: ambient=%b linked=%b valid=%b visible=%b fps=%.1f skipped=%d",
+                mName, mAmbient, mLinked, mIsValidStream, mView.isPulseVisible(),
+                governor.getTargetFrameRate(), governor.getSkippedFrames()));
+        mRenderer.dump(pw, prefix + "  ");
+    }
+}
@@ -23,33 +23,126 @@ package com.android.systemui.navigation.pulse;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.view.Display;
 import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.FrameLayout.LayoutParams;
 
-public class PulseView extends View {
+import com.android.systemui.R;
+
+public class PulseView extends View implements FrameGovernor.Target {
     public static final String TAG = "PulseView";
 
-    private PulseController mPulse;
+    /**
+     * Whoever owns the renderer drawing into this view
+     */
+    public interface Host {
+        public void onSizeChanged(int w, int h, int oldw, int oldh);
+
+        public void onDraw(Canvas canvas);
+
+        /**
+         * The view became visible on screen or stopped being so
+         */
+        public void onPulseVisibilityChanged(boolean visible);
+    }
+
+    private Host mPulse;
+    private FrameGovernor mFrameGovernor;
+    private boolean mAttached;
+    // attached, in a visible window, and every ancestor visible
+    private boolean mPulseVisible;
+
+    public PulseView(Context context, Host host) {
+        this(context, host, context.getResources().getInteger(R.integer.config_pulseMaxFrameRate));
+    }
 
-    public PulseView(Context context, PulseController controller) {
+    /**
+     * @param maxFps - frame rate cap of this view alone
+     */
+    public PulseView(Context context, Host host, int maxFps) {
         super(context);
-        mPulse = controller;
+        mPulse = host;
+        mFrameGovernor = new FrameGovernor(this, maxFps);
+        // nothing to draw on until we are attached and shown
+        mFrameGovernor.setSuspended(true);
         setLayoutParams(new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
         setWillNotDraw(false);
         setTag(TAG);
     }
 
+    public FrameGovernor getFrameGovernor() {
+        return mFrameGovernor;
+    }
+
+    public boolean isPulseVisible() {
+        return mPulseVisible;
+    }
+
+    @Override
+    public void onFrameDue() {
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        updateRefreshRate();
+        updatePulseVisible();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mFrameGovernor.cancel();
+        mAttached = false;
+        updatePulseVisible();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updatePulseVisible();
+    }
+
+    // also called when an ancestor, e.g. the navigation bar, changes visibility
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updatePulseVisible();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        // rotation or a display mode change may come with a new refresh rate
+        updateRefreshRate();
         mPulse.onSizeChanged(w, h, oldw, oldh);
         super.onSizeChanged(w, h, oldw, oldh);
     }
 
     @Override
     public void onDraw(Canvas canvas) {
+        final long start = System.nanoTime();
         mPulse.onDraw(canvas);
+        mFrameGovernor.onDrawComplete(System.nanoTime() - start);
         super.onDraw(canvas);
     }
 
+    private void updatePulseVisible() {
+        final boolean visible = mAttached && getWindowVisibility() == VISIBLE && isShown();
+        if (mPulseVisible != visible && mPulse != null) {
+            mPulseVisible = visible;
+            mFrameGovernor.setSuspended(!visible);
+            mPulse.onPulseVisibilityChanged(visible);
+        }
+    }
+
+    private void updateRefreshRate() {
+        Display display = getDisplay();
+        if (display != null) {
+            mFrameGovernor.setRefreshRate(display.getRefreshRate());
+        }
+    }
+
 }
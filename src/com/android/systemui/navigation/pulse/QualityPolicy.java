@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Picks how much Pulse may spend from the device's power and thermal
+ * state. Every input only ever lowers the tier, and the tier caps capture
+ * rate, frame rate, bar count, smoothing and fade resolution together so
+ * the picture degrades evenly. Kept free of android.* so it runs on a
+ * plain JDK, with the thermal status just another input
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+public class QualityPolicy {
+    public static final int TIER_FULL = 0;
+    public static final int TIER_REDUCED = 1;
+    public static final int TIER_MINIMAL = 2;
+    private static final int TIER_COUNT = 3;
+    private static final String[] TIER_NAMES = { "full", "reduced", "minimal" };
+
+    // ThermalSource statuses
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_MODERATE = 1;
+    public static final int THERMAL_SEVERE = 2;
+
+    private static final int DEF_LOW_BATTERY = 30;
+    private static final int DEF_CRITICAL_BATTERY = 15;
+    // percent the battery must climb past a threshold before the tier rises again
+    private static final int BATTERY_HYSTERESIS = 5;
+    // fraction of full brightness under which fine detail is lost anyway
+    private static final float DEF_DIM_BRIGHTNESS = 0.1f;
+
+    // indexed by tier
+    private static final int[] CAPTURE_RATE_CAP = { 0, 10000, 5000 };
+    private static final int[] FRAME_RATE_CAP = { 0, 30, 20 };
+    private static final int[] BAR_DIVISOR = { 1, 2, 4 };
+    private static final int[] TRAIL_DOWNSCALE = { 1, 2, 4 };
+
+    private boolean mPowerSave;
+    private int mBatteryLevel = 100;
+    private boolean mCharging;
+    private float mBrightness = 1f;
+    private int mThermalStatus = THERMAL_NONE;
+
+    private int mTier = TIER_FULL;
+    // what the battery alone asks for, the hysteresis works off this
+    private int mBatteryTier = TIER_FULL;
+    private long mTierStartNanos;
+    private final long[] mTimeInTierNanos = new long[TIER_COUNT];
+    private int mTierChanges;
+
+    public QualityPolicy(long nowNanos) {
+        mTierStartNanos = nowNanos;
+    }
+
+    public void setPowerSave(boolean powerSave) {
+        mPowerSave = powerSave;
+    }
+
+    /**
+     * @param level - 0..100
+     * @param charging - plugged in, battery level doesn't matter
+     */
+    public void setBattery(int level, boolean charging) {
+        mBatteryLevel = level;
+        mCharging = charging;
+    }
+
+    /**
+     * @param brightness - 0..1 of the panel's range
+     */
+    public void setBrightness(float brightness) {
+        mBrightness = brightness;
+    }
+
+    /**
+     * @param status - THERMAL_*
+     */
+    public void setThermalStatus(int status) {
+        mThermalStatus = status;
+    }
+
+    /**
+     * Recompute the tier from the inputs set so far
+     *
+     * @return true if the tier changed
+     */
+    public boolean update(long nowNanos) {
+        int tier = TIER_FULL;
+        if (mPowerSave || mThermalStatus >= THERMAL_SEVERE) {
+            tier = TIER_MINIMAL;
+        } else if (mThermalStatus >= THERMAL_MODERATE || mBrightness < DEF_DIM_BRIGHTNESS) {
+            tier = TIER_REDUCED;
+        }
+        mBatteryTier = getBatteryTier();
+        tier = Math.max(tier, mBatteryTier);
+        if (tier == mTier) {
+            return false;
+        }
+        mTimeInTierNanos[mTier] += nowNanos - mTierStartNanos;
+        mTierStartNanos = nowNanos;
+        mTier = tier;
+        mTierChanges++;
+        return true;
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    /**
+     * @return capture rate limit in milliHertz, 0 for none
+     */
+    public int getCaptureRateCap() {
+        return CAPTURE_RATE_CAP[mTier];
+    }
+
+    /**
+     * @return frame rate limit, 0 for none
+     */
+    public int getFrameRateCap() {
+        return FRAME_RATE_CAP[mTier];
+    }
+
+    public boolean isSmoothingAllowed() {
+        return mTier < TIER_MINIMAL;
+    }
+
+    /**
+     * @return what a renderer divides its bar count by in this tier
+     */
+    public static int getBarDivisor(int tier) {
+        return BAR_DIVISOR[tier];
+    }
+
+    /**
+     * @return the least a software fade surface is downscaled by in this tier
+     */
+    public static int getTrailDownscale(int tier) {
+        return TRAIL_DOWNSCALE[tier];
+    }
+
+    public static String tierToString(int tier) {
+        return TIER_NAMES[tier];
+    }
+
+    public long getTimeInTierNanos(int tier, long nowNanos) {
+        return mTimeInTierNanos[tier] + (tier == mTier ? nowNanos - mTierStartNanos : 0);
+    }
+
+    /**
+     * Rough CPU time the current tier saves against the full tier, from
+     * measured costs of one capture and one frame
+     *
+     * @param fullCaptureHz - capture rate the full tier runs at
+     * @param fullFps - frame rate the full tier runs at
+     * @return nanoseconds of CPU saved per second
+     */
+    public long estimateSavedNanosPerSecond(float fullCaptureHz, float fullFps,
+            long captureCostNanos, long frameCostNanos) {
+        final int rateCap = getCaptureRateCap();
+        final int fpsCap = getFrameRateCap();
+        final float captureHz = rateCap > 0 ? Math.min(fullCaptureHz, rateCap / 1000f)
+                : fullCaptureHz;
+        final float fps = fpsCap > 0 ? Math.min(fullFps, fpsCap) : fullFps;
+        return (long) ((fullCaptureHz - captureHz) * captureCostNanos
+                + (fullFps - fps) * frameCostNanos);
+    }
+
+    public void dump(PrintWriter pw, String prefix, long nowNanos) {
+        pw.println(prefix + String.format(
+                "quality: tier=%s for %.1fs changes=%d powerSave=%b battery=%d%%%s"
+                + " brightness=%.2f thermal=%d",
+                tierToString(mTier), (nowNanos - mTierStartNanos) / 1000000000f, mTierChanges,
+                mPowerSave, mBatteryLevel, mCharging ? " charging" : "", mBrightness,
+                mThermalStatus));
+        final StringBuilder sb = new StringBuilder(prefix + "time in tier:");
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            sb.append(String.format(" %s=%.1fs", tierToString(tier),
+                    getTimeInTierNanos(tier, nowNanos) / 1000000000f));
+        }
+        pw.println(sb.toString());
+    }
+
+    private int getBatteryTier() {
+        if (mCharging) {
+            return TIER_FULL;
+        }
+        // once lowered by the battery, only climb back with some margin
+        if (mBatteryLevel <= DEF_CRITICAL_BATTERY
+                || (mBatteryTier >= TIER_MINIMAL
+                        && mBatteryLevel < DEF_CRITICAL_BATTERY + BATTERY_HYSTERESIS)) {
+            return TIER_MINIMAL;
+        }
+        if (mBatteryLevel <= DEF_LOW_BATTERY
+                || (mBatteryTier >= TIER_REDUCED
+                        && mBatteryLevel < DEF_LOW_BATTERY + BATTERY_HYSTERESIS)) {
+            return TIER_REDUCED;
+        }
+        return TIER_FULL;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Everything about bar layout that only changes with size or settings:
+ * which bins feed each bar, where each bar sits and which way it grows.
+ * Built when those change, so a frame is one pass over flat arrays.
+ * Kept free of android.* so it runs on a plain JDK
+ *
+ * Lines are laid out for Canvas.drawLines() as [base x, base y, head x,
+ * head y] per bar, base first so dash effects stay anchored to the edge
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public final class RenderPlan {
+    // bar i reads bin firstBin + i * stride, like the original renderers
+    public static final int MAPPING_LINEAR = 0;
+    // bars split the spectrum into equal ratios of frequency, each bar
+    // taking the loudest of a contiguous run of bins. Bin 0 is skipped
+    public static final int MAPPING_LOG = 1;
+
+    private int mMapping;
+    private int mBinCount;
+    private int mBarCount;
+    private int[] mBinStart = new int[0];
+    private int[] mBinEnd = new int[0];
+    private float[] mLines = new float[0];
+    private boolean mVertical;
+    private float mBaseline;
+    private int mDirection = -1;
+    private float mScale;
+    private float mOffset;
+    private float mGain;
+    private float mStrokeWidth;
+
+    /**
+     * Assign bins to bars
+     *
+     * @param binCount - bins in each frame
+     * @param firstBin - bin of the first bar, linear mapping
+     * @param barCount - bars wanted. Log mapping gives every bar at least
+     *                   one bin, so it may settle on fewer
+     * @param stride - bins between two bars, linear mapping
+     * @param mapping - MAPPING_LINEAR or MAPPING_LOG
+     */
+    public void setBins(int binCount, int firstBin, int barCount, int stride, int mapping) {
+        mMapping = mapping;
+        mBinCount = binCount;
+        if (mapping == MAPPING_LOG) {
+            final int lo = Math.max(1, firstBin);
+            barCount = Math.max(0, Math.min(barCount, binCount - lo));
+            ensureCapacity(barCount);
+            final double ratio = barCount > 0 ? Math.log(binCount / (double) lo) : 0;
+            int start = lo;
+            for (int i = 0; i < barCount; i++) {
+                int end = (int) Math.round(lo * Math.exp(ratio * (i + 1) / barCount));
+                // at least one bin each, and leave one for every bar after
+                end = Math.max(end, start + 1);
+                end = Math.min(end, binCount - (barCount - i - 1));
+                mBinStart[i] = start;
+                mBinEnd[i] = end;
+                start = end;
+            }
+        } else {
+            if (stride > 0) {
+                barCount = Math.max(0, Math.min(barCount, (binCount - firstBin) / stride));
+            }
+            ensureCapacity(barCount);
+            for (int i = 0; i < barCount; i++) {
+                mBinStart[i] = firstBin + i * stride;
+                mBinEnd[i] = mBinStart[i] + 1;
+            }
+        }
+        mBarCount = barCount;
+    }
+
+    /**
+     * Bars spaced a fixed distance apart from the origin
+     */
+    public void layoutSpaced(boolean vertical, float spacing) {
+        mVertical = vertical;
+        final int along = vertical ? 1 : 0;
+        for (int i = 0, j = 0; i < mBarCount; i++, j += 4) {
+            mLines[j + along] = mLines[j + along + 2] = i * spacing;
+        }
+        resetHeads();
+    }
+
+    /**
+     * Bars spread over the whole length, each bar 8/9 of its slot and the
+     * last one flush with the far edge
+     */
+    public void layoutFilled(boolean vertical, float length) {
+        mVertical = vertical;
+        final float units = mBarCount;
+        float barUnit = length / units;
+        final float barWidth = barUnit * 8f / 9f;
+        if (mBarCount > 1) {
+            barUnit = barWidth + (barUnit - barWidth) * units / (units - 1);
+        }
+        mStrokeWidth = barWidth;
+        final int along = vertical ? 1 : 0;
+        for (int i = 0, j = 0; i < mBarCount; i++, j += 4) {
+            mLines[j + along] = mLines[j + along + 2] = i * barUnit + (barWidth / 2);
+        }
+        resetHeads();
+    }
+
+    /**
+     * @param baseline - edge the bars grow from
+     * @param direction - 1 to grow towards larger coordinates, -1 towards smaller
+     */
+    public void setBaseline(float baseline, int direction) {
+        mBaseline = baseline;
+        mDirection = direction;
+        resetHeads();
+    }
+
+    /**
+     * Bar length is magnitude * scale + offset
+     */
+    public void setScale(float scale, float offset) {
+        mScale = scale;
+        mOffset = offset;
+    }
+
+    /**
+     * dB added to every bin before it is truncated, e.g. to even out the
+     * level of a smaller capture. Levels never go below 0
+     */
+    public void setGain(float gainDb) {
+        mGain = gainDb;
+    }
+
+    public int getMapping() {
+        return mMapping;
+    }
+
+    public int getBinCount() {
+        return mBinCount;
+    }
+
+    public int getBarCount() {
+        return mBarCount;
+    }
+
+    public int getBinStart(int bar) {
+        return mBinStart[bar];
+    }
+
+    /**
+     * @return one past the last bin of the bar
+     */
+    public int getBinEnd(int bar) {
+        return mBinEnd[bar];
+    }
+
+    public float getBaseline() {
+        return mBaseline;
+    }
+
+    public float getStrokeWidth() {
+        return mStrokeWidth;
+    }
+
+    /**
+     * @return drawLines() points, getBarCount() * 4 of them valid
+     */
+    public float[] getLines() {
+        return mLines;
+    }
+
+    /**
+     * Point every bar head at the level of the current frame
+     */
+    public void fillLines(float[] magnitudes) {
+        final int head = mVertical ? 2 : 3;
+        final float[] lines = mLines;
+        for (int i = 0, j = head; i < mBarCount; i++, j += 4) {
+            lines[j] = mBaseline + mDirection * (level(magnitudes, i) * mScale + mOffset);
+        }
+    }
+
+    /**
+     * Where every bar head should end up for the current frame
+     */
+    public void fillTargets(float[] magnitudes, float[] targets) {
+        for (int i = 0; i < mBarCount; i++) {
+            targets[i] = mBaseline + mDirection * (level(magnitudes, i) * mScale + mOffset);
+        }
+    }
+
+    /**
+     * Move bar heads to positions computed elsewhere, e.g. by an animation
+     */
+    public void setHeads(float[] positions, int count) {
+        final int head = mVertical ? 2 : 3;
+        count = Math.min(count, mBarCount);
+        for (int i = 0, j = head; i < count; i++, j += 4) {
+            mLines[j] = positions[i];
+        }
+    }
+
+    // loudest bin in the bar, truncated to whole dB like the renderers always did
+    private int level(float[] magnitudes, int bar) {
+        final int end = mBinEnd[bar];
+        float max = magnitudes[mBinStart[bar]];
+        for (int k = mBinStart[bar] + 1; k < end; k++) {
+            if (magnitudes[k] > max) {
+                max = magnitudes[k];
+            }
+        }
+        return Math.max(0, (int) (max + mGain));
+    }
+
+    private void resetHeads() {
+        final int base = mVertical ? 0 : 1;
+        for (int j = 0; j < mBarCount * 4; j += 4) {
+            mLines[j + base] = mLines[j + base + 2] = mBaseline;
+        }
+    }
+
+    private void ensureCapacity(int barCount) {
+        if (mBinStart.length < barCount) {
+            mBinStart = new int[barCount];
+            mBinEnd = new int[barCount];
+            mLines = new float[barCount * 4];
+        }
+    }
+}
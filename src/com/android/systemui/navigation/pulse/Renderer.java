@@ -21,44 +21,80 @@
 
 package com.android.systemui.navigation.pulse;
 
+import java.io.PrintWriter;
+
 import android.content.Context;
 import android.graphics.Canvas;
 import android.os.Handler;
 
-public abstract class Renderer implements VisualizerStreamHandler.Listener {
+public abstract class Renderer {
+    /**
+     * Bins in Visualizer's largest capture, the one layouts were tuned against
+     */
+    protected static final int REFERENCE_BINS = 512;
+
     protected Context mContext;
     protected Handler mHandler;
     protected PulseView mView;
 
-    private static final long ANIM_FPS_MAX = 40;
-    private static final long ANIM_FPS_TO_MILLIS = 1000 / ANIM_FPS_MAX;
-    private long mCurrentTime;
-    private long mRenderCounter;
-    private long mCurrentCounter;
-
     public Renderer(Context context, Handler handler, PulseView view) {
         mContext = context;
         mHandler = handler;
         mView = view;
-        mRenderCounter = System.currentTimeMillis();
     }
 
+    /**
+     * Request a redraw. The view's FrameGovernor decides which vsync
+     * it lands on, so call this as often as there is something new
+     */
     protected final void postInvalidate() {
-        mCurrentTime = System.currentTimeMillis();
-        mCurrentCounter = mCurrentTime - mRenderCounter;
-        if (mCurrentCounter >= ANIM_FPS_TO_MILLIS) {
-            mRenderCounter = mCurrentTime;
-            mView.postInvalidate();
-        }
+        mView.getFrameGovernor().requestFrame();
     }
 
     public abstract void draw(Canvas canvas);
 
-    @Override
-    public void onWaveFormUpdate(byte[] bytes) {}
+    public abstract void onStreamAnalyzed(boolean isValid);
+
+    /**
+     * New waveform data is available, only for renderers that asked for it
+     * with getWaveformColumns(). The frame is reused for the next capture
+     *
+     * @param frame - capture decimated to one min/max pair per column
+     */
+    public void onWaveFormUpdate(WaveformFrame frame) {}
 
-    @Override
-    public void onFFTUpdate(byte[] fft) {}
+    /**
+     * @return pixel columns to decimate waveform captures to, or 0 if this
+     *         renderer doesn't draw the waveform and none should be captured
+     */
+    public int getWaveformColumns() {
+        return 0;
+    }
+
+    /**
+     * @return fewest FFT bins per capture this renderer can draw from, or
+     *         0 for the largest capture. A renderer asking for fewer bins
+     *         is drawing from wider ones, and evens out their level itself
+     */
+    public int getRequiredBins() {
+        return 0;
+    }
+
+    /**
+     * @return captures per second this renderer needs in milliHertz, or 0
+     *         for the default rate
+     */
+    public int getRequiredCaptureRate() {
+        return 0;
+    }
+
+    /**
+     * New spectrum data is available. The frame is reused for the next
+     * capture, so copy anything that must outlive this call
+     *
+     * @param frame - processed capture, magnitudes in dB
+     */
+    public void onFFTUpdate(SpectrumFrame frame) {}
 
     public void onVisualizerLinkChanged(boolean linked) {}
 
@@ -69,4 +105,30 @@ public abstract class Renderer implements VisualizerStreamHandler.Listener {
     public void onSizeChanged(int w, int h, int oldw, int oldh) {}
 
     public void setColors(boolean colorizedMedia, int[] colors) {}
+
+    /**
+     * Trade detail for cost. Applied live, the stream keeps running
+     *
+     * @param tier - QualityPolicy.TIER_*
+     */
+    public void setQualityTier(int tier) {}
+
+    /**
+     * @return bytes this renderer keeps alive while parked, for the
+     *         RendererRegistry budget
+     */
+    public int getRetainedBytes() {
+        return 0;
+    }
+
+    /**
+     * Pulse settings changed. Also called from the constructor of each
+     * renderer with every key set, to pick up the initial values
+     *
+     * @param settings - current values
+     * @param changedKeys - PulseSettingsStore.mask() of each key that changed
+     */
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {}
+
+    public void dump(PrintWriter pw, String prefix) {}
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Renderers by style. Each is created the first time its style is asked
+ * for and then kept, so flipping styles back and forth hands over a live
+ * instance instead of building one. Parked renderers are evicted least
+ * recently used first once their retained memory passes the budget.
+ * Main thread only
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.SparseArray;
+
+public class RendererRegistry {
+    public interface Factory {
+        public Renderer create();
+    }
+
+    private final SparseArray<Factory> mFactories = new SparseArray<>();
+    private final SparseArray<Renderer> mRenderers = new SparseArray<>();
+    // styles with a live renderer, least recently used first
+    private final List<Integer> mUsage = new ArrayList<>();
+    private final int mMaxParkedBytes;
+    private int mColdStarts;
+    private int mWarmStarts;
+    private int mEvictions;
+
+    public RendererRegistry(int maxParkedBytes) {
+        mMaxParkedBytes = maxParkedBytes;
+    }
+
+    public void register(int style, Factory factory) {
+        mFactories.put(style, factory);
+    }
+
+    public boolean isRegistered(int style) {
+        return mFactories.get(style) != null;
+    }
+
+    public boolean isWarm(int style) {
+        return mRenderers.get(style) != null;
+    }
+
+    /**
+     * @return the renderer for a registered style, creating it if it isn't warm
+     */
+    public Renderer get(int style) {
+        Renderer renderer = mRenderers.get(style);
+        if (renderer == null) {
+            renderer = mFactories.get(style).create();
+            mRenderers.put(style, renderer);
+            mColdStarts++;
+        } else {
+            mUsage.remove(Integer.valueOf(style));
+            mWarmStarts++;
+        }
+        mUsage.add(style);
+        return renderer;
+    }
+
+    /**
+     * Evict parked renderers until they fit the budget
+     *
+     * @param active - renderer in use, never evicted or counted
+     */
+    public void trim(Renderer active) {
+        int parkedBytes = 0;
+        for (int i = 0; i < mRenderers.size(); i++) {
+            Renderer renderer = mRenderers.valueAt(i);
+            if (renderer != active) {
+                parkedBytes += renderer.getRetainedBytes();
+            }
+        }
+        for (int i = 0; i < mUsage.size() && parkedBytes > mMaxParkedBytes;) {
+            final int style = mUsage.get(i);
+            Renderer renderer = mRenderers.get(style);
+            if (renderer == active) {
+                i++;
+                continue;
+            }
+            parkedBytes -= renderer.getRetainedBytes();
+            renderer.destroy();
+            mRenderers.remove(style);
+            mUsage.remove(i);
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Keep parked renderers current so they are ready when swapped in
+     */
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        for (int i = 0; i < mRenderers.size(); i++) {
+            mRenderers.valueAt(i).onSettingsChanged(settings, changedKeys);
+        }
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        int retainedBytes = 0;
+        for (int i = 0; i < mRenderers.size(); i++) {
+            retainedBytes += mRenderers.valueAt(i).getRetainedBytes();
+        }
+        pw.println(prefix + "renderers: warm=" + mRenderers.size() + " cold starts=" + mColdStarts
+                + " warm starts=" + mWarmStarts + " evictions=" + mEvictions
+                + " retained=" + retainedBytes / 1024 + "KB parked budget=" + mMaxParkedBytes / 1024
+                + "KB");
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Plays a CaptureFile into the FftSource callbacks with the recorded
+ * frame spacing. Scheduling goes through a Clock so a harness can step
+ * time by hand instead of waiting on a Handler. Captures are handed out
+ * in fresh arrays or through a CaptureBufferRing, the way Visualizer
+ * does in push and pull mode, so both can be compared on one recording
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.List;
+
+import android.os.Handler;
+
+public class ReplayFftSource implements FftSource {
+    // while probing, deliver at most four captures a second like Visualizer would
+    private static final long PROBE_INTERVAL_NANOS = 250 * 1000000L;
+    private static final int PULL_BUFFERS = 3;
+
+    public interface Clock {
+        public void postDelayed(Runnable runnable, long delayNanos);
+
+        public void removeCallbacks(Runnable runnable);
+    }
+
+    private final CaptureFile mCapture;
+    private final Clock mClock;
+    private final boolean mLoop;
+    private Callback mCallback;
+    private boolean mOpen;
+    private boolean mEnabled;
+    private boolean mProbing;
+    private boolean mWaveformEnabled;
+    private boolean mPullMode;
+    private final CaptureBufferRing mBuffers = new CaptureBufferRing(PULL_BUFFERS);
+    private long mAllocatedBytes;
+    private int mPosition;
+    // capture time of the last delivered frame, -1 if none yet
+    private long mLastDeliveredNanos = -1;
+
+    private final Runnable mPlayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            playNextFrame();
+        }
+    };
+
+    /**
+     * Replay on a Handler, looping forever
+     */
+    public ReplayFftSource(CaptureFile capture, final Handler handler) {
+        this(capture, new Clock() {
+            @Override
+            public void postDelayed(Runnable runnable, long delayNanos) {
+                handler.postDelayed(runnable, delayNanos / 1000000);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                handler.removeCallbacks(runnable);
+            }
+        }, true);
+    }
+
+    public ReplayFftSource(CaptureFile capture, Clock clock, boolean loop) {
+        mCapture = capture;
+        mClock = clock;
+        mLoop = loop;
+    }
+
+    @Override
+    public boolean open(int audioSessionId, Callback callback) {
+        mCallback = callback;
+        mPosition = 0;
+        mLastDeliveredNanos = -1;
+        mWaveformEnabled = false;
+        mAllocatedBytes = -mBuffers.getAllocatedBytes();
+        mOpen = !mCapture.getFrames().isEmpty();
+        return mOpen;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (!mOpen || mEnabled == enabled) {
+            return;
+        }
+        mEnabled = enabled;
+        if (enabled) {
+            mClock.postDelayed(mPlayRunnable, 0);
+        } else {
+            mClock.removeCallbacks(mPlayRunnable);
+        }
+    }
+
+    @Override
+    public void setProbing(boolean probing) {
+        mProbing = probing;
+    }
+
+    @Override
+    public void setWaveformEnabled(boolean enabled) {
+        mWaveformEnabled = enabled;
+    }
+
+    @Override
+    public void setPullMode(boolean pull) {
+        mPullMode = pull;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mAllocatedBytes + mBuffers.getAllocatedBytes();
+    }
+
+    @Override
+    public int[] getCaptureSizeRange() {
+        return new int[] { mCapture.getCaptureSize(), mCapture.getCaptureSize() };
+    }
+
+    /**
+     * @return the rate FFT captures were recorded at
+     */
+    @Override
+    public int getMaxCaptureRate() {
+        final List<CaptureFile.Frame> frames = mCapture.getFrames();
+        long first = -1;
+        long last = -1;
+        int count = 0;
+        for (CaptureFile.Frame frame : frames) {
+            if (frame.type == CaptureFile.FRAME_FFT) {
+                if (first < 0) {
+                    first = frame.timeNanos;
+                }
+                last = frame.timeNanos;
+                count++;
+            }
+        }
+        if (count < 2 || last <= first) {
+            return 0;
+        }
+        return (int) ((count - 1) * 1000000000000L / (last - first));
+    }
+
+    /**
+     * A replay always delivers the captures as recorded
+     */
+    @Override
+    public void setCaptureFormat(int captureSize, int rate) {
+    }
+
+    @Override
+    public void release() {
+        setEnabled(false);
+        mOpen = false;
+        mCallback = null;
+    }
+
+    /**
+     * @return true once a non looping replay has delivered every frame
+     */
+    public boolean isFinished() {
+        return !mLoop && mPosition >= mCapture.getFrames().size();
+    }
+
+    private byte[] copyFrame(CaptureFile.Frame frame) {
+        if (!mPullMode) {
+            mAllocatedBytes += frame.data.length;
+            return frame.data.clone();
+        }
+        final byte[] buffer = mBuffers.next(frame.data.length);
+        System.arraycopy(frame.data, 0, buffer, 0, frame.data.length);
+        return buffer;
+    }
+
+    private void playNextFrame() {
+        final List<CaptureFile.Frame> frames = mCapture.getFrames();
+        if (!mEnabled || mPosition >= frames.size()) {
+            return;
+        }
+        final CaptureFile.Frame frame = frames.get(mPosition);
+        if (shouldDeliver(frame)) {
+            if (frame.type == CaptureFile.FRAME_FFT) {
+                mLastDeliveredNanos = frame.timeNanos;
+                mCallback.onFftDataCapture(copyFrame(frame), mCapture.getSamplingRate());
+            } else if (frame.type == CaptureFile.FRAME_WAVEFORM && mWaveformEnabled) {
+                mCallback.onWaveFormDataCapture(copyFrame(frame), mCapture.getSamplingRate());
+            }
+        }
+        // callback may have disabled us
+        if (!mEnabled) {
+            return;
+        }
+        mPosition++;
+        long delay;
+        if (mPosition < frames.size()) {
+            delay = frames.get(mPosition).timeNanos - frame.timeNanos;
+        } else if (mLoop) {
+            // wrap around, reusing the spacing of the first two frames
+            mPosition = 0;
+            mLastDeliveredNanos = -1;
+            delay = frames.size() > 1 ? frames.get(1).timeNanos - frames.get(0).timeNanos : 0;
+        } else {
+            return;
+        }
+        mClock.postDelayed(mPlayRunnable, Math.max(0, delay));
+    }
+
+    private boolean shouldDeliver(CaptureFile.Frame frame) {
+        if (!mProbing) {
+            return true;
+        }
+        if (frame.type != CaptureFile.FRAME_FFT) {
+            return false;
+        }
+        return mLastDeliveredNanos < 0
+                || frame.timeNanos - mLastDeliveredNanos >= PROBE_INTERVAL_NANOS;
+    }
+}
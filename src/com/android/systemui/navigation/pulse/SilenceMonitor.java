@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Watches a validated stream for sustained silence. The loudest bin must
+ * stay under the silence threshold for the whole hold time before the
+ * stream is called silent, and must climb over the higher sound threshold
+ * to wake it again, so quiet passages and fades don't flap the state
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class SilenceMonitor {
+    // re^2 + im^2 of the loudest bin, as StreamValidator measures it.
+    // Visualizer hands out all zero bins for paused players, while a
+    // quiet track keeps a few units in its strongest bins
+    public static final float DEF_SILENCE_POWER = 1f;
+    public static final float DEF_SOUND_POWER = 4f;
+    public static final long DEF_HOLD_NANOS = 3000 * 1000000L;
+
+    private final float mSilencePower;
+    private final float mSoundPower;
+    private final long mHoldNanos;
+
+    private boolean mSilent;
+    // when power first dropped under the threshold, 0 if it hasn't
+    private long mQuietSinceNanos;
+    private long mEpisodeStartNanos;
+    private volatile int mEpisodes;
+    private volatile long mSilentNanos;
+    private volatile float mLastPower;
+
+    public SilenceMonitor() {
+        this(DEF_SILENCE_POWER, DEF_SOUND_POWER, DEF_HOLD_NANOS);
+    }
+
+    public SilenceMonitor(float silencePower, float soundPower, long holdNanos) {
+        mSilencePower = silencePower;
+        mSoundPower = soundPower;
+        mHoldNanos = holdNanos;
+    }
+
+    /**
+     * Feed one FFT capture
+     *
+     * @param fft - Visualizer FFT bytes
+     * @param nowNanos - capture time
+     * @return true if the silent state changed with this frame
+     */
+    public boolean onFrame(byte[] fft, long nowNanos) {
+        final float power = getPeakPower(fft);
+        mLastPower = power;
+        if (mSilent) {
+            if (power >= mSoundPower) {
+                endEpisode(nowNanos);
+                return true;
+            }
+            return false;
+        }
+        if (power >= mSilencePower) {
+            mQuietSinceNanos = 0;
+            return false;
+        }
+        if (mQuietSinceNanos == 0) {
+            mQuietSinceNanos = nowNanos;
+        }
+        if (nowNanos - mQuietSinceNanos >= mHoldNanos) {
+            mSilent = true;
+            mEpisodeStartNanos = nowNanos;
+            mEpisodes++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isSilent() {
+        return mSilent;
+    }
+
+    /**
+     * Back to the sound state, closing any open episode. Totals are kept
+     */
+    public void reset(long nowNanos) {
+        if (mSilent) {
+            endEpisode(nowNanos);
+        }
+        mQuietSinceNanos = 0;
+    }
+
+    public int getEpisodeCount() {
+        return mEpisodes;
+    }
+
+    /**
+     * @return time spent silent over all closed episodes
+     */
+    public long getSilentNanos() {
+        return mSilentNanos;
+    }
+
+    public float getLastPower() {
+        return mLastPower;
+    }
+
+    private void endEpisode(long nowNanos) {
+        mSilent = false;
+        mQuietSinceNanos = 0;
+        mSilentNanos += Math.max(0, nowNanos - mEpisodeStartNanos);
+    }
+
+    /**
+     * Peak power over bins 1..n/2-1. Bin 0 holds the DC and Nyquist terms,
+     * which carry offset rather than audio. Averaged over every bin a soft
+     * tonal track would look silent
+     */
+    private static float getPeakPower(byte[] fft) {
+        int peak = 0;
+        for (int i = 2; i < fft.length - 1; i += 2) {
+            final int re = fft[i];
+            final int im = fft[i + 1];
+            peak = Math.max(peak, re * re + im * im);
+        }
+        return peak;
+    }
+}
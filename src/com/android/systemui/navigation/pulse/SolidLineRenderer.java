@@ -22,68 +22,78 @@
 
 package com.android.systemui.navigation.pulse;
 
-import android.animation.ValueAnimator;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.content.res.Resources;
-import android.database.ContentObserver;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.PorterDuff.Mode;
-import android.net.Uri;
 import android.os.Handler;
-import android.os.UserHandle;
-import android.provider.Settings;
 
 import com.android.internal.util.NotificationColorUtil;
 import com.android.systemui.R;
 import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
+    private static final long COLOR_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_ACCENT_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_AUTO_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_ENABLED)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_SOLID_SPEED)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_COLOR_FROM)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_LAVALAMP_COLOR_TO);
+
     private Paint mPaint;
     private Paint mFadePaint;
-    private ValueAnimator[] mValueAnimators;
-    private FFTAverage[] mFFTAverage;
-    private float[] mFFTPoints;
+    private BarMotionEngine mMotionEngine;
+    private RenderPlan mPlan;
+    private float[] mTargets = new float[0];
+    private int mMapping;
     private int mColor;
     private int mAlbumColor = -1;
     private boolean mAutoColor;
     private int mAccentColor;
 
-    private byte rfk, ifk;
-    private int dbValue;
-    private float magnitude;
     private float mDbFuzzFactor;
     private boolean mVertical;
     private boolean mLeftInLandscape;
     private int mWidth, mHeight, mUnits;
+    private int mQualityTier = QualityPolicy.TIER_FULL;
 
     private boolean mIsValidStream;
     private boolean mPulseAccentColorEnabled;
     private boolean mLavaLampEnabled;
-    private boolean mSmoothingEnabled;
-    private CMRendererObserver mObserver;
     private ColorAnimator mLavaLamp;
 
     private PulseController mController;
 
+    private final BarMotionEngine.Listener mBarListener = new BarMotionEngine.Listener() {
+        @Override
+        public void onBarsUpdated(float[] positions, int count) {
+            mPlan.setHeads(positions, count);
+            postInvalidate();
+        }
+    };
+
     public SolidLineRenderer(Context context, Handler handler, PulseView view,
             PulseController controller) {
         super(context, handler, view);
         mController = controller;
         mColor = Color.TRANSPARENT;
-        mLavaLamp = new ColorAnimator();
-        mLavaLamp.setColorAnimatorListener(this);
+        // shared with every other renderer of this style, e.g. on other surfaces
+        mLavaLamp = controller.getLavaLamp(PulseSettingsStore.KEY_LAVALAMP_SOLID_SPEED);
         mPaint = new Paint();
         mPaint.setAntiAlias(true);
         mFadePaint = new Paint();
         mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
         mDbFuzzFactor = 5f;
-        mObserver = new CMRendererObserver(handler);
-        mObserver.updateSettings();
-        loadValueAnimators();
+        mPlan = new RenderPlan();
+        mMapping = context.getResources().getBoolean(R.bool.config_pulseLogFrequency)
+                ? RenderPlan.MAPPING_LOG : RenderPlan.MAPPING_LINEAR;
+        mMotionEngine = new BarMotionEngine(mBarListener);
+        onSettingsChanged(controller.getSettingsStore().getSettings(),
+                PulseSettingsStore.ALL_KEYS);
     }
 
     @Override
@@ -94,57 +104,26 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
         }
     }
 
-    private void loadValueAnimators() {
-        if (mValueAnimators != null) {
-            for (int i = 0; i < mValueAnimators.length; i++) {
-                mValueAnimators[i].cancel();
-            }
-        }
-        mValueAnimators = new ValueAnimator[mUnits];
-        final boolean isVertical = mVertical;
-        for (int i = 0; i < mUnits; i++) {
-            final int j;
-            if (isVertical) {
-                j = i * 4;
-            } else {
-                j = i * 4 + 1;
-            }
-            mValueAnimators[i] = new ValueAnimator();
-            mValueAnimators[i].setDuration(128);
-            mValueAnimators[i].addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    mFFTPoints[j] = (float) animation.getAnimatedValue();
-                    postInvalidate();
-                }
-            });
-        }
-    }
-
-    private void setPortraitPoints() {
-        float units = Float.valueOf(mUnits);
-        float barUnit = mWidth / units;
-        float barWidth = barUnit * 8f / 9f;
-        barUnit = barWidth + (barUnit - barWidth) * units / (units - 1);
-        mPaint.setStrokeWidth(barWidth);
-        for (int i = 0; i < mUnits; i++) {
-            mFFTPoints[i * 4] = mFFTPoints[i * 4 + 2] = i * barUnit + (barWidth / 2);
-            mFFTPoints[i * 4 + 1] = mHeight;
-            mFFTPoints[i * 4 + 3] = mHeight;
+    private void resetMotionEngine() {
+        mMotionEngine.stop();
+        mMotionEngine.setBarCount(mPlan.getBarCount());
+        for (int i = 0; i < mPlan.getBarCount(); i++) {
+            mMotionEngine.snapTo(i, mPlan.getBaseline());
         }
     }
 
-    private void setVerticalPoints() {
-        float units = Float.valueOf(mUnits);
-        float barUnit = mHeight / units;
-        float barHeight = barUnit * 8f / 9f;
-        barUnit = barHeight + (barUnit - barHeight) * units / (units - 1);
-        mPaint.setStrokeWidth(barHeight);
-        for (int i = 0; i < mUnits; i++) {
-            mFFTPoints[i * 4 + 1] = mFFTPoints[i * 4 + 3] = i * barUnit + (barHeight / 2);
-            mFFTPoints[i * 4] = mLeftInLandscape ? 0 : mWidth;
-            mFFTPoints[i * 4 + 2] = mLeftInLandscape ? 0 : mWidth;
+    private void buildPlan(int binCount) {
+        // skip bin 0, it holds the DC and Nyquist terms
+        mPlan.setBins(binCount, 1, getUnits(), 1, mMapping);
+        mPlan.setBaseline(mVertical ? (mLeftInLandscape ? 0 : mWidth) : mHeight,
+                mVertical && mLeftInLandscape ? 1 : -1);
+        mPlan.layoutFilled(mVertical, mVertical ? mHeight : mWidth);
+        mPlan.setScale(mDbFuzzFactor, 0);
+        mPaint.setStrokeWidth(mPlan.getStrokeWidth());
+        if (mTargets.length < mPlan.getBarCount()) {
+            mTargets = new float[mPlan.getBarCount()];
         }
+        resetMotionEngine();
     }
 
     @Override
@@ -153,69 +132,63 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
             mWidth = mView.getWidth();
             mHeight = mView.getHeight();
             mVertical = mHeight > mWidth;
-            loadValueAnimators();
-            if (mVertical) {
-                setVerticalPoints();
-            } else {
-                setPortraitPoints();
-            }
+            // until the first frame arrives, assume one bin per bar
+            buildPlan(mPlan.getBinCount() > 0 ? mPlan.getBinCount() : getUnits() + 1);
+        }
+    }
+
+    @Override
+    public void setQualityTier(int tier) {
+        if (mQualityTier != tier) {
+            mQualityTier = tier;
+            onSizeChanged(0, 0, 0, 0);
         }
     }
 
+    private int getUnits() {
+        return Math.max(1, mUnits / QualityPolicy.getBarDivisor(mQualityTier));
+    }
+
     @Override
     public void onStreamAnalyzed(boolean isValid) {
         mIsValidStream = isValid;
         if (isValid) {
             onSizeChanged(0, 0, 0, 0);
             if (mLavaLampEnabled && !mPulseAccentColorEnabled) {
-                mLavaLamp.start();
+                mLavaLamp.addColorAnimatorListener(this);
             }
         }
     }
 
     @Override
-    public void onFFTUpdate(byte[] fft) {
-        for (int i = 0; i < mUnits; i++) {
-            mValueAnimators[i].cancel();
-            rfk = fft[i * 2 + 2];
-            ifk = fft[i * 2 + 3];
-            magnitude = rfk * rfk + ifk * ifk;
-            dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-            if (mSmoothingEnabled) {
-                dbValue = mFFTAverage[i].average(dbValue);
-            }
-            if (mVertical) {
-                if (mLeftInLandscape) {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            dbValue * mDbFuzzFactor);
-                } else {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            mFFTPoints[2] - (dbValue * mDbFuzzFactor));
-                }
-            } else {
-                mValueAnimators[i].setFloatValues(mFFTPoints[i * 4 + 1],
-                        mFFTPoints[3] - (dbValue * mDbFuzzFactor));
-            }
-            mValueAnimators[i].start();
+    public void onFFTUpdate(SpectrumFrame frame) {
+        if (mPlan.getBinCount() != frame.getBinCount()) {
+            buildPlan(frame.getBinCount());
         }
+        mPlan.fillTargets(frame.getMagnitudes(), mTargets);
+        mMotionEngine.setTargets(mTargets, mPlan.getBarCount());
+        mMotionEngine.start();
     }
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawLines(mFFTPoints, mPaint);
+        canvas.drawLines(mPlan.getLines(), 0, mPlan.getBarCount() * 4, mPaint);
         canvas.drawPaint(mFadePaint);
     }
 
     @Override
     public void destroy() {
-        mContext.getContentResolver().unregisterContentObserver(mObserver);
-        mLavaLamp.stop();
+        mLavaLamp.removeColorAnimatorListener(this);
+        mMotionEngine.stop();
     }
 
     @Override
     public void onVisualizerLinkChanged(boolean linked) {
         if (!linked) {
-            mLavaLamp.stop();
+            mLavaLamp.removeColorAnimatorListener(this);
+            // settle now, a spring left running would keep redrawing a
+            // view this renderer may no longer own
+            resetMotionEngine();
         }
     }
 
@@ -233,74 +206,18 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
         mPaint.setColor(mAutoColor && mAlbumColor != -1 ? mAlbumColor : (mPulseAccentColorEnabled ? mAccentColor : mColor));
     }
 
-    private class CMRendererObserver extends ContentObserver {
-        public CMRendererObserver(Handler handler) {
-            super(handler);
-            register();
-        }
-
-        void register() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_ACCENT_COLOR_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_COLOR), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_SOLID_FUDGE_FACTOR), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_LAVALAMP_SOLID_SPEED), false, this,
-                    UserHandle.USER_ALL);
-					            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_SOLID_UNITS_COUNT), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_SOLID_UNITS_OPACITY), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.PULSE_AUTO_COLOR), false, this,
-                    UserHandle.USER_ALL);
-            resolver.registerContentObserver(
-                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_SMOOTHING_ENABLED), false,
-                    this,
-                    UserHandle.USER_ALL);
-        }
-
-        @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            updateSettings();
-        }
-
-        public void updateSettings() {
-            ContentResolver resolver = mContext.getContentResolver();
-
-            mPulseAccentColorEnabled = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.PULSE_ACCENT_COLOR_ENABLED, 0, UserHandle.USER_CURRENT) == 1;
+    @Override
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        if ((changedKeys & COLOR_KEYS) != 0) {
+            mPulseAccentColorEnabled = settings.getBoolean(PulseSettingsStore.KEY_ACCENT_COLOR,
+                    false);
 
-            mAutoColor = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_AUTO_COLOR, 0,
-                    UserHandle.USER_CURRENT) == 1;
+            mAutoColor = settings.getBoolean(PulseSettingsStore.KEY_AUTO_COLOR, false);
 
-            mLavaLampEnabled = !mAutoColor && Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_ENABLED, 1, UserHandle.USER_CURRENT) == 1;
+            mLavaLampEnabled = !mAutoColor
+                    && settings.getBoolean(PulseSettingsStore.KEY_LAVALAMP_ENABLED, true);
 
-            mColor = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_COLOR,
-                    Color.WHITE,
-                    UserHandle.USER_CURRENT);
+            mColor = settings.getInt(PulseSettingsStore.KEY_COLOR, Color.WHITE);
 
             mAccentColor = mContext.getResources().getColor(R.color.pulseAccentColor);
             if (mPulseAccentColorEnabled) {
@@ -311,63 +228,36 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
                 int lastColor = mController.getAlbumArtColor();
                 mPaint.setColor(mAutoColor && lastColor != -1 ? lastColor : mColor);
             }
-            int lavaLampSpeed = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.PULSE_LAVALAMP_SOLID_SPEED, 10 * 1000,
-                    UserHandle.USER_CURRENT);
-            mLavaLamp.setAnimationTime(lavaLampSpeed);
-            int lavaLampColorFrom= Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM,
-                    0xffff8080,
-                    UserHandle.USER_CURRENT);
-            int lavaLampColorTo = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO,
-                    0xff8080ff,
-                    UserHandle.USER_CURRENT);
-            mLavaLamp.setAnimationColors(lavaLampColorFrom, lavaLampColorTo);
+            mLavaLamp.setAnimationTime(
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_SOLID_SPEED, 10 * 1000));
+            mLavaLamp.setAnimationColors(
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_COLOR_FROM, 0xffff8080),
+                    settings.getInt(PulseSettingsStore.KEY_LAVALAMP_COLOR_TO, 0xff8080ff));
 
             if (mLavaLampEnabled && mIsValidStream && !mPulseAccentColorEnabled) {
-                mLavaLamp.start();
+                mLavaLamp.addColorAnimatorListener(this);
             } else {
-                mLavaLamp.stop();
+                mLavaLamp.removeColorAnimatorListener(this);
             }
+        }
+
+        if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_SOLID_FUDGE_FACTOR)) != 0) {
             // putFloat, getFloat is better. catch it next time
-            mDbFuzzFactor = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_SOLID_FUDGE_FACTOR, 5,
-                    UserHandle.USER_CURRENT);
-            mSmoothingEnabled = Settings.Secure.getIntForUser(resolver,
-                    Settings.Secure.FLING_PULSE_SMOOTHING_ENABLED, 0, UserHandle.USER_CURRENT) == 1;
+            mDbFuzzFactor = settings.getInt(PulseSettingsStore.KEY_SOLID_FUDGE_FACTOR, 5);
+            mPlan.setScale(mDbFuzzFactor, 0);
+        }
 
+        if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_SOLID_UNITS_COUNT)) != 0) {
             int oldUnits = mUnits;
-            mUnits = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_SOLID_UNITS_COUNT, 64,
-                    UserHandle.USER_CURRENT);
+            mUnits = settings.getInt(PulseSettingsStore.KEY_SOLID_UNITS_COUNT, 64);
             if (mUnits != oldUnits) {
-                mFFTPoints = new float[mUnits * 4];
-                if (mSmoothingEnabled) {
-                    setupFFTAverage();
-                }
                 onSizeChanged(0, 0, 0, 0);
             }
-
-            if (mSmoothingEnabled) {
-                if (mFFTAverage == null) {
-                    setupFFTAverage();
-                }
-            } else {
-                mFFTAverage = null;
-            }
-
-            int solidUnitsColor = Settings.Secure.getIntForUser(
-                    resolver, Settings.Secure.PULSE_SOLID_UNITS_OPACITY, 200,
-                    UserHandle.USER_CURRENT);
-            mFadePaint.setColor(Color.argb(solidUnitsColor, 255, 255, 255));
         }
 
-        private void setupFFTAverage() {
-            mFFTAverage = new FFTAverage[mUnits];
-            for (int i = 0; i < mUnits; i++) {
-                mFFTAverage[i] = new FFTAverage();
-            }
+        if ((changedKeys & PulseSettingsStore.mask(PulseSettingsStore.KEY_SOLID_UNITS_OPACITY)) != 0) {
+            int solidUnitsColor = settings.getInt(PulseSettingsStore.KEY_SOLID_UNITS_OPACITY, 200);
+            mFadePaint.setColor(Color.argb(solidUnitsColor, 255, 255, 255));
         }
     }
 
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One processed FFT capture. Bin k holds the magnitude in dB of the
+ * byte pair at [2k, 2k + 1] of the raw Visualizer capture. Frames are
+ * preallocated and reused, so renderers must not hold on to them past
+ * the onFFTUpdate() call they were handed in
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public final class SpectrumFrame {
+    private float[] mMagnitudes;
+    private int mBinCount;
+    private long mCaptureTimeNanos;
+    private long mPublishTimeNanos;
+
+    public SpectrumFrame() {
+        this(0);
+    }
+
+    public SpectrumFrame(int binCount) {
+        mMagnitudes = new float[binCount];
+    }
+
+    /**
+     * Grow the backing array if needed. Only allocates when the
+     * capture size increases, which in practice happens once per link
+     *
+     * @param binCount - number of bins the next capture will produce
+     */
+    void ensureCapacity(int binCount) {
+        if (mMagnitudes.length < binCount) {
+            mMagnitudes = new float[binCount];
+        }
+        mBinCount = binCount;
+    }
+
+    void setCaptureTimeNanos(long timeNanos) {
+        mCaptureTimeNanos = timeNanos;
+    }
+
+    void setPublishTimeNanos(long timeNanos) {
+        mPublishTimeNanos = timeNanos;
+    }
+
+    /**
+     * @return magnitudes in dB. Only the first getBinCount() entries are valid
+     */
+    public float[] getMagnitudes() {
+        return mMagnitudes;
+    }
+
+    public int getBinCount() {
+        return mBinCount;
+    }
+
+    /**
+     * @return System.nanoTime() at which Visualizer handed us the capture
+     */
+    public long getCaptureTimeNanos() {
+        return mCaptureTimeNanos;
+    }
+
+    /**
+     * @return System.nanoTime() at which the DSP stage finished the frame
+     */
+    public long getPublishTimeNanos() {
+        return mPublishTimeNanos;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Fans the one processed stream out to every surface drawing Pulse. The
+ * Visualizer link, stream validation and DSP work happen once upstream;
+ * subscribers only see the results, so adding one costs its own render
+ * work and nothing else. Main thread only
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpectrumMultiplexer {
+    public interface Subscriber {
+        public void onStreamAnalyzed(boolean isValid);
+
+        public void onVisualizerLinkChanged(boolean linked);
+
+        /**
+         * @param frame - shared by every subscriber, read only
+         */
+        public void onFFTUpdate(SpectrumFrame frame);
+
+        /**
+         * @param frame - shared by every subscriber, read only
+         */
+        public void onWaveFormUpdate(WaveformFrame frame);
+
+        /**
+         * @return pixel columns wanted for waveforms, 0 if none
+         */
+        public int getWaveformColumns();
+
+        /**
+         * @return FFT bins per capture needed, 0 for the largest capture
+         */
+        public int getRequiredBins();
+
+        /**
+         * @return captures per second needed in milliHertz, 0 for the default
+         */
+        public int getRequiredCaptureRate();
+    }
+
+    private final List<Subscriber> mSubscribers = new ArrayList<>();
+    private long mFramesDispatched;
+    private long mDeliveries;
+    private int mMaxSubscribers;
+
+    /**
+     * @return false if already subscribed
+     */
+    public boolean add(Subscriber subscriber) {
+        if (mSubscribers.contains(subscriber)) {
+            return false;
+        }
+        mSubscribers.add(subscriber);
+        mMaxSubscribers = Math.max(mMaxSubscribers, mSubscribers.size());
+        return true;
+    }
+
+    /**
+     * @return false if not subscribed
+     */
+    public boolean remove(Subscriber subscriber) {
+        return mSubscribers.remove(subscriber);
+    }
+
+    public boolean isEmpty() {
+        return mSubscribers.isEmpty();
+    }
+
+    public int size() {
+        return mSubscribers.size();
+    }
+
+    public void dispatchStreamAnalyzed(boolean isValid) {
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            mSubscribers.get(i).onStreamAnalyzed(isValid);
+        }
+    }
+
+    public void dispatchVisualizerLinkChanged(boolean linked) {
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            mSubscribers.get(i).onVisualizerLinkChanged(linked);
+        }
+    }
+
+    public void dispatchFFTUpdate(SpectrumFrame frame) {
+        mFramesDispatched++;
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            mSubscribers.get(i).onFFTUpdate(frame);
+            mDeliveries++;
+        }
+    }
+
+    public void dispatchWaveFormUpdate(WaveformFrame frame) {
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            mSubscribers.get(i).onWaveFormUpdate(frame);
+        }
+    }
+
+    /**
+     * @return the widest waveform any subscriber wants. Narrower ones
+     *         reduce it further themselves
+     */
+    public int getWaveformColumns() {
+        int columns = 0;
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            columns = Math.max(columns, mSubscribers.get(i).getWaveformColumns());
+        }
+        return columns;
+    }
+
+    /**
+     * @return bins that satisfy every subscriber, 0 if any wants the largest capture
+     */
+    public int getRequiredBins() {
+        return maxNeed(true);
+    }
+
+    /**
+     * @return rate that satisfies every subscriber, 0 if any wants the default
+     */
+    public int getRequiredCaptureRate() {
+        return maxNeed(false);
+    }
+
+    public long getFramesDispatched() {
+        return mFramesDispatched;
+    }
+
+    public long getDeliveries() {
+        return mDeliveries;
+    }
+
+    // 0 stands for the most the source gives, so it beats any number
+    private int maxNeed(boolean bins) {
+        int need = 0;
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            final Subscriber subscriber = mSubscribers.get(i);
+            final int n = bins ? subscriber.getRequiredBins()
+                    : subscriber.getRequiredCaptureRate();
+            if (n <= 0) {
+                return 0;
+            }
+            need = Math.max(need, n);
+        }
+        return need;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "subscribers: current=" + mSubscribers.size()
+                + " max=" + mMaxSubscribers + " frames=" + mFramesDispatched
+                + " deliveries=" + mDeliveries);
+    }
+}
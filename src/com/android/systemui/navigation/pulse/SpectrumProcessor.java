@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Shared preprocessing stage. Turns a raw Visualizer FFT capture into
+ * a SpectrumFrame once, so renderers don't each redo the dB math
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class SpectrumProcessor {
+    // re and im are signed bytes, so re^2 + im^2 never exceeds 2 * 128^2
+    private static final int MAX_POWER = 2 * 128 * 128;
+
+    private static final float[] DB_TABLE = new float[MAX_POWER + 1];
+
+    static {
+        // power of zero maps to 0 dB, same as the renderers always did
+        for (int i = 1; i <= MAX_POWER; i++) {
+            DB_TABLE[i] = (float) (10 * Math.log10(i));
+        }
+    }
+
+    private final SpectrumFrame mFrame = new SpectrumFrame();
+
+    /**
+     * Process a capture into the frame owned by this processor
+     *
+     * @param fft - raw capture from Visualizer
+     * @return the processed frame, valid until the next call
+     */
+    public SpectrumFrame process(byte[] fft) {
+        return process(fft, System.nanoTime(), mFrame);
+    }
+
+    /**
+     * Process a capture into a caller supplied frame
+     *
+     * @param fft - raw capture from Visualizer
+     * @param captureTimeNanos - System.nanoTime() at which the capture arrived
+     * @param out - frame to write into
+     * @return out
+     */
+    public SpectrumFrame process(byte[] fft, long captureTimeNanos, SpectrumFrame out) {
+        final int binCount = fft.length / 2;
+        out.ensureCapacity(binCount);
+        out.setCaptureTimeNanos(captureTimeNanos);
+        final float[] magnitudes = out.getMagnitudes();
+        for (int i = 0, j = 0; i < binCount; i++, j += 2) {
+            final int re = fft[j];
+            final int im = fft[j + 1];
+            magnitudes[i] = DB_TABLE[re * re + im * im];
+        }
+        return out;
+    }
+}
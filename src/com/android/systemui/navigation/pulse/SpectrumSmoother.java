@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Per bin smoothing of SpectrumFrame magnitudes. All state lives in flat
+ * primitive arrays sized once per capture size, so apply() never allocates
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class SpectrumSmoother {
+    // average of the last mWindowLength frames
+    public static final int MODE_MOVING_AVERAGE = 0;
+    // one pole filter, fast rise and slow fall
+    public static final int MODE_ATTACK_RELEASE = 1;
+    // hold the peak for a few frames, then let it fall at a fixed rate
+    public static final int MODE_PEAK_HOLD = 2;
+
+    // matches the old per bar FFTAverage window
+    private static final int DEF_WINDOW_LENGTH = 2;
+    private static final float DEF_ATTACK = 0.6f;
+    private static final float DEF_RELEASE = 0.2f;
+    private static final int DEF_HOLD_FRAMES = 4;
+    private static final float DEF_DECAY_DB = 1.5f;
+
+    private int mMode = MODE_MOVING_AVERAGE;
+    private int mWindowLength = DEF_WINDOW_LENGTH;
+    private float mAttack = DEF_ATTACK;
+    private float mRelease = DEF_RELEASE;
+    private int mHoldFrames = DEF_HOLD_FRAMES;
+    private float mDecay = DEF_DECAY_DB;
+
+    // ring matrix, one row of mWindowLength slots per bin
+    private float[] mHistory = new float[0];
+    // filter output for attack/release, held peak for peak hold
+    private float[] mState = new float[0];
+    private int[] mHoldCounters = new int[0];
+    private int mBinCount;
+    private int mCursor;
+    private int mFilled;
+
+    public void setMode(int mode) {
+        if (mMode != mode) {
+            mMode = mode;
+            reset();
+        }
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public void setWindowLength(int windowLength) {
+        windowLength = Math.max(1, windowLength);
+        if (mWindowLength != windowLength) {
+            mWindowLength = windowLength;
+            mHistory = new float[mBinCount * mWindowLength];
+            reset();
+        }
+    }
+
+    public int getWindowLength() {
+        return mWindowLength;
+    }
+
+    /**
+     * @param attack - 0..1, fraction of a rise applied per frame
+     * @param release - 0..1, fraction of a fall applied per frame
+     */
+    public void setAttackRelease(float attack, float release) {
+        mAttack = Math.max(0f, Math.min(1f, attack));
+        mRelease = Math.max(0f, Math.min(1f, release));
+    }
+
+    /**
+     * @param holdFrames - frames a peak is held before it starts to fall
+     * @param decayDb - dB the held peak falls per frame after that
+     */
+    public void setPeakHold(int holdFrames, float decayDb) {
+        mHoldFrames = Math.max(0, holdFrames);
+        mDecay = Math.max(0f, decayDb);
+    }
+
+    /**
+     * Forget all history. Next frame passes through unchanged
+     */
+    public void reset() {
+        mCursor = 0;
+        mFilled = 0;
+    }
+
+    /**
+     * Smooth the frame in place
+     *
+     * @param frame - processed capture to smooth
+     */
+    public void apply(SpectrumFrame frame) {
+        final int binCount = frame.getBinCount();
+        if (binCount != mBinCount) {
+            ensureCapacity(binCount);
+        }
+        final float[] magnitudes = frame.getMagnitudes();
+        switch (mMode) {
+            case MODE_ATTACK_RELEASE:
+                applyAttackRelease(magnitudes, binCount);
+                break;
+            case MODE_PEAK_HOLD:
+                applyPeakHold(magnitudes, binCount);
+                break;
+            default:
+                applyMovingAverage(magnitudes, binCount);
+                break;
+        }
+        if (mFilled < mWindowLength) {
+            mFilled++;
+        }
+    }
+
+    private void ensureCapacity(int binCount) {
+        mBinCount = binCount;
+        if (mState.length < binCount) {
+            mState = new float[binCount];
+            mHoldCounters = new int[binCount];
+        }
+        if (mHistory.length < binCount * mWindowLength) {
+            mHistory = new float[binCount * mWindowLength];
+        }
+        reset();
+    }
+
+    private void applyMovingAverage(float[] magnitudes, int binCount) {
+        final int window = mWindowLength;
+        final int filled = Math.min(mFilled + 1, window);
+        final float[] history = mHistory;
+        for (int i = 0, row = 0; i < binCount; i++, row += window) {
+            history[row + mCursor] = magnitudes[i];
+            float sum = 0f;
+            for (int j = 0; j < filled; j++) {
+                sum += history[row + j];
+            }
+            magnitudes[i] = sum / filled;
+        }
+        mCursor = mCursor + 1 == window ? 0 : mCursor + 1;
+    }
+
+    private void applyAttackRelease(float[] magnitudes, int binCount) {
+        final float[] state = mState;
+        if (mFilled == 0) {
+            System.arraycopy(magnitudes, 0, state, 0, binCount);
+            return;
+        }
+        for (int i = 0; i < binCount; i++) {
+            final float delta = magnitudes[i] - state[i];
+            state[i] += delta * (delta > 0f ? mAttack : mRelease);
+            magnitudes[i] = state[i];
+        }
+    }
+
+    private void applyPeakHold(float[] magnitudes, int binCount) {
+        final float[] peaks = mState;
+        final int[] hold = mHoldCounters;
+        final boolean primed = mFilled != 0;
+        for (int i = 0; i < binCount; i++) {
+            final float value = magnitudes[i];
+            if (!primed || value >= peaks[i]) {
+                peaks[i] = value;
+                hold[i] = mHoldFrames;
+            } else if (hold[i] > 0) {
+                hold[i]--;
+            } else {
+                peaks[i] = Math.max(value, peaks[i] - mDecay);
+            }
+            magnitudes[i] = peaks[i];
+        }
+    }
+}
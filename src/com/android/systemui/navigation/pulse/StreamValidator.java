@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Decides whether a freshly linked stream carries audio. One frame with
+ * real signal is enough: a bin over the power threshold and enough
+ * spread between bins that it isn't a stuck or constant pattern.
+ * Frames are scanned eight bytes at a time through a LongBuffer view.
+ * Only bit exact zero is ever rejected: a stream that had signal and
+ * drops back to zero without sitting out the validation timeout, one
+ * that is zero from the start, like buffering or DRM protected
+ * playback, once the whole window is up. Anything else that is still
+ * pending when the timeout fires is too quiet to tell, and accepted
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+public class StreamValidator {
+    public static final int RESULT_PENDING = 0;
+    public static final int RESULT_VALID = 1;
+    public static final int RESULT_INVALID = 2;
+
+    // re^2 + im^2 of the loudest bin. The 8 bit FFT rounds the onset of
+    // a note at -28dBFS to 5 or more in its strongest bin, hiss to 1 or 2
+    public static final float DEF_MIN_POWER = 4f;
+    // variance over mean^2 of bin power. Noise sits near 1, music above,
+    // a frame of identical bins at 0
+    public static final float DEF_MIN_SPREAD = 0.1f;
+    // a stream that starts out zero may just be buffering, so it gets the
+    // whole VisualizerStreamHandler.VALIDATION_TIME_MILLIS
+    public static final long DEF_ZERO_REJECT_NANOS = 6000 * 1000000L;
+    // one that had signal and went back to zero has stopped for real
+    public static final long DEF_LOST_REJECT_NANOS = 2000 * 1000000L;
+
+    private final float mMinPower;
+    private final float mMinSpread;
+    private final long mZeroRejectNanos;
+    private final long mLostRejectNanos;
+
+    private long mStartNanos;
+    private boolean mStarted;
+    private boolean mSawData;
+    private long mLastDataNanos;
+    private int mFrames;
+    private float mLastPower;
+    private float mLastSpread;
+
+    // view over the last frame scanned, reused while captures come in
+    // the same array, as they do in pull mode
+    private byte[] mWrapped;
+    private LongBuffer mWords;
+
+    public StreamValidator() {
+        this(DEF_MIN_POWER, DEF_MIN_SPREAD, DEF_ZERO_REJECT_NANOS, DEF_LOST_REJECT_NANOS);
+    }
+
+    /**
+     * @param zeroRejectNanos - how long a stream may be zero from the start
+     * @param lostRejectNanos - how long it may be zero after signal was seen
+     */
+    public StreamValidator(float minPower, float minSpread, long zeroRejectNanos,
+            long lostRejectNanos) {
+        mMinPower = minPower;
+        mMinSpread = minSpread;
+        mZeroRejectNanos = zeroRejectNanos;
+        mLostRejectNanos = lostRejectNanos;
+    }
+
+    /**
+     * Start over for a new stream
+     */
+    public void reset() {
+        mStarted = false;
+        mSawData = false;
+        mFrames = 0;
+    }
+
+    /**
+     * Feed one FFT capture
+     *
+     * @param fft - Visualizer FFT bytes
+     * @param nowNanos - capture time
+     * @return RESULT_*
+     */
+    public int onFrame(byte[] fft, long nowNanos) {
+        if (!mStarted) {
+            mStarted = true;
+            mStartNanos = nowNanos;
+        }
+        mFrames++;
+        if (isZero(fft)) {
+            mLastPower = 0f;
+            mLastSpread = 0f;
+            final long zeroNanos = mSawData ? nowNanos - mLastDataNanos : nowNanos - mStartNanos;
+            if (zeroNanos >= (mSawData ? mLostRejectNanos : mZeroRejectNanos)) {
+                return RESULT_INVALID;
+            }
+            return RESULT_PENDING;
+        }
+        mSawData = true;
+        mLastDataNanos = nowNanos;
+        measure(fft);
+        return mLastPower >= mMinPower && mLastSpread >= mMinSpread
+                ? RESULT_VALID : RESULT_PENDING;
+    }
+
+    /**
+     * The validation window is up without a verdict from onFrame(). Any
+     * signal at all is accepted then, only zeros are rejected
+     *
+     * @return RESULT_VALID if any frame was non-zero, RESULT_INVALID if
+     *         every frame was zero, RESULT_PENDING if none came in
+     */
+    public int onTimeout() {
+        if (mSawData) {
+            return RESULT_VALID;
+        }
+        return mFrames > 0 ? RESULT_INVALID : RESULT_PENDING;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return power of the loudest bin in the last frame
+     */
+    public float getLastPower() {
+        return mLastPower;
+    }
+
+    public float getLastSpread() {
+        return mLastSpread;
+    }
+
+    private LongBuffer getWords(byte[] data) {
+        if (data != mWrapped) {
+            mWrapped = data;
+            mWords = ByteBuffer.wrap(data).asLongBuffer();
+        }
+        return mWords;
+    }
+
+    private boolean isZero(byte[] data) {
+        final LongBuffer words = getWords(data);
+        final int count = words.limit();
+        long bits = 0;
+        for (int i = 0; i < count; i++) {
+            bits |= words.get(i);
+        }
+        for (int i = count * 8; i < data.length; i++) {
+            bits |= data[i];
+        }
+        return bits == 0;
+    }
+
+    /**
+     * Peak and spread of bin power over bins 1..n/2-1, unpacked from the
+     * same words. Bin 0 holds the DC and Nyquist terms and is skipped.
+     * Not the mean: a quiet tonal track puts its few units of power in a
+     * handful of bins, and averaged over the other five hundred it looks
+     * like nothing
+     */
+    private void measure(byte[] data) {
+        final LongBuffer words = getWords(data);
+        final int count = words.limit();
+        int peak = 0;
+        long sum = 0;
+        long sumSquares = 0;
+        // the view is big endian, the first byte is the top one
+        for (int i = 0; i < count; i++) {
+            final long word = words.get(i);
+            for (int shift = i == 0 ? 32 : 48; shift >= 0; shift -= 16) {
+                final int re = (byte) (word >>> (shift + 8));
+                final int im = (byte) (word >>> shift);
+                final int power = re * re + im * im;
+                peak = Math.max(peak, power);
+                sum += power;
+                sumSquares += (long) power * power;
+            }
+        }
+        for (int i = Math.max(count * 8, 2); i + 1 < data.length; i += 2) {
+            final int power = data[i] * data[i] + data[i + 1] * data[i + 1];
+            peak = Math.max(peak, power);
+            sum += power;
+            sumSquares += (long) power * power;
+        }
+        final int bins = data.length / 2 - 1;
+        if (bins <= 0) {
+            mLastPower = 0f;
+            mLastSpread = 0f;
+            return;
+        }
+        final double mean = sum / (double) bins;
+        final double variance = sumSquares / (double) bins - mean * mean;
+        mLastPower = peak;
+        mLastSpread = mean > 0 ? (float) (variance / (mean * mean)) : 0f;
+    }
+}
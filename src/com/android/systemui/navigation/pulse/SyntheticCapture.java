@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Deterministic CaptureFiles for replay: sine sweeps, pink noise,
+ * decaying notes and silence gaps. Each frame is synthesized as PCM,
+ * then packed the way Visualizer packs it: unsigned 8 bit waveform,
+ * and an FFT laid out as
+ * [Rf0, Rf(n/2), Rf1, If1, Rf2, If2, ...] in signed bytes
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public final class SyntheticCapture {
+    public static final int DEF_CAPTURE_SIZE = 1024;
+    // milliHertz, like Visualizer reports it
+    public static final int DEF_SAMPLING_RATE = 44100 * 1000;
+    // Visualizer.getMaxCaptureRate() * 0.75 on most devices
+    public static final int DEF_FRAME_RATE = 15;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private interface Signal {
+        /**
+         * Fill one capture worth of samples, -1..1
+         */
+        public void fill(float[] samples, int frameIndex);
+    }
+
+    private SyntheticCapture() {}
+
+    /**
+     * Logarithmic sine sweep
+     *
+     * @param seconds - length of the capture
+     * @param fromHz - starting frequency
+     * @param toHz - final frequency
+     */
+    public static CaptureFile sineSweep(float seconds, final float fromHz, final float toHz) {
+        final int frameCount = (int) (seconds * DEF_FRAME_RATE);
+        final float sampleRate = DEF_SAMPLING_RATE / 1000f;
+        return synthesize(frameCount, new Signal() {
+            private double mPhase;
+
+            @Override
+            public void fill(float[] samples, int frameIndex) {
+                final double progress = frameCount > 1 ? frameIndex / (double) (frameCount - 1) : 0;
+                final double hz = fromHz * Math.pow(toHz / fromHz, progress);
+                final double step = 2 * Math.PI * hz / sampleRate;
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = (float) (0.8 * Math.sin(mPhase));
+                    mPhase += step;
+                }
+            }
+        });
+    }
+
+    /**
+     * Pink noise from Paul Kellet's economy filter
+     *
+     * @param seconds - length of the capture
+     * @param seed - random seed, same seed gives the same capture
+     */
+    public static CaptureFile pinkNoise(float seconds, long seed) {
+        final int frameCount = (int) (seconds * DEF_FRAME_RATE);
+        final Random random = new Random(seed);
+        return synthesize(frameCount, new Signal() {
+            private float mB0, mB1, mB2;
+
+            @Override
+            public void fill(float[] samples, int frameIndex) {
+                for (int i = 0; i < samples.length; i++) {
+                    final float white = random.nextFloat() * 2f - 1f;
+                    mB0 = 0.99765f * mB0 + white * 0.0990460f;
+                    mB1 = 0.96300f * mB1 + white * 0.2965164f;
+                    mB2 = 0.57000f * mB2 + white * 1.0526913f;
+                    samples[i] = (mB0 + mB1 + mB2 + white * 0.1848f) * 0.2f;
+                }
+            }
+        });
+    }
+
+    /**
+     * Notes with a few harmonics that start every half second and decay,
+     * like a soft piano line. Nothing like the constant level of the
+     * sweep, most frames are a tail fading out
+     *
+     * @param seconds - length of the capture
+     * @param level - peak amplitude of each note, 0..1
+     */
+    public static CaptureFile decayingNotes(float seconds, final float level) {
+        final int frameCount = (int) (seconds * DEF_FRAME_RATE);
+        final float sampleRate = DEF_SAMPLING_RATE / 1000f;
+        // A minor arpeggio, A3 C4 E4 A4
+        final float[] notes = { 220f, 261.63f, 329.63f, 440f };
+        final int noteFrames = DEF_FRAME_RATE / 2;
+        return synthesize(frameCount, new Signal() {
+            @Override
+            public void fill(float[] samples, int frameIndex) {
+                final float hz = notes[(frameIndex / noteFrames) % notes.length];
+                // seconds since the note started, at the start of this capture
+                final double start = (frameIndex % noteFrames) / (double) DEF_FRAME_RATE;
+                for (int i = 0; i < samples.length; i++) {
+                    final double t = start + i / (double) sampleRate;
+                    double sample = 0;
+                    for (int harmonic = 1; harmonic <= 3; harmonic++) {
+                        sample += Math.sin(2 * Math.PI * hz * harmonic * t) / harmonic;
+                    }
+                    // 1 + 1/2 + 1/3 keeps the sum within -1..1
+                    samples[i] = (float) (level * Math.exp(-t * 4) * sample / 1.84);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace stretches of a capture with digital silence, the way a
+     * paused player or a DRM protected stream looks to Visualizer
+     *
+     * @param capture - source capture
+     * @param periodSeconds - a gap starts this often
+     * @param gapSeconds - length of each gap
+     */
+    public static CaptureFile withSilenceGaps(CaptureFile capture, float periodSeconds,
+            float gapSeconds) {
+        final long period = (long) (periodSeconds * NANOS_PER_SECOND);
+        final long gap = (long) (gapSeconds * NANOS_PER_SECOND);
+        List<CaptureFile.Frame> frames = new ArrayList<>();
+        for (CaptureFile.Frame frame : capture.getFrames()) {
+            if (period > 0 && frame.timeNanos % period < gap) {
+                byte[] silent = new byte[frame.data.length];
+                if (frame.type == CaptureFile.FRAME_WAVEFORM) {
+                    // unsigned 8 bit, 128 is zero
+                    Arrays.fill(silent, (byte) 0x80);
+                }
+                frames.add(new CaptureFile.Frame(frame.type, frame.timeNanos, silent));
+            } else {
+                frames.add(frame);
+            }
+        }
+        return new CaptureFile(capture.getCaptureSize(), capture.getSamplingRate(),
+                capture.getAudioSessionId(), capture.getStartTimeMillis(), frames);
+    }
+
+    private static CaptureFile synthesize(int frameCount, Signal signal) {
+        final int n = DEF_CAPTURE_SIZE;
+        final float[] samples = new float[n];
+        final float[] re = new float[n];
+        final float[] im = new float[n];
+        final long frameNanos = NANOS_PER_SECOND / DEF_FRAME_RATE;
+        List<CaptureFile.Frame> frames = new ArrayList<>(frameCount * 2);
+        for (int f = 0; f < frameCount; f++) {
+            signal.fill(samples, f);
+            byte[] waveform = new byte[n];
+            for (int i = 0; i < n; i++) {
+                re[i] = samples[i];
+                im[i] = 0f;
+                waveform[i] = (byte) (clamp(Math.round(samples[i] * 127f), -128, 127) + 128);
+            }
+            fft(re, im);
+            // scale so a full scale sine lands near the top of a signed byte
+            final float scale = 127f * 2f / n;
+            byte[] fft = new byte[n];
+            fft[0] = toByte(re[0] * scale);
+            fft[1] = toByte(re[n / 2] * scale);
+            for (int k = 1; k < n / 2; k++) {
+                fft[2 * k] = toByte(re[k] * scale);
+                fft[2 * k + 1] = toByte(im[k] * scale);
+            }
+            final long time = f * frameNanos;
+            frames.add(new CaptureFile.Frame(CaptureFile.FRAME_WAVEFORM, time, waveform));
+            frames.add(new CaptureFile.Frame(CaptureFile.FRAME_FFT, time, fft));
+        }
+        return new CaptureFile(n, DEF_SAMPLING_RATE, 0, 0, frames);
+    }
+
+    private static byte toByte(float value) {
+        return (byte) clamp(Math.round(value), -128, 127);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // iterative radix 2, in place, n must be a power of two
+    private static void fft(float[] re, float[] im) {
+        final int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            final double angle = -2 * Math.PI / len;
+            final float wRe = (float) Math.cos(angle);
+            final float wIm = (float) Math.sin(angle);
+            for (int i = 0; i < n; i += len) {
+                float curRe = 1f;
+                float curIm = 0f;
+                for (int j = 0; j < len / 2; j++) {
+                    final int a = i + j;
+                    final int b = a + len / 2;
+                    final float uRe = re[a];
+                    final float uIm = im[a];
+                    final float vRe = re[b] * curRe - im[b] * curIm;
+                    final float vIm = re[b] * curIm + im[b] * curRe;
+                    re[a] = uRe + vRe;
+                    im[a] = uIm + vIm;
+                    re[b] = uRe - vRe;
+                    im[b] = uIm - vIm;
+                    final float nextRe = curRe * wRe - curIm * wIm;
+                    curIm = curRe * wIm + curIm * wRe;
+                    curRe = nextRe;
+                }
+            }
+        }
+    }
+}
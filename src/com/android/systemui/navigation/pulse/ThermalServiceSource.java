@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Thermal status from the platform thermal service. It only reports
+ * whether the device is throttling, which Pulse treats as severe: the
+ * CPU is already slowed down and a visualizer is the first thing to give
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.os.Handler;
+import android.os.IThermalEventListener;
+import android.os.IThermalService;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.Temperature;
+import android.util.Log;
+
+public class ThermalServiceSource implements ThermalSource {
+    private static final String TAG = ThermalServiceSource.class.getSimpleName();
+    private static final String SERVICE_NAME = "thermalservice";
+
+    private final Handler mHandler;
+    private IThermalService mService;
+    private Listener mListener;
+    private boolean mRegistered;
+    private volatile int mStatus = QualityPolicy.THERMAL_NONE;
+
+    // binder thread
+    private final IThermalEventListener mEventListener = new IThermalEventListener.Stub() {
+        @Override
+        public void notifyThrottling(boolean isThrottling, Temperature temperature) {
+            final int status = toStatus(isThrottling);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mStatus != status) {
+                        mStatus = status;
+                        if (mListener != null) {
+                            mListener.onThermalStatusChanged(status);
+                        }
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * @param handler - main thread handler listeners are called on
+     */
+    public ThermalServiceSource(Handler handler) {
+        mHandler = handler;
+        mService = IThermalService.Stub.asInterface(ServiceManager.getService(SERVICE_NAME));
+        if (mService != null) {
+            try {
+                mStatus = toStatus(mService.isThrottling());
+            } catch (RemoteException e) {
+                Log.e(TAG, "Error reading thermal status");
+            }
+        }
+    }
+
+    @Override
+    public int getThermalStatus() {
+        return mStatus;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+        if (mService == null || mRegistered == (listener != null)) {
+            return;
+        }
+        try {
+            if (listener != null) {
+                mRegistered = mService.registerThermalEventListener(mEventListener);
+            } else {
+                mService.unregisterThermalEventListener(mEventListener);
+                mRegistered = false;
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error registering for thermal events");
+        }
+    }
+
+    private static int toStatus(boolean isThrottling) {
+        return isThrottling ? QualityPolicy.THERMAL_SEVERE : QualityPolicy.THERMAL_NONE;
+    }
+}
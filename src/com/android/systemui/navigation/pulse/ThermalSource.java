@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Where Pulse learns how hot the device runs. Pluggable so the quality
+ * policy can be driven by whatever the platform offers, or by hand
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public interface ThermalSource {
+    public interface Listener {
+        /**
+         * @param status - QualityPolicy.THERMAL_*
+         */
+        public void onThermalStatusChanged(int status);
+    }
+
+    /**
+     * @return QualityPolicy.THERMAL_*
+     */
+    public int getThermalStatus();
+
+    /**
+     * @param listener - called on the main thread, null to stop listening
+     */
+    public void setListener(Listener listener);
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * FftSource backed by android.media.audiofx.Visualizer. Captures are
+ * pushed by the platform, a new array each, or in pull mode read with
+ * getFft() into a CaptureBufferRing on vsyncs of the capture looper
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.media.audiofx.Visualizer;
+import android.util.Log;
+import android.view.Choreographer;
+
+public class VisualizerFftSource implements FftSource {
+    private static final String TAG = VisualizerFftSource.class.getSimpleName();
+    // milliHertz, four captures a second while waiting for sound
+    private static final int PROBE_CAPTURE_RATE = 4000;
+    // one buffer downstream, one pending, one being read
+    private static final int PULL_BUFFERS = 3;
+
+    private Visualizer mVisualizer;
+    private Callback mCallback;
+    private boolean mProbing;
+    private boolean mWaveformEnabled;
+    private int mCaptureSize;
+    // 0 until negotiated, then the rate used while not probing
+    private int mCaptureRate;
+    private boolean mEnabled;
+    private int mSamplingRate;
+    private long mAllocatedBytes;
+
+    private boolean mPullMode;
+    private boolean mPullPosted;
+    private long mPullIntervalNanos;
+    private long mLastPullNanos;
+    private final CaptureBufferRing mFftBuffers = new CaptureBufferRing(PULL_BUFFERS);
+    private final CaptureBufferRing mWaveformBuffers = new CaptureBufferRing(PULL_BUFFERS);
+    // allocations of the rings before this open()
+    private long mRingBytesAtOpen;
+
+    private final Visualizer.OnDataCaptureListener mCaptureListener =
+            new Visualizer.OnDataCaptureListener() {
+        @Override
+        public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes,
+                int samplingRate) {
+            mAllocatedBytes += bytes.length;
+            mCallback.onWaveFormDataCapture(bytes, samplingRate);
+        }
+
+        @Override
+        public void onFftDataCapture(Visualizer visualizer, byte[] bytes,
+                int samplingRate) {
+            mAllocatedBytes += bytes.length;
+            mCallback.onFftDataCapture(bytes, samplingRate);
+        }
+    };
+
+    private final Choreographer.FrameCallback mPullCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPullPosted = false;
+            if (mVisualizer == null || !mPullMode || !mEnabled) {
+                return;
+            }
+            // half a vsync of slack absorbs timestamp noise
+            final long slack = Choreographer.getInstance().getFrameIntervalNanos() / 2;
+            if (frameTimeNanos - mLastPullNanos >= mPullIntervalNanos - slack) {
+                mLastPullNanos = frameTimeNanos;
+                pull();
+            }
+            schedulePull();
+        }
+    };
+
+    @Override
+    public boolean open(int audioSessionId, Callback callback) {
+        mCallback = callback;
+        try {
+            mVisualizer = new Visualizer(audioSessionId);
+        } catch (Exception e) {
+            Log.e(TAG, "Error enabling visualizer!", e);
+            return false;
+        }
+        mVisualizer.setEnabled(false);
+        mEnabled = false;
+        mSamplingRate = mVisualizer.getSamplingRate();
+        mAllocatedBytes = 0;
+        mRingBytesAtOpen = mFftBuffers.getAllocatedBytes() + mWaveformBuffers.getAllocatedBytes();
+        mCaptureSize = Visualizer.getCaptureSizeRange()[1];
+        mCaptureRate = 0;
+        mVisualizer.setCaptureSize(mCaptureSize);
+        mProbing = false;
+        mWaveformEnabled = false;
+        setCaptureRate();
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mVisualizer != null;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (mVisualizer != null) {
+            mVisualizer.setEnabled(enabled);
+            mEnabled = enabled;
+            schedulePull();
+        }
+    }
+
+    @Override
+    public void setProbing(boolean probing) {
+        if (mVisualizer == null || mProbing == probing) {
+            return;
+        }
+        mProbing = probing;
+        reconfigure();
+    }
+
+    @Override
+    public void setWaveformEnabled(boolean enabled) {
+        if (mVisualizer == null || mWaveformEnabled == enabled) {
+            return;
+        }
+        mWaveformEnabled = enabled;
+        reconfigure();
+    }
+
+    @Override
+    public void setPullMode(boolean pull) {
+        if (mPullMode == pull) {
+            return;
+        }
+        mPullMode = pull;
+        if (mVisualizer != null) {
+            reconfigure();
+            schedulePull();
+        }
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mAllocatedBytes + mFftBuffers.getAllocatedBytes()
+                + mWaveformBuffers.getAllocatedBytes() - mRingBytesAtOpen;
+    }
+
+    @Override
+    public int[] getCaptureSizeRange() {
+        return Visualizer.getCaptureSizeRange();
+    }
+
+    @Override
+    public int getMaxCaptureRate() {
+        return Visualizer.getMaxCaptureRate();
+    }
+
+    @Override
+    public void setCaptureFormat(int captureSize, int rate) {
+        if (mVisualizer == null || (mCaptureSize == captureSize && mCaptureRate == rate)) {
+            return;
+        }
+        mCaptureSize = captureSize;
+        mCaptureRate = rate;
+        reconfigure();
+    }
+
+    // capture size and listener can only change while disabled
+    private void reconfigure() {
+        final boolean enabled = mVisualizer.getEnabled();
+        mVisualizer.setEnabled(false);
+        if (mVisualizer.getCaptureSize() != mCaptureSize) {
+            mVisualizer.setCaptureSize(mCaptureSize);
+        }
+        setCaptureRate();
+        mVisualizer.setEnabled(enabled);
+    }
+
+    private void setCaptureRate() {
+        final int maxRate = Visualizer.getMaxCaptureRate();
+        final int rate = mProbing ? Math.min(PROBE_CAPTURE_RATE, maxRate)
+                : (mCaptureRate > 0 ? mCaptureRate : (int) (maxRate * 0.75));
+        if (mPullMode) {
+            // no platform callbacks, we read on our own schedule
+            mVisualizer.setDataCaptureListener(null, rate, false, false);
+            mPullIntervalNanos = 1000000000000L / rate;
+        } else {
+            mVisualizer.setDataCaptureListener(mCaptureListener, rate, mWaveformEnabled, true);
+        }
+    }
+
+    private void schedulePull() {
+        final boolean wanted = mVisualizer != null && mPullMode && mEnabled;
+        if (wanted && !mPullPosted) {
+            mPullPosted = true;
+            Choreographer.getInstance().postFrameCallback(mPullCallback);
+        } else if (!wanted && mPullPosted) {
+            mPullPosted = false;
+            Choreographer.getInstance().removeFrameCallback(mPullCallback);
+        }
+    }
+
+    private void pull() {
+        if (mWaveformEnabled) {
+            final byte[] waveform = mWaveformBuffers.next(mCaptureSize);
+            if (mVisualizer.getWaveForm(waveform) == Visualizer.SUCCESS) {
+                mCallback.onWaveFormDataCapture(waveform, mSamplingRate);
+            }
+        }
+        final byte[] fft = mFftBuffers.next(mCaptureSize);
+        if (mVisualizer.getFft(fft) == Visualizer.SUCCESS) {
+            mCallback.onFftDataCapture(fft, mSamplingRate);
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mVisualizer != null) {
+            mVisualizer.setEnabled(false);
+            mEnabled = false;
+            schedulePull();
+            mVisualizer.release();
+            mVisualizer = null;
+        }
+    }
+}
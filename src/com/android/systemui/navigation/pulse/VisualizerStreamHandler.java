@@ -22,12 +22,23 @@
 
 package com.android.systemui.navigation.pulse;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
 import android.content.Context;
-import android.media.audiofx.Visualizer;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.Trace;
 import android.util.Log;
 
+import com.android.systemui.R;
+
 public class VisualizerStreamHandler {
     public interface Listener {
         public void onStreamAnalyzed(boolean isValid);
@@ -38,128 +49,495 @@ public class VisualizerStreamHandler {
     }
 
     protected static final String TAG = VisualizerStreamHandler.class.getSimpleName();
-    protected static final boolean ENABLE_WAVEFORM = false;
 
     protected static final int MSG_STREAM_VALID = 55;
     protected static final int MSG_STREAM_INVALID = 56;
-    // we have 6 seconds to get three consecutive valid frames
+    // 6 seconds to see one frame with clear signal, after that any signal will do
     protected static final int VALIDATION_TIME_MILLIS = 6000;
-    protected static final int VALID_BYTES_THRESHOLD = 3;
 
-    protected Visualizer mVisualizer;
+    // debug only: path to write captures to while linked
+    private static final String PROP_RECORD = "debug.pulse.record";
+    // debug only: replay "sweep", "noise", "quiet", "gaps" or a capture file
+    // instead of Visualizer
+    private static final String PROP_REPLAY = "debug.pulse.replay";
+    // debug only: overrides config_pulsePullCapture
+    private static final String PROP_PULL = "debug.pulse.pull";
+
+    protected FftSource mSource;
     protected int mAudioSessionId;
+    private CaptureFile.Writer mRecorder;
+
+    // manage stream validation. Captures are validated on the capture
+    // looper and the result is handed to the main thread in a message
+    // tagged with the link it belongs to. Each side keeps its own flags:
+    // mIsAnalyzed and mIsValidated are main thread only, the validation
+    // flags below are capture looper only
+    private final StreamValidator mValidator = new StreamValidator();
+    private final LatencyHistogram mTimeToValid = new LatencyHistogram("link to valid");
+    private long mLinkNanos;
+    // the validation timeout is running, on the capture looper
+    private boolean mValidationStarted;
+    // a result is already on its way to the main thread
+    private boolean mValidationSent;
+    // this link passed validation, captures may flow
+    private boolean mStreamValid;
+    // bumped by every link() and unlink() on the main thread, results
+    // from an older link are dropped on arrival
+    private int mLinkGeneration;
+    // the generation the capture looper last linked or unlinked for
+    private int mCaptureGeneration;
+
+    // an unlinked source is parked this long before it is released, so
+    // a quick relink only enables it again. 0 releases on unlink
+    private final long mLeaseMillis;
+    private boolean mParked;
+    private boolean mWarmLink;
+    private boolean mAwaitingFirstFrame;
+    private volatile int mColdLinks;
+    private volatile int mWarmLinks;
+    private volatile int mLeaseExpiries;
+    private final LatencyHistogram mColdLinkLatency = new LatencyHistogram("cold link");
+    private final LatencyHistogram mWarmLinkLatency = new LatencyHistogram("warm link");
+
+    private final Runnable mValidationTimeout = new Runnable() {
+        @Override
+        public void run() {
+            onValidationTimeout();
+        }
+    };
 
-    // manage stream validation
-    protected int mConsecutiveFrames;
+    private final Runnable mLeaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mParked) {
+                mLeaseExpiries++;
+                releaseSource();
+            }
+        }
+    };
+    // main thread only
     protected boolean mIsValidated;
     protected boolean mIsAnalyzed;
-    protected boolean mIsPrepared;
-    protected boolean mIsPaused;
+    protected boolean mIsRejected;
+    // set and cleared on the main thread, and set by the capture looper
+    // as it hands over a valid result so nothing flows until the main
+    // thread has acted on it and resumes
+    protected volatile boolean mIsPaused;
+    // only while a renderer draws the waveform
+    private volatile boolean mWaveformEnabled;
+    // capture size and rate for what the renderers need, capture looper only
+    private final CaptureNegotiator mNegotiator = new CaptureNegotiator();
+    // pull captures into reused buffers instead of taking the platform's
+    private volatile boolean mPullCapture;
+
+    // capture looper writes, dump reads. Reset with each mode change so
+    // push and pull can be compared on the same playback
+    private final LatencyHistogram mCaptureJitter = new LatencyHistogram("capture jitter");
+    private long mLastCaptureNanos;
+    private long mAllocatedBaseBytes;
+    private volatile long mAllocatedBytes;
+    private volatile long mAllocatedSinceNanos;
+
+    // after validation, drop to a probe rate while the player is silent
+    private final SilenceMonitor mSilenceMonitor = new SilenceMonitor();
 
     protected Context mContext;
     protected PulseController mController;
     protected Listener mListener;
+    // Visualizer delivers captures on the looper it was set up on
+    private Handler mCaptureHandler;
 
     private Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message m) {
+            if (m.arg1 != mLinkGeneration) {
+                // sent for a link that has since been replaced
+                return;
+            }
             switch (m.what) {
                 case MSG_STREAM_VALID:
                     mIsAnalyzed = true;
                     mIsValidated = true;
-                    mIsPrepared = false;
                     mListener.onStreamAnalyzed(true);
                     break;
                 case MSG_STREAM_INVALID:
                     mIsAnalyzed = true;
                     mIsValidated = false;
-                    mIsPrepared = false;
+                    mIsRejected = m.arg2 != 0;
                     mListener.onStreamAnalyzed(false);
                     break;
             }
         }
     };
 
+    private final FftSource.Callback mSourceCallback = new FftSource.Callback() {
+        @Override
+        public void onWaveFormDataCapture(byte[] bytes, int samplingRate) {
+            record(CaptureFile.FRAME_WAVEFORM, bytes, samplingRate);
+            // validation and silence stay on the FFT path, a silent
+            // waveform is all 128s and would never look empty
+            if (mWaveformEnabled && mStreamValid && !mIsPaused
+                    && !mSilenceMonitor.isSilent()) {
+                mListener.onWaveFormUpdate(bytes);
+            }
+        }
+
+        @Override
+        public void onFftDataCapture(byte[] bytes, int samplingRate) {
+            Trace.beginSection("Pulse#capture");
+            if (mAwaitingFirstFrame) {
+                mAwaitingFirstFrame = false;
+                (mWarmLink ? mWarmLinkLatency : mColdLinkLatency)
+                        .record(System.nanoTime() - mLinkNanos);
+            }
+            record(CaptureFile.FRAME_FFT, bytes, samplingRate);
+            analyze(bytes);
+            if (mStreamValid) {
+                monitorSilence(bytes);
+                if (!mIsPaused && !mSilenceMonitor.isSilent()) {
+                    measureCapture();
+                    mListener.onFFTUpdate(bytes);
+                }
+            }
+            Trace.endSection();
+        }
+    };
+
     public VisualizerStreamHandler(Context context, PulseController controller,
             VisualizerStreamHandler.Listener listener) {
+        this(context, controller, listener, Looper.myLooper());
+    }
+
+    public VisualizerStreamHandler(Context context, PulseController controller,
+            VisualizerStreamHandler.Listener listener, Looper captureLooper) {
         mContext = context;
         mController = controller;
         mListener = listener;
+        mCaptureHandler = new Handler(captureLooper);
+        mPullCapture = SystemProperties.getBoolean(PROP_PULL,
+                context.getResources().getBoolean(R.bool.config_pulsePullCapture));
+        mLeaseMillis = context.getResources().getInteger(R.integer.config_pulseVisualizerLeaseMs);
     }
 
     /**
-     * Links the visualizer to a player
+     * Links the visualizer to a player. The source is created on the
+     * capture looper so that captures are delivered there
      * 
      * @param player - MediaPlayer instance to link to
      */
-    public final void link(int audioSessionId) {
-        if (mVisualizer != null && audioSessionId != mAudioSessionId) {
-            mVisualizer.setEnabled(false);
-            mVisualizer.release();
-            mVisualizer = null;
-        }
+    public final void link(final int audioSessionId) {
+        final long requestNanos = System.nanoTime();
+        final int generation = ++mLinkGeneration;
         pause();
         resetAnalyzer();
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                doLink(audioSessionId, requestNanos, generation);
+            }
+        });
+    }
+
+    public final void unlink() {
+        final int generation = ++mLinkGeneration;
+        pause();
+        resetAnalyzer();
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                doUnlink(generation);
+            }
+        });
+    }
+
+    private void doLink(int audioSessionId, long requestNanos, int generation) {
+        mCaptureHandler.removeCallbacks(mLeaseRunnable);
+        if (mSource != null && audioSessionId != mAudioSessionId) {
+            releaseSource();
+        }
+        pause();
+        resetValidation(generation);
+        resetSilenceMonitor();
         mAudioSessionId = audioSessionId;
 
-        if (mVisualizer == null) {
-            try {
-                mVisualizer = new Visualizer(audioSessionId);
-            } catch (Exception e) {
-                Log.e(TAG, "Error enabling visualizer!", e);
+        // an open source, parked or not, is reused and its limits still hold
+        mWarmLink = mSource != null;
+        mParked = false;
+        if (mSource == null) {
+            mSource = createSource();
+            if (!mSource.open(audioSessionId, mSourceCallback)) {
+                mSource = null;
                 return;
             }
-            mVisualizer.setEnabled(false);
-            mVisualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
-
-            Visualizer.OnDataCaptureListener captureListener = new Visualizer.OnDataCaptureListener() {
-                @Override
-                public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes,
-                        int samplingRate) {
-                    if (ENABLE_WAVEFORM) {
-                        analyze(bytes);
-                        if (isValidStream() && !mIsPaused) {
-                            mListener.onWaveFormUpdate(bytes);
-                        }
-                    }
+            startRecorder();
+            final int[] range = mSource.getCaptureSizeRange();
+            mNegotiator.setLimits(range[0], range[1], mSource.getMaxCaptureRate());
+        }
+        if (mWarmLink) {
+            mWarmLinks++;
+        } else {
+            mColdLinks++;
+        }
+        mSource.setWaveformEnabled(mWaveformEnabled);
+        mSource.setPullMode(mPullCapture);
+        resetCaptureStats();
+        mLinkNanos = requestNanos;
+        mAwaitingFirstFrame = true;
+        applyCaptureFormat();
+        mSource.setEnabled(true);
+    }
+
+    private void doUnlink(int generation) {
+        resetValidation(generation);
+        if (mSource != null && !mParked) {
+            pause();
+            mAwaitingFirstFrame = false;
+            if (mLeaseMillis > 0) {
+                // disabled it costs nothing, and skips a new Visualizer on relink
+                mSource.setEnabled(false);
+                mParked = true;
+                mCaptureHandler.postDelayed(mLeaseRunnable, mLeaseMillis);
+            } else {
+                releaseSource();
+            }
+            resetSilenceMonitor();
+        }
+    }
+
+    private void releaseSource() {
+        mCaptureHandler.removeCallbacks(mLeaseRunnable);
+        mParked = false;
+        mSource.release();
+        mSource = null;
+        stopRecorder();
+    }
+
+    /**
+     * Ask the source for waveform captures too. Costs an extra capture
+     * per interval, so only while a renderer consumes them
+     */
+    public void setWaveformEnabled(final boolean enabled) {
+        if (mWaveformEnabled == enabled) {
+            return;
+        }
+        mWaveformEnabled = enabled;
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSource != null) {
+                    mSource.setWaveformEnabled(enabled);
                 }
+            }
+        });
+    }
+
+    /**
+     * What the renderers need from each capture. A change is applied to
+     * the running source in place, without relinking
+     *
+     * @param bins - FFT bins per capture, 0 for the largest capture
+     * @param rate - captures per second in milliHertz, 0 for the default rate
+     */
+    public void setCaptureNeeds(final int bins, final int rate) {
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mNegotiator.setNeeds(bins, rate)) {
+                    applyCaptureFormat();
+                }
+            }
+        });
+    }
 
-                @Override
-                public void onFftDataCapture(Visualizer visualizer, byte[] bytes,
-                        int samplingRate) {
-                    analyze(bytes);
-                    if (isValidStream() && !mIsPaused) {
-                        mListener.onFFTUpdate(bytes);
+    /**
+     * Switch between platform pushed captures and captures pulled into
+     * reused buffers. Takes effect on a running link, without relinking
+     */
+    public void setPullCapture(final boolean pull) {
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPullCapture != pull) {
+                    mPullCapture = pull;
+                    if (mSource != null) {
+                        mSource.setPullMode(pull);
+                        resetCaptureStats();
                     }
                 }
-            };
+            }
+        });
+    }
 
-            mVisualizer.setDataCaptureListener(captureListener,
-                    (int) (Visualizer.getMaxCaptureRate() * 0.75), ENABLE_WAVEFORM, true);
+    /**
+     * @return capture rate when no renderer asks for one, in milliHertz,
+     *         0 until linked once
+     */
+    public int getDefaultCaptureRate() {
+        return mNegotiator.getDefaultRate();
+    }
 
+    private void applyCaptureFormat() {
+        if (mSource != null && mNegotiator.getCaptureSize() > 0) {
+            mSource.setCaptureFormat(mNegotiator.getCaptureSize(), mNegotiator.getCaptureRate());
         }
-        mVisualizer.setEnabled(true);
     }
 
-    public final void unlink() {
-        if (mVisualizer != null) {
-            pause();
-            mVisualizer.setEnabled(false);
-            mVisualizer.release();
-            mVisualizer = null;
-            resetAnalyzer();
+    private void measureCapture() {
+        final long now = System.nanoTime();
+        final int rate = mNegotiator.getCaptureRate();
+        if (mLastCaptureNanos != 0 && rate > 0) {
+            final long expected = 1000000000000L / rate;
+            final long interval = now - mLastCaptureNanos;
+            // gaps from pauses or silence aren't jitter
+            if (interval < expected * 2) {
+                mCaptureJitter.record(Math.abs(interval - expected));
+            }
+        }
+        mLastCaptureNanos = now;
+        mAllocatedBytes = mSource.getAllocatedBytes() - mAllocatedBaseBytes;
+    }
+
+    private void resetCaptureStats() {
+        mCaptureJitter.reset();
+        mLastCaptureNanos = 0;
+        mAllocatedBaseBytes = mSource.getAllocatedBytes();
+        mAllocatedBytes = 0;
+        mAllocatedSinceNanos = System.nanoTime();
+    }
+
+    private void monitorSilence(byte[] bytes) {
+        if (!mSilenceMonitor.onFrame(bytes, SystemClock.elapsedRealtimeNanos())) {
+            return;
+        }
+        if (mSource != null) {
+            mSource.setProbing(mSilenceMonitor.isSilent());
+        }
+    }
+
+    private void resetSilenceMonitor() {
+        mSilenceMonitor.reset(SystemClock.elapsedRealtimeNanos());
+        if (mSource != null) {
+            mSource.setProbing(false);
+        }
+    }
+
+    private FftSource createSource() {
+        final String replay = SystemProperties.get(PROP_REPLAY, "");
+        if (!replay.isEmpty()) {
+            CaptureFile capture = loadReplay(replay);
+            if (capture != null) {
+                Log.i(TAG, "Replaying " + replay + " in place of Visualizer");
+                return new ReplayFftSource(capture, mCaptureHandler);
+            }
+        }
+        return new VisualizerFftSource();
+    }
+
+    private static CaptureFile loadReplay(String replay) {
+        switch (replay) {
+            case "sweep":
+                return SyntheticCapture.sineSweep(10f, 40f, 16000f);
+            case "noise":
+                return SyntheticCapture.pinkNoise(10f, 0);
+            case "quiet":
+                return SyntheticCapture.decayingNotes(10f, 0.04f);
+            case "gaps":
+                return SyntheticCapture.withSilenceGaps(
+                        SyntheticCapture.pinkNoise(10f, 0), 4f, 1.5f);
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(replay);
+            return CaptureFile.read(in);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to load Pulse capture " + replay, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void startRecorder() {
+        final String path = SystemProperties.get(PROP_RECORD, "");
+        if (path.isEmpty()) {
+            return;
+        }
+        try {
+            mRecorder = new CaptureFile.Writer(new FileOutputStream(path), mAudioSessionId,
+                    System.currentTimeMillis());
+            Log.i(TAG, "Recording Pulse captures to " + path);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record Pulse captures to " + path, e);
         }
     }
 
+    private void stopRecorder() {
+        if (mRecorder != null) {
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing Pulse capture", e);
+            }
+            mRecorder = null;
+        }
+    }
+
+    private void record(int type, byte[] bytes, int samplingRate) {
+        if (mRecorder != null) {
+            try {
+                mRecorder.writeFrame(type, SystemClock.elapsedRealtimeNanos(), bytes, samplingRate);
+            } catch (IOException e) {
+                Log.e(TAG, "Error recording Pulse capture, stopping", e);
+                stopRecorder();
+            }
+        }
+    }
+
+    /**
+     * Main thread only
+     */
     public boolean isValidStream() {
         return mIsAnalyzed && mIsValidated;
     }
 
+    /**
+     * Main thread only
+     *
+     * @return true if the last stream was found all zeros, as DRM protected
+     *         playback is. False if it is valid or was only never confirmed
+     */
+    public boolean isStreamRejected() {
+        return mIsAnalyzed && !mIsValidated && mIsRejected;
+    }
+
+    /**
+     * Main thread only. Forget the last result, and drop any still on its way
+     */
     public void resetAnalyzer() {
         mIsAnalyzed = false;
         mIsValidated = false;
-        mIsPrepared = false;
-        mConsecutiveFrames = 0;
+        mIsRejected = false;
+        mHandler.removeMessages(MSG_STREAM_VALID);
+        mHandler.removeMessages(MSG_STREAM_INVALID);
+    }
+
+    /**
+     * Capture looper only. Start validating from scratch for a new link,
+     * withdrawing the timeout and any result of the last one
+     */
+    private void resetValidation(int generation) {
+        mCaptureHandler.removeCallbacks(mValidationTimeout);
+        mCaptureGeneration = generation;
+        mValidationStarted = false;
+        mValidationSent = false;
+        mStreamValid = false;
+        mHandler.removeMessages(MSG_STREAM_VALID);
+        mHandler.removeMessages(MSG_STREAM_INVALID);
     }
 
     public void pause() {
@@ -170,36 +548,92 @@ public class VisualizerStreamHandler {
         mIsPaused = false;
     }
 
+    // capture looper
     private void analyze(byte[] data) {
-        if (mIsAnalyzed) {
+        if (mValidationSent) {
             return;
         }
 
-        if (!mIsPrepared) {
-            mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_STREAM_INVALID),
-                    VALIDATION_TIME_MILLIS);
-            mIsPrepared = true;
+        if (!mValidationStarted) {
+            mValidator.reset();
+            mCaptureHandler.postDelayed(mValidationTimeout, VALIDATION_TIME_MILLIS);
+            mValidationStarted = true;
         }
 
-        if (isDataEmpty(data)) {
-            mConsecutiveFrames = 0;
-        } else {
-            mConsecutiveFrames++;
+        final long now = System.nanoTime();
+        switch (mValidator.onFrame(data, now)) {
+            case StreamValidator.RESULT_VALID:
+                acceptStream(now);
+                break;
+            case StreamValidator.RESULT_INVALID:
+                // signal went back to zeros, don't sit out the whole timeout
+                sendValidation(false, true);
+                break;
         }
+    }
 
-        if (mConsecutiveFrames == VALID_BYTES_THRESHOLD) {
-            mIsPaused = true;
-            mHandler.removeMessages(MSG_STREAM_INVALID);
-            mHandler.sendEmptyMessage(MSG_STREAM_VALID);
+    // capture looper
+    private void onValidationTimeout() {
+        switch (mValidator.onTimeout()) {
+            case StreamValidator.RESULT_VALID:
+                // real but quiet audio, it would be wrong to treat it like DRM
+                acceptStream(System.nanoTime());
+                break;
+            case StreamValidator.RESULT_INVALID:
+                sendValidation(false, true);
+                break;
+            default:
+                // no verdict, the stream may do better on the next link
+                sendValidation(false, false);
+                break;
         }
     }
 
-    private boolean isDataEmpty(byte[] data) {
-        for (int i = 0; i < data.length; i++) {
-            if (data[i] != 0) {
-                return false;
-            }
+    private void acceptStream(long nowNanos) {
+        mIsPaused = true;
+        mTimeToValid.record(nowNanos - mLinkNanos);
+        sendValidation(true, false);
+    }
+
+    // capture looper. One result per link, the first one wins
+    /**
+     * @param rejected - the stream is invalid because it was all zeros,
+     *        not for lack of a verdict
+     */
+    private void sendValidation(boolean valid, boolean rejected) {
+        if (mValidationSent) {
+            return;
         }
-        return true;
+        mCaptureHandler.removeCallbacks(mValidationTimeout);
+        mValidationSent = true;
+        mStreamValid = valid;
+        mHandler.sendMessage(mHandler.obtainMessage(
+                valid ? MSG_STREAM_VALID : MSG_STREAM_INVALID, mCaptureGeneration,
+                rejected ? 1 : 0));
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + String.format(
+                "silence: silent=%b episodes=%d saved=%.1fs lastPeak=%.2f",
+                mSilenceMonitor.isSilent(), mSilenceMonitor.getEpisodeCount(),
+                mSilenceMonitor.getSilentNanos() / 1000000000f, mSilenceMonitor.getLastPower()));
+        pw.println(prefix + String.format(
+                "validation: frames=%d lastPeak=%.2f lastSpread=%.2f",
+                mValidator.getFrameCount(), mValidator.getLastPower(),
+                mValidator.getLastSpread()));
+        mTimeToValid.dump(pw, prefix);
+        pw.println(prefix + String.format(
+                "links: cold=%d warm=%d parked=%b lease=%dms lease expiries=%d",
+                mColdLinks, mWarmLinks, mParked, mLeaseMillis, mLeaseExpiries));
+        mColdLinkLatency.dump(pw, prefix);
+        mWarmLinkLatency.dump(pw, prefix);
+        pw.println(prefix + "waveform capture: " + mWaveformEnabled);
+        mNegotiator.dump(pw, prefix);
+        final long since = mAllocatedSinceNanos;
+        final float seconds = since > 0 ? (System.nanoTime() - since) / 1000000000f : 0f;
+        pw.println(prefix + String.format("capture mode: %s allocated=%.1fKB (%.2fKB/s)",
+                mPullCapture ? "pull" : "push", mAllocatedBytes / 1024f,
+                seconds > 0f ? mAllocatedBytes / 1024f / seconds : 0f));
+        mCaptureJitter.dump(pw, prefix);
     }
 }
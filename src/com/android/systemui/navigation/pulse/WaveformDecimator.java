@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Min/max decimation of a Visualizer waveform capture down to the pixel
+ * columns it is drawn into. Every column keeps the extremes of its run of
+ * samples, so peaks survive no matter how many samples share a pixel, and
+ * the renderer draws one segment per column whatever the capture size.
+ * Kept free of android.* so it runs on a plain JDK
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class WaveformDecimator {
+    // Visualizer waveform samples are unsigned 8 bit centered on 128
+    private static final int SAMPLE_OFFSET = 128;
+    private static final float SAMPLE_SCALE = 1f / 128f;
+
+    private int mColumns;
+
+    /**
+     * @param columns - pixel columns to reduce to, 0 to stop decimating
+     */
+    public void setColumns(int columns) {
+        mColumns = Math.max(0, columns);
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Reduce a capture into a caller supplied frame. A capture shorter
+     * than the column count gets one column per sample. Each column also
+     * spans the last sample of the column before it, so the segments join
+     * into one continuous trace
+     *
+     * @param waveform - raw capture from Visualizer
+     * @param captureTimeNanos - System.nanoTime() at which the capture arrived
+     * @param out - frame to write into
+     * @return out
+     */
+    public WaveformFrame decimate(byte[] waveform, long captureTimeNanos, WaveformFrame out) {
+        final int samples = waveform.length;
+        final int columns = Math.min(mColumns, samples);
+        out.ensureCapacity(columns);
+        out.setCaptureTimeNanos(captureTimeNanos);
+        final float[] min = out.getMin();
+        final float[] max = out.getMax();
+        int start = 0;
+        int prev = samples > 0 ? (waveform[0] & 0xff) : SAMPLE_OFFSET;
+        for (int c = 0; c < columns; c++) {
+            final int end = (int) ((long) (c + 1) * samples / columns);
+            int lo = prev;
+            int hi = prev;
+            for (int i = start; i < end; i++) {
+                final int s = waveform[i] & 0xff;
+                if (s < lo) {
+                    lo = s;
+                } else if (s > hi) {
+                    hi = s;
+                }
+            }
+            prev = waveform[end - 1] & 0xff;
+            min[c] = (lo - SAMPLE_OFFSET) * SAMPLE_SCALE;
+            max[c] = (hi - SAMPLE_OFFSET) * SAMPLE_SCALE;
+            start = end;
+        }
+        return out;
+    }
+}
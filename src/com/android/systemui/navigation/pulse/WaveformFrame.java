@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One waveform capture reduced to a column per pixel. Column k holds the
+ * lowest and highest sample it covers, scaled to [-1, 1). Frames are
+ * preallocated and reused, so renderers must not hold on to them past
+ * the onWaveFormUpdate() call they were handed in
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public final class WaveformFrame {
+    private float[] mMin = new float[0];
+    private float[] mMax = new float[0];
+    private int mColumnCount;
+    private long mCaptureTimeNanos;
+    private long mPublishTimeNanos;
+
+    void ensureCapacity(int columnCount) {
+        if (mMin.length < columnCount) {
+            mMin = new float[columnCount];
+            mMax = new float[columnCount];
+        }
+        mColumnCount = columnCount;
+    }
+
+    void setCaptureTimeNanos(long timeNanos) {
+        mCaptureTimeNanos = timeNanos;
+    }
+
+    void setPublishTimeNanos(long timeNanos) {
+        mPublishTimeNanos = timeNanos;
+    }
+
+    /**
+     * @return lowest sample per column. Only the first getColumnCount() entries are valid
+     */
+    public float[] getMin() {
+        return mMin;
+    }
+
+    /**
+     * @return highest sample per column. Only the first getColumnCount() entries are valid
+     */
+    public float[] getMax() {
+        return mMax;
+    }
+
+    public int getColumnCount() {
+        return mColumnCount;
+    }
+
+    /**
+     * @return System.nanoTime() at which Visualizer handed us the capture
+     */
+    public long getCaptureTimeNanos() {
+        return mCaptureTimeNanos;
+    }
+
+    /**
+     * @return System.nanoTime() at which the DSP stage finished the frame
+     */
+    public long getPublishTimeNanos() {
+        return mPublishTimeNanos;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Oscilloscope style trace of the waveform capture. The DSP thread has
+ * already reduced each capture to one min/max pair per pixel column, so
+ * a frame is a single drawLines() of at most one segment per column
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+
+import com.android.internal.util.NotificationColorUtil;
+import com.android.systemui.R;
+
+public class WaveformRenderer extends Renderer {
+    private static final long COLOR_KEYS =
+            PulseSettingsStore.mask(PulseSettingsStore.KEY_ACCENT_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_AUTO_COLOR)
+            | PulseSettingsStore.mask(PulseSettingsStore.KEY_COLOR);
+
+    private Paint mPaint;
+    private float[] mLines = new float[0];
+    private int mLineCount;
+    private int mColor;
+    private int mAlbumColor = -1;
+    private int mAccentColor;
+    private boolean mAutoColor;
+    private boolean mPulseAccentColorEnabled;
+
+    private boolean mVertical;
+    private boolean mLeftInLandscape;
+    private int mWidth, mHeight, mColumns;
+
+    private PulseController mController;
+
+    public WaveformRenderer(Context context, Handler handler, PulseView view,
+            PulseController controller) {
+        super(context, handler, view);
+        mController = controller;
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(
+                context.getResources().getDimension(R.dimen.pulse_waveform_stroke_width));
+        onSettingsChanged(controller.getSettingsStore().getSettings(),
+                PulseSettingsStore.ALL_KEYS);
+    }
+
+    @Override
+    public void setLeftInLandscape(boolean leftInLandscape) {
+        if (mLeftInLandscape != leftInLandscape) {
+            mLeftInLandscape = leftInLandscape;
+            onSizeChanged(0, 0, 0, 0);
+        }
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        if (mView.getWidth() > 0 && mView.getHeight() > 0) {
+            mWidth = mView.getWidth();
+            mHeight = mView.getHeight();
+            mVertical = mHeight > mWidth;
+            final int columns = mVertical ? mHeight : mWidth;
+            if (mLines.length < columns * 4) {
+                mLines = new float[columns * 4];
+            }
+            mLineCount = 0;
+            if (columns != mColumns) {
+                mColumns = columns;
+                mController.updateCaptureNeeds();
+            }
+        }
+    }
+
+    @Override
+    public int getWaveformColumns() {
+        return mColumns;
+    }
+
+    // every column wants a sample of its own
+    @Override
+    public int getRequiredBins() {
+        return (mColumns + 1) / 2;
+    }
+
+    @Override
+    public void onStreamAnalyzed(boolean isValid) {
+        if (!isValid) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onVisualizerLinkChanged(boolean linked) {
+        if (!linked) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onWaveFormUpdate(WaveformFrame frame) {
+        // frames are decimated for the widest surface, or before a resize
+        // landed, so fold any extra columns into ours
+        final int frameColumns = frame.getColumnCount();
+        final int columns = Math.min(frameColumns, mColumns);
+        if (columns == 0) {
+            return;
+        }
+        final float[] frameMin = frame.getMin();
+        final float[] frameMax = frame.getMax();
+        final float length = mVertical ? mHeight : mWidth;
+        // samples are in [-1, 1), so full scale reaches the view edges
+        final float center = (mVertical ? mWidth : mHeight) / 2f;
+        // in landscape the trace grows away from the screen edge like the bars do
+        final float direction = mVertical && mLeftInLandscape ? 1f : -1f;
+        final float step = length / columns;
+        final int along = mVertical ? 1 : 0;
+        final int across = mVertical ? 0 : 1;
+        final float[] lines = mLines;
+        int start = 0;
+        for (int c = 0, j = 0; c < columns; c++, j += 4) {
+            final int end = (int) ((long) (c + 1) * frameColumns / columns);
+            float min = frameMin[start];
+            float max = frameMax[start];
+            for (int k = start + 1; k < end; k++) {
+                min = Math.min(min, frameMin[k]);
+                max = Math.max(max, frameMax[k]);
+            }
+            start = end;
+            final float pos = c * step + step / 2f;
+            lines[j + along] = lines[j + along + 2] = pos;
+            lines[j + across] = center + direction * min * center;
+            lines[j + across + 2] = center + direction * max * center;
+        }
+        mLineCount = columns;
+        postInvalidate();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mLineCount > 0) {
+            canvas.drawLines(mLines, 0, mLineCount * 4, mPaint);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        clear();
+    }
+
+    @Override
+    public void onSettingsChanged(PulseSettingsStore.Snapshot settings, long changedKeys) {
+        if ((changedKeys & COLOR_KEYS) != 0) {
+            mPulseAccentColorEnabled = settings.getBoolean(PulseSettingsStore.KEY_ACCENT_COLOR,
+                    false);
+            mAutoColor = settings.getBoolean(PulseSettingsStore.KEY_AUTO_COLOR, false);
+            mColor = settings.getInt(PulseSettingsStore.KEY_COLOR, Color.WHITE);
+            mAccentColor = mContext.getResources().getColor(R.color.pulseAccentColor);
+            updatePaintColor();
+        }
+    }
+
+    @Override
+    public void setColors(boolean colorizedMedia, int[] colors) {
+        if (colorizedMedia) {
+            // be sure the color will always have an acceptable contrast against black navbar
+            mAlbumColor = NotificationColorUtil.findContrastColorAgainstDark(colors[0], 0x000000, true, 2);
+            // now be sure the color will always have an acceptable contrast against white navbar
+            mAlbumColor = NotificationColorUtil.findContrastColor(mAlbumColor, 0xffffff, true, 2);
+        } else {
+            mAlbumColor = -1;
+        }
+        if (mAutoColor) {
+            updatePaintColor();
+            mController.setLastColor(mAlbumColor);
+        }
+    }
+
+    @Override
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "waveform: columns=" + mColumns + " drawn=" + mLineCount);
+    }
+
+    private void updatePaintColor() {
+        if (mPulseAccentColorEnabled) {
+            mPaint.setColor(mAccentColor);
+        } else if (mAutoColor && mAlbumColor != -1) {
+            mPaint.setColor(mAlbumColor);
+        } else {
+            mPaint.setColor(mColor);
+        }
+    }
+
+    private void clear() {
+        if (mLineCount > 0) {
+            mLineCount = 0;
+            postInvalidate();
+        }
+    }
+}
@@ -16,15 +16,23 @@
  * limitations under the License.
  * 
  * Produce a smooth HSV color wheel type animation much like a LavaLamp
+ *
+ * The sweep is precomputed into a color table whenever the colors or
+ * duration change, so a frame is a table lookup. Any number of listeners
+ * can share one animator: it runs while at least one is registered, and
+ * every running animator is driven by one shared frame clock
  * 
  */
 
 package com.android.systemui.navigation.utils;
 
-import android.animation.ValueAnimator;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.animation.TimeAnimator;
 import android.graphics.Color;
 
-public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
+public class ColorAnimator {
     public interface ColorAnimationListener {
         public void onColorChanged(ColorAnimator colorAnimator, int color);
         public void onStartAnimation(ColorAnimator colorAnimator, int firstColor);
@@ -35,58 +43,61 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
     public static final String RED = "#ffff8080";
     public static final String BLUE = "#ff8080ff";
 
+    // one table entry per frame at this rate, the eye can't tell finer steps
+    private static final int LUT_FRAME_RATE = 60;
+    private static final int MAX_LUT_SIZE = 1024;
+
+    private static final FrameClock sClock = new FrameClock();
+
     protected final float[] from = new float[3], to = new float[3], hsv = new float[3];
 
-    protected ValueAnimator mColorAnim;
     protected long mAnimTime = ANIM_DEF_DURATION;
     protected int mFromColor = Color.parseColor(RED);
     protected int mToColor = Color.parseColor(BLUE);
     protected int mLastColor = Color.parseColor(RED);
     protected boolean mIsRunning;
+    // colors from mFromColor to mToColor, played forwards then backwards
+    protected int[] mLut;
+    // clock time the sweep started at, -1 until the first tick
+    private long mStartTimeMillis = -1;
 
-    protected  ColorAnimationListener mListener;
+    protected final List<ColorAnimationListener> mListeners = new ArrayList<>();
 
     public ColorAnimator() {
-        this(ValueAnimator.ofFloat(0, 1));
-    }
-
-    public ColorAnimator(ValueAnimator valueAnimator) {
-        this(valueAnimator, ANIM_DEF_DURATION);
+        this(ANIM_DEF_DURATION);
     }
 
-    public ColorAnimator(ValueAnimator valueAnimator, long animDurationMillis) {
-        this(valueAnimator, animDurationMillis, Color.parseColor(RED), Color.parseColor(BLUE));
+    public ColorAnimator(long animDurationMillis) {
+        this(animDurationMillis, Color.parseColor(RED), Color.parseColor(BLUE));
     }
 
-    public ColorAnimator(ValueAnimator valueAnimator, long animDurationMillis, int fromColor,
-            int toColor) {
+    public ColorAnimator(long animDurationMillis, int fromColor, int toColor) {
         mAnimTime = animDurationMillis;
         mFromColor = fromColor;
         mToColor = toColor;
-        mColorAnim = valueAnimator;
-        mColorAnim.addUpdateListener(this);
+        buildLut();
     }
 
+    /**
+     * Restart the sweep from the first color
+     */
     public void start() {
         stop();
-        Color.colorToHSV(mFromColor, from);
-        Color.colorToHSV(mToColor, to);
-        mColorAnim.setDuration(mAnimTime);
-        mColorAnim.setRepeatMode(ValueAnimator.REVERSE);
-        mColorAnim.setRepeatCount(ValueAnimator.INFINITE);
-        if (mListener != null) {
-            mListener.onStartAnimation(this, mFromColor);
+        mStartTimeMillis = -1;
+        mLastColor = mFromColor;
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onStartAnimation(this, mFromColor);
         }
-        mColorAnim.start();
+        sClock.add(this);
         mIsRunning = true;
     }
 
     public void stop() {
-        if (mColorAnim.isStarted()) {
-            mColorAnim.end();
+        if (mIsRunning) {
+            sClock.remove(this);
             mIsRunning = false;
-            if (mListener != null) {
-                mListener.onStopAnimation(this, mLastColor);
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onStopAnimation(this, mLastColor);
             }
         }
     }
@@ -98,9 +109,7 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
     public void setAnimationTime(long millis) {
         if (mAnimTime != millis) {
             mAnimTime = millis;
-            if (mColorAnim.isRunning()) {
-                start();
-            }
+            buildLut();
         }
     }
 
@@ -108,34 +117,141 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
         if (mFromColor != fromColor || mToColor != toColor) {
             mFromColor = fromColor;
             mToColor = toColor;
-            if (mColorAnim.isRunning()) {
-                start();
-            }
+            buildLut();
         }
     }
-    
+
+    /**
+     * Same as addColorAnimatorListener()
+     */
     public void setColorAnimatorListener(ColorAnimationListener listener) {
-        mListener = listener;
+        addColorAnimatorListener(listener);
     }
 
-    public void removeColorAnimatorListener(ColorAnimationListener listener) {
-        mListener = null;
+    /**
+     * Start receiving colors. The first listener starts the animation,
+     * later ones join it where it is
+     */
+    public void addColorAnimatorListener(ColorAnimationListener listener) {
+        if (mListeners.contains(listener)) {
+            return;
+        }
+        mListeners.add(listener);
+        if (!mIsRunning) {
+            start();
+        } else {
+            listener.onStartAnimation(this, mLastColor);
+        }
     }
 
-    public void onAnimationUpdate(ValueAnimator animation) {
-        // Transition along each axis of HSV (hue, saturation, value)
-        hsv[0] = from[0] + (to[0] - from[0]) * animation.getAnimatedFraction();
-        hsv[1] = from[1] + (to[1] - from[1]) * animation.getAnimatedFraction();
-        hsv[2] = from[2] + (to[2] - from[2]) * animation.getAnimatedFraction();
+    /**
+     * Stop receiving colors. The listener gets a final onStopAnimation(),
+     * and the animation stops with the last listener
+     */
+    public void removeColorAnimatorListener(ColorAnimationListener listener) {
+        if (!mListeners.remove(listener)) {
+            return;
+        }
+        if (mListeners.isEmpty()) {
+            sClock.remove(this);
+            mIsRunning = false;
+        }
+        listener.onStopAnimation(this, mLastColor);
+    }
 
-        mLastColor = Color.HSVToColor(hsv);
+    public boolean hasListener(ColorAnimationListener listener) {
+        return mListeners.contains(listener);
+    }
 
-        if (mListener != null) {
-            mListener.onColorChanged(this, mLastColor);
-        }
+    /**
+     * @param fraction - position in the sweep, 0 at the first color and 1 at the last
+     * @return color at that point, from the table
+     */
+    public int getColorAt(float fraction) {
+        final int last = mLut.length - 1;
+        final int index = Math.round(fraction * last);
+        return mLut[index < 0 ? 0 : (index > last ? last : index)];
     }
 
     public int getCurrentColor() {
         return mLastColor;
     }
+
+    private void onFrame(long timeMillis) {
+        final boolean first = mStartTimeMillis < 0;
+        if (first) {
+            mStartTimeMillis = timeMillis;
+        }
+        // forwards then backwards, like a REVERSE repeating animator
+        final long duration = Math.max(1, mAnimTime);
+        final long phase = (timeMillis - mStartTimeMillis) % (2 * duration);
+        final float fraction = phase < duration ? phase / (float) duration
+                : 2f - phase / (float) duration;
+        final int color = getColorAt(fraction);
+        // only listeners of a new color have work to do
+        if (color == mLastColor && !first) {
+            return;
+        }
+        mLastColor = color;
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onColorChanged(this, color);
+        }
+    }
+
+    private void buildLut() {
+        final int size = (int) Math.max(2,
+                Math.min(MAX_LUT_SIZE, mAnimTime * LUT_FRAME_RATE / 1000));
+        if (mLut == null || mLut.length != size) {
+            mLut = new int[size];
+        }
+        Color.colorToHSV(mFromColor, from);
+        Color.colorToHSV(mToColor, to);
+        // Transition along each axis of HSV (hue, saturation, value)
+        for (int i = 0; i < size; i++) {
+            final float fraction = i / (float) (size - 1);
+            hsv[0] = from[0] + (to[0] - from[0]) * fraction;
+            hsv[1] = from[1] + (to[1] - from[1]) * fraction;
+            hsv[2] = from[2] + (to[2] - from[2]) * fraction;
+            mLut[i] = Color.HSVToColor(hsv);
+        }
+    }
+
+    /**
+     * One vsync driven tick for every running ColorAnimator, alive only
+     * while at least one is running. Main thread only
+     */
+    private static final class FrameClock implements TimeAnimator.TimeListener {
+        private final List<ColorAnimator> mAnimators = new ArrayList<>();
+        private TimeAnimator mTimeAnimator;
+
+        void add(ColorAnimator animator) {
+            if (mAnimators.contains(animator)) {
+                return;
+            }
+            mAnimators.add(animator);
+            if (mTimeAnimator == null) {
+                mTimeAnimator = new TimeAnimator();
+                mTimeAnimator.setTimeListener(this);
+            }
+            if (!mTimeAnimator.isStarted()) {
+                mTimeAnimator.start();
+            }
+        }
+
+        void remove(ColorAnimator animator) {
+            if (mAnimators.remove(animator) && mAnimators.isEmpty()) {
+                mTimeAnimator.end();
+            }
+        }
+
+        @Override
+        public void onTimeUpdate(TimeAnimator animation, long totalTime, long deltaTime) {
+            // a listener may stop its animator from the callback
+            for (int i = mAnimators.size() - 1; i >= 0; i--) {
+                if (i < mAnimators.size()) {
+                    mAnimators.get(i).onFrame(totalTime);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SolidLineRenderer's per frame path: new bar targets from a processed
+ * frame, then one spring step of every bar on the next vsync. Vsync is
+ * the host Choreographer, run by hand 16ms apart
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.concurrent.TimeUnit;
+
+import android.view.Choreographer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BarMotionEngineBenchmark {
+    private static final int CAPTURE_SIZE = 1024;
+    private static final long VSYNC_NANOS = 16666667L;
+
+    @Param({ "2", "8", "16", "32", "64" })
+    public int bars;
+
+    private final RenderPlan mPlan = new RenderPlan();
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private BarMotionEngine mEngine;
+    private SpectrumFrame[] mFrames;
+    private float[] mTargets;
+    private long mFrameTimeNanos;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mChoreographer.reset();
+        mFrames = SpectrumProcessorBenchmark.frames(CAPTURE_SIZE);
+        // the way SolidLineRenderer builds it, one bin per bar from bin 1
+        mPlan.setBins(CAPTURE_SIZE / 2, 1, bars, 1, RenderPlan.MAPPING_LINEAR);
+        mPlan.setBaseline(144f, -1);
+        mPlan.layoutFilled(false, 1080f);
+        mPlan.setScale(5f, 0f);
+        mTargets = new float[bars];
+        mEngine = new BarMotionEngine(new BarMotionEngine.Listener() {
+            @Override
+            public void onBarsUpdated(float[] positions, int count) {
+                mPlan.setHeads(positions, count);
+            }
+        });
+        mEngine.setBarCount(mPlan.getBarCount());
+        for (int i = 0; i < mPlan.getBarCount(); i++) {
+            mEngine.snapTo(i, mPlan.getBaseline());
+        }
+    }
+
+    @Benchmark
+    public float[] captureAndStep() {
+        mNext = mNext + 1 == mFrames.length ? 0 : mNext + 1;
+        mPlan.fillTargets(mFrames[mNext].getMagnitudes(), mTargets);
+        mEngine.setTargets(mTargets, mPlan.getBarCount());
+        mEngine.start();
+        mFrameTimeNanos += VSYNC_NANOS;
+        mChoreographer.runFrame(mFrameTimeNanos);
+        return mPlan.getLines();
+    }
+}
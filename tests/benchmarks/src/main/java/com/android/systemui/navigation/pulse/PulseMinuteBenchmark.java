@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One minute of Pulse on the host, normal against ambient, replayed
+ * from a synthetic sweep through ReplayFftSource. Each op is a whole
+ * simulated minute run single threaded as fast as it goes, so the
+ * score is the CPU time the JVM side of Pulse spends per minute:
+ *
+ *   normal   1024 byte captures at 15Hz, smoothed, 64 bars from
+ *            SolidLineRenderer's plan stepped by BarMotionEngine on
+ *            every 60Hz vsync
+ *   ambient  what the negotiator settles on for AmbientRenderer, 128
+ *            byte captures at 12Hz, unsmoothed, 16 log bars filled
+ *            straight from each frame, nothing between captures
+ *
+ * Visualizer itself, binder and the canvas draw aren't in the numbers
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import android.view.Choreographer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PulseMinuteBenchmark {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long MINUTE_NANOS = 60 * NANOS_PER_SECOND;
+    private static final long VSYNC_NANOS = NANOS_PER_SECOND / 60;
+
+    private static final int NORMAL_BARS = 64;
+    private static final int AMBIENT_BARS = 16;
+    private static final int AMBIENT_CAPTURE_SIZE = 128;
+    private static final int AMBIENT_CAPTURE_RATE = 12;
+
+    @Param({ "normal", "ambient" })
+    public String mode;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final SpectrumProcessor mProcessor = new SpectrumProcessor();
+    private final SpectrumSmoother mSmoother = new SpectrumSmoother();
+    private final SpectrumFrame mFrame = new SpectrumFrame();
+    private final RenderPlan mPlan = new RenderPlan();
+    private final ReplayClock mClock = new ReplayClock();
+    private boolean mAmbient;
+    private ReplayFftSource mSource;
+    private BarMotionEngine mEngine;
+    private float[] mTargets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mChoreographer.reset();
+        mAmbient = mode.equals("ambient");
+        final CaptureFile sweep = SyntheticCapture.sineSweep(10f, 40f, 16000f);
+        final CaptureFile capture = mAmbient
+                ? resample(sweep, AMBIENT_CAPTURE_SIZE, AMBIENT_CAPTURE_RATE)
+                : resample(sweep, SyntheticCapture.DEF_CAPTURE_SIZE,
+                        SyntheticCapture.DEF_FRAME_RATE);
+        final int bins = capture.getCaptureSize() / 2;
+        if (mAmbient) {
+            // AmbientRenderer's plan
+            mPlan.setBins(bins, 1, AMBIENT_BARS, 1, RenderPlan.MAPPING_LOG);
+        } else {
+            mPlan.setBins(bins, 1, NORMAL_BARS, 1, RenderPlan.MAPPING_LINEAR);
+        }
+        mPlan.setBaseline(144f, -1);
+        mPlan.layoutFilled(false, 1080f);
+        mPlan.setScale(5f, 0f);
+        mTargets = new float[mPlan.getBarCount()];
+        mEngine = new BarMotionEngine(new BarMotionEngine.Listener() {
+            @Override
+            public void onBarsUpdated(float[] positions, int count) {
+                mPlan.setHeads(positions, count);
+            }
+        });
+        mEngine.setBarCount(mPlan.getBarCount());
+
+        mSource = new ReplayFftSource(capture, mClock, true);
+        mSource.setPullMode(true);
+        mSource.open(0, new FftSource.Callback() {
+            @Override
+            public void onFftDataCapture(byte[] fft, int samplingRate) {
+                onCapture(fft);
+            }
+
+            @Override
+            public void onWaveFormDataCapture(byte[] waveform, int samplingRate) {
+            }
+        });
+        mSource.setEnabled(true);
+    }
+
+    @Benchmark
+    public float[] minute() {
+        final long end = mClock.now + MINUTE_NANOS;
+        long nextVsync = mClock.now + VSYNC_NANOS;
+        while (mClock.now < end) {
+            if (mAmbient || mClock.nextNanos <= nextVsync) {
+                mClock.runNext();
+            } else {
+                mChoreographer.runFrame(nextVsync);
+                mClock.now = nextVsync;
+                nextVsync += VSYNC_NANOS;
+            }
+        }
+        return mPlan.getLines();
+    }
+
+    private void onCapture(byte[] fft) {
+        mProcessor.process(fft, mClock.now, mFrame);
+        if (mAmbient) {
+            mPlan.fillLines(mFrame.getMagnitudes());
+            return;
+        }
+        mSmoother.apply(mFrame);
+        mPlan.fillTargets(mFrame.getMagnitudes(), mTargets);
+        mEngine.setTargets(mTargets, mPlan.getBarCount());
+        mEngine.start();
+    }
+
+    /**
+     * The FFT frames of a capture cut to a smaller capture size and
+     * respaced to another rate, the way a renegotiated Visualizer
+     * would deliver the same audio
+     */
+    private static CaptureFile resample(CaptureFile capture, int captureSize, int rate) {
+        final List<CaptureFile.Frame> frames = new ArrayList<>();
+        for (CaptureFile.Frame frame : capture.getFrames()) {
+            if (frame.type == CaptureFile.FRAME_FFT) {
+                final byte[] data = new byte[captureSize];
+                System.arraycopy(frame.data, 0, data, 0, captureSize);
+                frames.add(new CaptureFile.Frame(frame.type,
+                        frames.size() * NANOS_PER_SECOND / rate, data));
+            }
+        }
+        return new CaptureFile(captureSize, capture.getSamplingRate(),
+                capture.getAudioSessionId(), capture.getStartTimeMillis(), frames);
+    }
+
+    /**
+     * ReplayFftSource only ever has one capture scheduled
+     */
+    private static final class ReplayClock implements ReplayFftSource.Clock {
+        long now;
+        long nextNanos = Long.MAX_VALUE;
+        private Runnable mNext;
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayNanos) {
+            mNext = runnable;
+            nextNanos = now + delayNanos;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            if (mNext == runnable) {
+                mNext = null;
+                nextNanos = Long.MAX_VALUE;
+            }
+        }
+
+        void runNext() {
+            final Runnable next = mNext;
+            now = nextNanos;
+            mNext = null;
+            nextNanos = Long.MAX_VALUE;
+            next.run();
+        }
+    }
+}
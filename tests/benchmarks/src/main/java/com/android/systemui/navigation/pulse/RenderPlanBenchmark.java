@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Per frame geometry from a processed frame: drawLines() points the way
+ * FadingBlockRenderer fills them, and bar targets the way
+ * SolidLineRenderer hands them to its BarMotionEngine. Plan building is
+ * measured too, it runs on every size, settings and capture size change
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderPlanBenchmark {
+    // a 1080p navbar, bars along its width
+    private static final float LENGTH = 1080f;
+    private static final float BASELINE = 144f;
+
+    @Param({ "128", "256", "512", "1024" })
+    public int captureSize;
+
+    @Param({ "2", "8", "16", "32", "64" })
+    public int bars;
+
+    @Param({ "linear", "log" })
+    public String mapping;
+
+    private final RenderPlan mPlan = new RenderPlan();
+    private SpectrumFrame[] mFrames;
+    private float[] mTargets;
+    private int mMapping;
+    private int mStride;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = SpectrumProcessorBenchmark.frames(captureSize);
+        mMapping = mapping.equals("log") ? RenderPlan.MAPPING_LOG : RenderPlan.MAPPING_LINEAR;
+        mStride = Math.max(1, captureSize / 2 / bars);
+        mTargets = new float[bars];
+        buildPlan();
+    }
+
+    @Benchmark
+    public float[] fillLines() {
+        mPlan.fillLines(nextFrame().getMagnitudes());
+        return mPlan.getLines();
+    }
+
+    @Benchmark
+    public float[] fillTargets() {
+        mPlan.fillTargets(nextFrame().getMagnitudes(), mTargets);
+        return mTargets;
+    }
+
+    @Benchmark
+    public RenderPlan buildPlan() {
+        mPlan.setBins(captureSize / 2, 0, bars, mStride, mMapping);
+        mPlan.setBaseline(BASELINE, -1);
+        mPlan.layoutFilled(false, LENGTH);
+        mPlan.setScale(4f, 2f);
+        return mPlan;
+    }
+
+    private SpectrumFrame nextFrame() {
+        mNext = mNext + 1 == mFrames.length ? 0 : mNext + 1;
+        return mFrames[mNext];
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * FFT to dB conversion of one capture, the first thing the DSP thread
+ * does with every Visualizer callback. log10 is the per-bin Math.log10
+ * the renderers each ran before SpectrumProcessor, kept as the before
+ * number for the table lookup
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectrumProcessorBenchmark {
+    // enough distinct captures that the branch predictor can't learn them
+    private static final int CAPTURE_COUNT = 64;
+
+    @Param({ "128", "256", "512", "1024" })
+    public int captureSize;
+
+    private final SpectrumProcessor mProcessor = new SpectrumProcessor();
+    private final SpectrumFrame mFrame = new SpectrumFrame();
+    private byte[][] mCaptures;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCaptures = captures(captureSize);
+    }
+
+    @Benchmark
+    public SpectrumFrame process() {
+        return mProcessor.process(nextCapture(), 0, mFrame);
+    }
+
+    @Benchmark
+    public SpectrumFrame log10() {
+        final byte[] fft = nextCapture();
+        final int binCount = fft.length / 2;
+        mFrame.ensureCapacity(binCount);
+        final float[] magnitudes = mFrame.getMagnitudes();
+        for (int i = 0, j = 0; i < binCount; i++, j += 2) {
+            final int re = fft[j];
+            final int im = fft[j + 1];
+            final int power = re * re + im * im;
+            magnitudes[i] = power > 0 ? (float) (10 * Math.log10(power)) : 0f;
+        }
+        return mFrame;
+    }
+
+    private byte[] nextCapture() {
+        mNext = mNext + 1 == mCaptures.length ? 0 : mNext + 1;
+        return mCaptures[mNext];
+    }
+
+    /**
+     * FFT captures of pink noise cut to the capture size. A smaller
+     * capture holds the low end of the spectrum, which is all the cost
+     * depends on
+     */
+    static byte[][] captures(int captureSize) {
+        final CaptureFile capture = SyntheticCapture.pinkNoise(
+                CAPTURE_COUNT / (float) SyntheticCapture.DEF_FRAME_RATE + 1, 0);
+        final List<byte[]> captures = new ArrayList<>();
+        for (CaptureFile.Frame frame : capture.getFrames()) {
+            if (frame.type == CaptureFile.FRAME_FFT && captures.size() < CAPTURE_COUNT) {
+                final byte[] data = new byte[captureSize];
+                System.arraycopy(frame.data, 0, data, 0, Math.min(captureSize, frame.data.length));
+                captures.add(data);
+            }
+        }
+        return captures.toArray(new byte[captures.size()][]);
+    }
+
+    /**
+     * The same captures, already processed
+     */
+    static SpectrumFrame[] frames(int captureSize) {
+        final byte[][] captures = captures(captureSize);
+        final SpectrumProcessor processor = new SpectrumProcessor();
+        final SpectrumFrame[] frames = new SpectrumFrame[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            frames[i] = processor.process(captures[i], 0, new SpectrumFrame());
+        }
+        return frames;
+    }
+}
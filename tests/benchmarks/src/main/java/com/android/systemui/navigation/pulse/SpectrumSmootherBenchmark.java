@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Smoothing of one processed frame. Each op copies a processed frame in
+ * before smoothing it in place; the copy is a single arraycopy and is in
+ * the numbers, the dB conversion is not
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectrumSmootherBenchmark {
+    @Param({ "128", "256", "512", "1024" })
+    public int captureSize;
+
+    // average:N is a moving average over a window of N frames
+    @Param({ "average:1", "average:2", "average:4", "average:8", "attackRelease", "peakHold" })
+    public String smoothing;
+
+    private final SpectrumSmoother mSmoother = new SpectrumSmoother();
+    private final SpectrumFrame mFrame = new SpectrumFrame();
+    private SpectrumFrame[] mFrames;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = SpectrumProcessorBenchmark.frames(captureSize);
+        mFrame.ensureCapacity(captureSize / 2);
+        if (smoothing.startsWith("average:")) {
+            mSmoother.setMode(SpectrumSmoother.MODE_MOVING_AVERAGE);
+            mSmoother.setWindowLength(Integer.parseInt(smoothing.substring(8)));
+        } else if (smoothing.equals("attackRelease")) {
+            mSmoother.setMode(SpectrumSmoother.MODE_ATTACK_RELEASE);
+        } else {
+            mSmoother.setMode(SpectrumSmoother.MODE_PEAK_HOLD);
+        }
+    }
+
+    @Benchmark
+    public SpectrumFrame apply() {
+        mNext = mNext + 1 == mFrames.length ? 0 : mNext + 1;
+        final SpectrumFrame source = mFrames[mNext];
+        System.arraycopy(source.getMagnitudes(), 0, mFrame.getMagnitudes(), 0,
+                source.getBinCount());
+        mSmoother.apply(mFrame);
+        return mFrame;
+    }
+}
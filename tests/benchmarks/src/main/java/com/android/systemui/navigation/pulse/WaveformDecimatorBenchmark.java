@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Reduction of one waveform capture to the columns it is drawn into,
+ * from a 64 column ambient strip up to the full width of a 1080p navbar
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WaveformDecimatorBenchmark {
+    private static final int CAPTURE_COUNT = 64;
+
+    @Param({ "128", "256", "512", "1024" })
+    public int captureSize;
+
+    @Param({ "64", "270", "1080" })
+    public int columns;
+
+    private final WaveformDecimator mDecimator = new WaveformDecimator();
+    private final WaveformFrame mFrame = new WaveformFrame();
+    private byte[][] mCaptures;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final CaptureFile capture = SyntheticCapture.pinkNoise(
+                CAPTURE_COUNT / (float) SyntheticCapture.DEF_FRAME_RATE + 1, 0);
+        final List<byte[]> captures = new ArrayList<>();
+        for (CaptureFile.Frame frame : capture.getFrames()) {
+            if (frame.type == CaptureFile.FRAME_WAVEFORM && captures.size() < CAPTURE_COUNT) {
+                final byte[] data = new byte[captureSize];
+                System.arraycopy(frame.data, 0, data, 0, captureSize);
+                captures.add(data);
+            }
+        }
+        mCaptures = captures.toArray(new byte[captures.size()][]);
+        mDecimator.setColumns(columns);
+    }
+
+    @Benchmark
+    public WaveformFrame decimate() {
+        mNext = mNext + 1 == mCaptures.length ? 0 : mNext + 1;
+        return mDecimator.decimate(mCaptures[mNext], 0, mFrame);
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+/**
+ * Replays the reference captures through the DSP stage and checks the
+ * output against dsp.golden. If a change to SpectrumProcessor or
+ * SpectrumSmoother moves the output on purpose, the failure message
+ * carries the new checksum to put there
+ */
+public class CaptureReplayTest {
+    private static final String[] CAPTURES = { "music.plsc", "noise.plsc", "gaps.plsc" };
+
+    @Test
+    public void writeGivesBackTheSameBytes() throws IOException {
+        for (String name : CAPTURES) {
+            final byte[] original = readResource("/captures/" + name);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CaptureFile.read(new ByteArrayInputStream(original)).write(out);
+            assertArrayEquals(name, original, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void replayMatchesGolden() throws IOException {
+        final Map<String, String> golden = readGolden();
+        for (String name : CAPTURES) {
+            final CaptureFile capture = Captures.load(name);
+            final List<Long> direct = processDirect(capture);
+            final Replay push = replay(capture, false);
+            final Replay pull = replay(capture, true);
+            assertEquals(name, direct, push.checksums);
+            assertEquals(name, direct, pull.checksums);
+            assertEquals(name + " dsp output changed", golden.get(name), summary(direct));
+        }
+    }
+
+    @Test
+    public void replayKeepsRecordedSpacing() throws IOException {
+        final CaptureFile capture = Captures.load("music.plsc");
+        final List<CaptureFile.Frame> frames = Captures.fftFrames(capture);
+        final Replay replay = replay(capture, false);
+        assertEquals(frames.size(), replay.times.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(frames.get(i).timeNanos - frames.get(0).timeNanos,
+                    replay.times.get(i) - replay.times.get(0));
+        }
+        assertEquals(SyntheticCapture.DEF_FRAME_RATE * 1000, replay.source.getMaxCaptureRate(), 1);
+    }
+
+    @Test
+    public void pullModeReusesBuffers() throws IOException {
+        final CaptureFile capture = Captures.load("noise.plsc");
+        final Replay push = replay(capture, false);
+        final Replay pull = replay(capture, true);
+        assertEquals(Captures.fftFrames(capture).size() * capture.getCaptureSize(),
+                push.source.getAllocatedBytes());
+        assertTrue(pull.source.getAllocatedBytes() < 4 * capture.getCaptureSize());
+    }
+
+    private static List<Long> processDirect(CaptureFile capture) {
+        final Dsp dsp = new Dsp();
+        for (CaptureFile.Frame frame : Captures.fftFrames(capture)) {
+            dsp.process(frame.data);
+        }
+        return dsp.checksums;
+    }
+
+    private static Replay replay(CaptureFile capture, boolean pull) {
+        final Replay replay = new Replay(capture, pull);
+        while (!replay.source.isFinished()) {
+            replay.clock.step();
+        }
+        replay.source.release();
+        return replay;
+    }
+
+    /**
+     * Processor and smoother, the way PulseDspThread runs them
+     */
+    private static final class Dsp {
+        final SpectrumProcessor processor = new SpectrumProcessor();
+        final SpectrumSmoother smoother = new SpectrumSmoother();
+        final SpectrumFrame frame = new SpectrumFrame();
+        final List<Long> checksums = new ArrayList<>();
+
+        void process(byte[] fft) {
+            processor.process(fft, 0, frame);
+            smoother.apply(frame);
+            final CRC32 crc = new CRC32();
+            final float[] magnitudes = frame.getMagnitudes();
+            for (int i = 0; i < frame.getBinCount(); i++) {
+                final int bits = Float.floatToIntBits(magnitudes[i]);
+                crc.update(bits >>> 24);
+                crc.update(bits >>> 16);
+                crc.update(bits >>> 8);
+                crc.update(bits);
+            }
+            checksums.add(crc.getValue());
+        }
+    }
+
+    private static final class Replay implements FftSource.Callback {
+        final ManualClock clock = new ManualClock();
+        final ReplayFftSource source;
+        final Dsp dsp = new Dsp();
+        final List<Long> checksums = dsp.checksums;
+        final List<Long> times = new ArrayList<>();
+
+        Replay(CaptureFile capture, boolean pull) {
+            source = new ReplayFftSource(capture, clock, false);
+            source.setPullMode(pull);
+            assertTrue(source.open(0, this));
+            source.setEnabled(true);
+        }
+
+        @Override
+        public void onFftDataCapture(byte[] fft, int samplingRate) {
+            times.add(clock.now);
+            dsp.process(fft);
+        }
+
+        @Override
+        public void onWaveFormDataCapture(byte[] waveform, int samplingRate) {
+        }
+    }
+
+    private static final class ManualClock implements ReplayFftSource.Clock {
+        private final List<Runnable> mRunnables = new ArrayList<>();
+        private final List<Long> mTimes = new ArrayList<>();
+        long now;
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayNanos) {
+            mRunnables.add(runnable);
+            mTimes.add(now + delayNanos);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            for (int i = mRunnables.size() - 1; i >= 0; i--) {
+                if (mRunnables.get(i) == runnable) {
+                    mRunnables.remove(i);
+                    mTimes.remove(i);
+                }
+            }
+        }
+
+        void step() {
+            assertTrue("replay stalled", !mRunnables.isEmpty());
+            now = mTimes.remove(0);
+            mRunnables.remove(0).run();
+        }
+    }
+
+    private static String summary(List<Long> checksums) {
+        final CRC32 crc = new CRC32();
+        for (long checksum : checksums) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                crc.update((int) (checksum >>> shift));
+            }
+        }
+        return String.format("%d %08x", checksums.size(), crc.getValue());
+    }
+
+    private static Map<String, String> readGolden() throws IOException {
+        final Map<String, String> golden = new HashMap<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(readResource("/captures/dsp.golden")), "UTF-8"));
+        for (String line; (line = reader.readLine()) != null;) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int split = line.indexOf(' ');
+            golden.put(line.substring(0, split), line.substring(split + 1).trim());
+        }
+        return golden;
+    }
+
+    private static byte[] readResource(String path) throws IOException {
+        final InputStream in = CaptureReplayTest.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new IOException("Missing test resource " + path);
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference captures checked in under resources/captures. All of them
+ * hold FFT frames only, 1024 bytes at 15 captures a second:
+ *
+ *   music.plsc  3s log sine sweep, 60Hz to 8kHz
+ *   noise.plsc  2s pink noise
+ *   quiet.plsc  4s of soft decaying notes, peaks at -28dBFS, a new
+ *               note every half second
+ *   gaps.plsc   6s of the sweep with 1.5s of digital silence every 3s,
+ *               starting with one
+ *
+ * They were written with SyntheticCapture and CaptureFile.write(), so
+ * they replay the same on any machine
+ */
+final class Captures {
+    private Captures() {}
+
+    static CaptureFile load(String name) throws IOException {
+        final InputStream in = Captures.class.getResourceAsStream("/captures/" + name);
+        if (in == null) {
+            throw new IOException("No reference capture " + name);
+        }
+        try {
+            return CaptureFile.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static List<CaptureFile.Frame> fftFrames(CaptureFile capture) {
+        final List<CaptureFile.Frame> frames = new ArrayList<>();
+        for (CaptureFile.Frame frame : capture.getFrames()) {
+            if (frame.type == CaptureFile.FRAME_FFT) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * The same frames with every byte divided down, a quiet hiss instead
+     * of a signal. The result never rounds back to all zero
+     */
+    static List<CaptureFile.Frame> attenuate(List<CaptureFile.Frame> frames, int divisor) {
+        final List<CaptureFile.Frame> quiet = new ArrayList<>();
+        for (CaptureFile.Frame frame : frames) {
+            final byte[] data = new byte[frame.data.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (frame.data[i] / divisor);
+            }
+            data[2] |= 1;
+            quiet.add(new CaptureFile.Frame(frame.type, frame.timeNanos, data));
+        }
+        return quiet;
+    }
+}
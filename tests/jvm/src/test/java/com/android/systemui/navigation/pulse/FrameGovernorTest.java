@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+
+import android.view.Choreographer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameGovernorTest {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private int mFrames;
+
+    @Before
+    public void setUp() {
+        mChoreographer.reset();
+    }
+
+    @Test
+    public void divisorIsWholeFractionOfRefreshRate() {
+        final FrameGovernor governor = new FrameGovernor(null, 60);
+        assertEquals(1, governor.getDivisor());
+        governor.setRefreshRate(90f);
+        assertEquals(2, governor.getDivisor());
+        assertEquals(45f, governor.getTargetFrameRate(), 0.01f);
+        governor.setRefreshRate(120f);
+        assertEquals(2, governor.getDivisor());
+        assertEquals(60f, governor.getTargetFrameRate(), 0.01f);
+        governor.setPowerSaveMode(true);
+        assertEquals(4, governor.getDivisor());
+        governor.setPowerSaveMode(false);
+        governor.setFrameRateCap(24);
+        assertEquals(5, governor.getDivisor());
+    }
+
+    @Test
+    public void animationRunsAtTargetRate() {
+        assertEquals(60, framesPerSecond(60f, 60));
+        assertEquals(30, framesPerSecond(60f, 30));
+        assertEquals(60, framesPerSecond(120f, 60));
+        assertEquals(45, framesPerSecond(90f, 60));
+    }
+
+    @Test
+    public void requestsBetweenVsyncsCoalesce() {
+        final FrameGovernor governor = new FrameGovernor(countingTarget(), 60);
+        for (int i = 0; i < 5; i++) {
+            governor.requestFrame();
+        }
+        mChoreographer.runFrame(NANOS_PER_SECOND);
+        mChoreographer.runFrame(NANOS_PER_SECOND + NANOS_PER_SECOND / 60);
+        assertEquals(1, mFrames);
+    }
+
+    @Test
+    public void suspendedRequestsAreSkipped() {
+        final FrameGovernor governor = new FrameGovernor(countingTarget(), 60);
+        governor.requestFrame();
+        governor.setSuspended(true);
+        governor.requestFrame();
+        governor.requestFrame();
+        mChoreographer.runFrame(NANOS_PER_SECOND);
+        assertEquals(0, mFrames);
+        assertEquals(2, governor.getSkippedFrames());
+
+        governor.setSuspended(false);
+        governor.requestFrame();
+        mChoreographer.runFrame(2 * NANOS_PER_SECOND);
+        assertEquals(1, mFrames);
+    }
+
+    @Test
+    public void slowDrawsBackOffAndRecover() {
+        final FrameGovernor governor = new FrameGovernor(null, 60);
+        final long vsync = NANOS_PER_SECOND / 60;
+        for (int i = 0; i < 100; i++) {
+            governor.onDrawComplete(vsync / 2);
+        }
+        assertEquals(4, governor.getDivisor());
+        for (int i = 0; i < 300; i++) {
+            governor.onDrawComplete(0);
+        }
+        assertEquals(1, governor.getDivisor());
+    }
+
+    private int framesPerSecond(float refreshRate, int maxFps) {
+        mFrames = 0;
+        final FrameGovernor[] governor = new FrameGovernor[1];
+        governor[0] = new FrameGovernor(new FrameGovernor.Target() {
+            @Override
+            public void onFrameDue() {
+                mFrames++;
+                governor[0].requestFrame();
+            }
+        }, maxFps);
+        governor[0].setRefreshRate(refreshRate);
+        governor[0].requestFrame();
+        final int vsyncs = Math.round(refreshRate);
+        for (int i = 1; i <= vsyncs; i++) {
+            mChoreographer.runFrame((long) (i * NANOS_PER_SECOND / refreshRate));
+        }
+        governor[0].cancel();
+        return mFrames;
+    }
+
+    private FrameGovernor.Target countingTarget() {
+        mFrames = 0;
+        return new FrameGovernor.Target() {
+            @Override
+            public void onFrameDue() {
+                mFrames++;
+            }
+        };
+    }
+}
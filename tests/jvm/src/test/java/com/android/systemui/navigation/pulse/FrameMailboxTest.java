@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class FrameMailboxTest {
+    private static final int FRAME_LENGTH = 256;
+    private static final int PUBLISH_COUNT = 2000000;
+
+    @Test
+    public void consumeSeesLatestPublish() {
+        final long[] a = new long[1], b = new long[1], c = new long[1];
+        final FrameMailbox<long[]> mailbox = new FrameMailbox<>(a, b, c);
+        assertNull(mailbox.consume());
+
+        mailbox.getBackFrame()[0] = 1;
+        assertFalse(mailbox.publish());
+        mailbox.getBackFrame()[0] = 2;
+        assertTrue(mailbox.publish());
+        final long[] front = mailbox.consume();
+        assertEquals(2, front[0]);
+        assertNull(mailbox.consume());
+
+        // the producer never gets handed the frame the consumer holds
+        for (int i = 0; i < 10; i++) {
+            final long[] back = mailbox.getBackFrame();
+            assertNotSame(front, back);
+            mailbox.publish();
+        }
+    }
+
+    @Test
+    public void producerAndConsumerNeverShareAFrame() throws Exception {
+        final FrameMailbox<long[]> mailbox = new FrameMailbox<>(
+                new long[FRAME_LENGTH], new long[FRAME_LENGTH], new long[FRAME_LENGTH]);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] dropped = new long[1];
+
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long seq = 1; seq <= PUBLISH_COUNT; seq++) {
+                    final long[] frame = mailbox.getBackFrame();
+                    for (int i = 0; i < FRAME_LENGTH; i++) {
+                        frame[i] = seq;
+                    }
+                    if (mailbox.publish()) {
+                        dropped[0]++;
+                    }
+                }
+            }
+        }, "producer");
+
+        final long[] consumed = new long[1];
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long last = 0;
+                    while (last < PUBLISH_COUNT) {
+                        final long[] frame = mailbox.consume();
+                        if (frame == null) {
+                            continue;
+                        }
+                        final long seq = frame[0];
+                        assertTrue("went back from " + last + " to " + seq, seq > last);
+                        // a torn frame means the producer wrote into it while we held it
+                        for (int i = 1; i < FRAME_LENGTH; i++) {
+                            assertEquals("torn frame " + seq, seq, frame[i]);
+                        }
+                        last = seq;
+                        consumed[0]++;
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "consumer");
+
+        consumer.start();
+        producer.start();
+        producer.join(60000);
+        consumer.join(60000);
+        assertFalse("producer stuck", producer.isAlive());
+        assertFalse("consumer stuck", consumer.isAlive());
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        // every publish was either read or replaced unread, never lost
+        assertEquals(PUBLISH_COUNT, consumed[0] + dropped[0]);
+    }
+}
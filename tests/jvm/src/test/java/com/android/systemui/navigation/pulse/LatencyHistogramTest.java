@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    // a quarter octave bucket
+    private static final double BUCKET_RATIO = Math.pow(2, 0.25);
+
+    @Test
+    public void percentilesLandInTheRightBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final long[] samples = new long[10000];
+        final Random random = new Random(0);
+        for (int i = 0; i < samples.length; i++) {
+            // log uniform from 20us to 50ms
+            samples[i] = (long) (20000 * Math.pow(2500, random.nextDouble()));
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+        assertEquals(samples.length, histogram.getCount());
+        for (float percentile : new float[] { 1, 50, 90, 99, 100 }) {
+            final long exact = samples[(int) Math.ceil(samples.length * percentile / 100) - 1];
+            final long reported = histogram.getPercentileNanos(percentile);
+            assertTrue("p" + percentile + " " + reported + " vs " + exact,
+                    reported >= exact && reported <= exact * BUCKET_RATIO);
+        }
+    }
+
+    @Test
+    public void maxCapsTheTopBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1000000);
+        assertEquals(1000000, histogram.getPercentileNanos(50));
+
+        // beyond the last bucket
+        histogram.record(10 * 1000000000L);
+        assertEquals(10 * 1000000000L, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void resetEmptiesIt() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(5000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+
+        final StringWriter out = new StringWriter();
+        histogram.dump(new PrintWriter(out, true), "  ");
+        assertTrue(out.toString(), out.toString().startsWith("  test: n=0 "));
+    }
+}
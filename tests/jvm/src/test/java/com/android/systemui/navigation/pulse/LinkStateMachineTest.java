@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkStateMachineTest {
+    private static final long DEBOUNCE_MILLIS = 150;
+    private static final int BURST_EVENTS = 50;
+    // well inside the debounce window
+    private static final long EVENT_SPACING_MILLIS = 10;
+    private static final int[] FLAPPING_INPUTS = {
+            LinkStateMachine.INPUT_SCREEN_ON,
+            LinkStateMachine.INPUT_KEYGUARD_HIDDEN,
+            LinkStateMachine.INPUT_UNMUTED,
+            LinkStateMachine.INPUT_VISIBLE
+    };
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private int mLinks;
+    private int mUnlinks;
+    private long mEvents;
+    private LinkStateMachine mMachine;
+
+    @Before
+    public void setUp() {
+        mMachine = new LinkStateMachine(new LinkStateMachine.Actions() {
+            @Override
+            public void link() {
+                mLinks++;
+            }
+
+            @Override
+            public void unlink() {
+                mUnlinks++;
+            }
+        }, mScheduler, DEBOUNCE_MILLIS);
+    }
+
+    @Test
+    public void burstEndingLinkedLinksOnce() {
+        replayBurst(new Random(1), LinkStateMachine.ALL_INPUTS);
+        assertEquals(1, mLinks);
+        assertEquals(0, mUnlinks);
+        assertTrue(mMachine.isLinked());
+        assertCounted();
+    }
+
+    @Test
+    public void burstEndingUnlinkedUnlinksOnce() {
+        settle(LinkStateMachine.ALL_INPUTS);
+        mLinks = 0;
+        replayBurst(new Random(2),
+                LinkStateMachine.ALL_INPUTS & ~LinkStateMachine.INPUT_KEYGUARD_HIDDEN);
+        assertEquals(0, mLinks);
+        assertEquals(1, mUnlinks);
+        assertFalse(mMachine.isLinked());
+        assertCounted();
+    }
+
+    @Test
+    public void burstEndingWhereItStartedDoesNothing() {
+        settle(LinkStateMachine.ALL_INPUTS);
+        mLinks = 0;
+        for (long seed = 0; seed < 20; seed++) {
+            replayBurst(new Random(seed), LinkStateMachine.ALL_INPUTS);
+        }
+        assertEquals(0, mLinks);
+        assertEquals(0, mUnlinks);
+        assertEquals(1, mMachine.getLinkCount());
+        assertCounted();
+    }
+
+    @Test
+    public void onlyRejectedLinkSitsOutTheBurst() {
+        // a validation that timed out is taken up by the next burst
+        settle(LinkStateMachine.ALL_INPUTS);
+        mMachine.onLinkLost();
+        replayBurst(new Random(4), LinkStateMachine.ALL_INPUTS);
+        assertEquals(2, mLinks);
+        assertTrue(mMachine.isLinked());
+
+        // a stream of zeros is not, the same playback would be zeros again
+        mMachine.onLinkRejected();
+        replayBurst(new Random(4), LinkStateMachine.ALL_INPUTS);
+        assertEquals(2, mLinks);
+        assertFalse(mMachine.isLinked());
+        assertEquals(0, mUnlinks);
+        assertCounted();
+    }
+
+    @Test
+    public void settledChangesEachApply() {
+        settle(LinkStateMachine.ALL_INPUTS);
+        settle(0);
+        settle(LinkStateMachine.ALL_INPUTS);
+        assertEquals(2, mLinks);
+        assertEquals(1, mUnlinks);
+        assertEquals(0, mMachine.getAbsorbedCount());
+    }
+
+    @Test
+    public void rejectedLinkWaitsForPlaybackToRestart() {
+        settle(LinkStateMachine.ALL_INPUTS);
+        mMachine.onLinkRejected();
+        assertFalse(mMachine.isLinked());
+
+        // the same playback keeps reporting, it must not relink
+        for (int i = 0; i < 10; i++) {
+            settle(LinkStateMachine.ALL_INPUTS);
+        }
+        replayBurst(new Random(3), LinkStateMachine.ALL_INPUTS);
+        assertEquals(1, mLinks);
+        assertFalse(mMachine.isLinkWanted());
+
+        settle(LinkStateMachine.ALL_INPUTS & ~LinkStateMachine.INPUT_MEDIA_PLAYING);
+        assertEquals(0, mUnlinks);
+        settle(LinkStateMachine.ALL_INPUTS);
+        assertEquals(2, mLinks);
+        assertTrue(mMachine.isLinked());
+        assertCounted();
+    }
+
+    @Test
+    public void rejectedLinkAbsorbsPendingUnlink() {
+        settle(LinkStateMachine.ALL_INPUTS);
+        setInputs(0);
+        mMachine.onLinkRejected();
+        mScheduler.advance(DEBOUNCE_MILLIS * 2);
+        assertEquals(0, mUnlinks);
+        assertCounted();
+    }
+
+    /**
+     * BURST_EVENTS flaps of random inputs, then the final inputs, all
+     * inside one debounce window, then time enough for it to settle
+     */
+    private void replayBurst(Random random, int finalInputs) {
+        int inputs = finalInputs;
+        for (int i = 0; i < BURST_EVENTS - 1; i++) {
+            inputs ^= FLAPPING_INPUTS[random.nextInt(FLAPPING_INPUTS.length)];
+            setInputs(inputs);
+            mScheduler.advance(EVENT_SPACING_MILLIS);
+        }
+        settle(finalInputs);
+    }
+
+    private void settle(int inputs) {
+        setInputs(inputs);
+        mScheduler.advance(DEBOUNCE_MILLIS * 2);
+        assertFalse(mMachine.isPending());
+    }
+
+    private void setInputs(int inputs) {
+        mEvents++;
+        mMachine.setInputs(inputs);
+    }
+
+    // every event either made a transition or was absorbed
+    private void assertCounted() {
+        assertEquals(mEvents, mMachine.getLinkCount() + mMachine.getUnlinkCount()
+                + mMachine.getAbsorbedCount());
+    }
+
+    private final class ManualScheduler implements LinkStateMachine.Scheduler {
+        private final List<Runnable> mRunnables = new ArrayList<>();
+        private final List<Long> mTimes = new ArrayList<>();
+        private long mNow;
+
+        @Override
+        public void postDelayed(Runnable r, long delayMillis) {
+            mRunnables.add(r);
+            mTimes.add(mNow + delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            for (int i = mRunnables.size() - 1; i >= 0; i--) {
+                if (mRunnables.get(i) == r) {
+                    mRunnables.remove(i);
+                    mTimes.remove(i);
+                }
+            }
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+
+        void advance(long millis) {
+            final long end = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTimes.size(); i++) {
+                    if (mTimes.get(i) <= end && (next < 0 || mTimes.get(i) < mTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = mTimes.remove(next);
+                mRunnables.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+}
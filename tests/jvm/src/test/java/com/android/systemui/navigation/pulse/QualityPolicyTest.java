@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QualityPolicyTest {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    @Test
+    public void eachInputOnlyLowersTheTier() {
+        final QualityPolicy policy = new QualityPolicy(0);
+        assertFalse(policy.update(0));
+        assertEquals(QualityPolicy.TIER_FULL, policy.getTier());
+
+        policy.setBrightness(0.05f);
+        assertTrue(policy.update(0));
+        assertEquals(QualityPolicy.TIER_REDUCED, policy.getTier());
+
+        policy.setThermalStatus(QualityPolicy.THERMAL_SEVERE);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_MINIMAL, policy.getTier());
+
+        // the brighter panel doesn't lift a tier the heat holds down
+        policy.setBrightness(1f);
+        assertFalse(policy.update(0));
+        policy.setThermalStatus(QualityPolicy.THERMAL_MODERATE);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_REDUCED, policy.getTier());
+
+        policy.setThermalStatus(QualityPolicy.THERMAL_NONE);
+        policy.setPowerSave(true);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_MINIMAL, policy.getTier());
+        assertFalse(policy.isSmoothingAllowed());
+    }
+
+    @Test
+    public void batteryTierHasHysteresis() {
+        final QualityPolicy policy = new QualityPolicy(0);
+        final int[] levels = { 100, 31, 30, 33, 35, 16, 15, 19, 20, 34, 35 };
+        final int[] tiers = {
+                QualityPolicy.TIER_FULL, QualityPolicy.TIER_FULL, QualityPolicy.TIER_REDUCED,
+                QualityPolicy.TIER_REDUCED, QualityPolicy.TIER_FULL, QualityPolicy.TIER_REDUCED,
+                QualityPolicy.TIER_MINIMAL, QualityPolicy.TIER_MINIMAL,
+                QualityPolicy.TIER_REDUCED, QualityPolicy.TIER_REDUCED, QualityPolicy.TIER_FULL
+        };
+        for (int i = 0; i < levels.length; i++) {
+            policy.setBattery(levels[i], false);
+            policy.update(0);
+            assertEquals("battery " + levels[i], tiers[i], policy.getTier());
+        }
+        policy.setBattery(5, true);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_FULL, policy.getTier());
+    }
+
+    @Test
+    public void batteryHysteresisIgnoresOtherCauses() {
+        final QualityPolicy policy = new QualityPolicy(0);
+        // inside the low battery margin, but the battery never lowered the tier
+        policy.setBattery(32, false);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_FULL, policy.getTier());
+        policy.setThermalStatus(QualityPolicy.THERMAL_MODERATE);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_REDUCED, policy.getTier());
+        policy.setThermalStatus(QualityPolicy.THERMAL_NONE);
+        assertTrue(policy.update(0));
+        assertEquals(QualityPolicy.TIER_FULL, policy.getTier());
+
+        // inside the critical margin, only the battery's own tier is held
+        policy.setBattery(17, false);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_REDUCED, policy.getTier());
+        policy.setPowerSave(true);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_MINIMAL, policy.getTier());
+        policy.setPowerSave(false);
+        policy.update(0);
+        assertEquals(QualityPolicy.TIER_REDUCED, policy.getTier());
+    }
+
+    @Test
+    public void capsFollowTheTier() {
+        final QualityPolicy policy = new QualityPolicy(0);
+        assertEquals(0, policy.getCaptureRateCap());
+        assertEquals(0, policy.getFrameRateCap());
+        policy.setPowerSave(true);
+        policy.update(0);
+        assertEquals(5000, policy.getCaptureRateCap());
+        assertEquals(20, policy.getFrameRateCap());
+        assertEquals(4, QualityPolicy.getBarDivisor(policy.getTier()));
+
+        // 20Hz capture and 60fps drawing at full, 5Hz and 20fps here
+        assertEquals(15 * 100000 + 40 * 1000000,
+                policy.estimateSavedNanosPerSecond(20f, 60f, 100000, 1000000));
+    }
+
+    @Test
+    public void timeInTierAddsUp() {
+        final QualityPolicy policy = new QualityPolicy(0);
+        policy.setPowerSave(true);
+        policy.update(3 * NANOS_PER_SECOND);
+        policy.setPowerSave(false);
+        policy.update(5 * NANOS_PER_SECOND);
+        final long now = 10 * NANOS_PER_SECOND;
+        assertEquals(8 * NANOS_PER_SECOND,
+                policy.getTimeInTierNanos(QualityPolicy.TIER_FULL, now));
+        assertEquals(2 * NANOS_PER_SECOND,
+                policy.getTimeInTierNanos(QualityPolicy.TIER_MINIMAL, now));
+        assertEquals(0, policy.getTimeInTierNanos(QualityPolicy.TIER_REDUCED, now));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RenderPlanTest {
+    private static final int[] BIN_COUNTS = { 64, 128, 256, 512 };
+    private static final int[] BAR_COUNTS = { 2, 3, 8, 16, 31, 32, 64, 600 };
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void logBarsCoverEveryBinOnce() {
+        final RenderPlan plan = new RenderPlan();
+        for (int bins : BIN_COUNTS) {
+            for (int bars : BAR_COUNTS) {
+                plan.setBins(bins, 0, bars, 0, RenderPlan.MAPPING_LOG);
+                final String what = bins + " bins, " + bars + " bars";
+                assertEquals(what, Math.min(bars, bins - 1), plan.getBarCount());
+                // bin 0 is DC, everything after it belongs to exactly one bar
+                int next = 1;
+                for (int i = 0; i < plan.getBarCount(); i++) {
+                    assertEquals(what + ", gap or overlap at bar " + i, next, plan.getBinStart(i));
+                    assertTrue(what + ", empty bar " + i, plan.getBinEnd(i) > plan.getBinStart(i));
+                    next = plan.getBinEnd(i);
+                }
+                assertEquals(what, bins, next);
+            }
+        }
+    }
+
+    @Test
+    public void logBarsWidenWithFrequency() {
+        final RenderPlan plan = new RenderPlan();
+        plan.setBins(512, 0, 16, 0, RenderPlan.MAPPING_LOG);
+        for (int i = 1; i < plan.getBarCount(); i++) {
+            assertTrue("bar " + i, width(plan, i) >= width(plan, i - 1));
+        }
+    }
+
+    @Test
+    public void linearBarsAreSingleBinsInRange() {
+        final RenderPlan plan = new RenderPlan();
+        for (int bins : BIN_COUNTS) {
+            for (int stride = 1; stride <= 8; stride++) {
+                plan.setBins(bins, stride, 64, stride, RenderPlan.MAPPING_LINEAR);
+                assertEquals(Math.min(64, (bins - stride) / stride), plan.getBarCount());
+                for (int i = 0; i < plan.getBarCount(); i++) {
+                    assertEquals(stride + i * stride, plan.getBinStart(i));
+                    assertEquals(plan.getBinStart(i) + 1, plan.getBinEnd(i));
+                    assertTrue(plan.getBinEnd(i) <= bins);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void filledLayoutSpansTheLength() {
+        final RenderPlan plan = new RenderPlan();
+        final float length = 1080f;
+        for (int bars : new int[] { 1, 2, 16, 64 }) {
+            plan.setBins(512, 0, bars, 1, RenderPlan.MAPPING_LINEAR);
+            plan.setBaseline(100f, -1);
+            plan.layoutFilled(false, length);
+            final float[] lines = plan.getLines();
+            final float half = plan.getStrokeWidth() / 2;
+            assertEquals(half, lines[0], EPSILON);
+            if (bars > 1) {
+                assertEquals(length - half, lines[(bars - 1) * 4], EPSILON);
+            }
+            for (int j = 0; j < bars * 4; j += 4) {
+                assertEquals(lines[j], lines[j + 2], 0f);
+                assertEquals(100f, lines[j + 1], 0f);
+                assertEquals(100f, lines[j + 3], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void gainShiftsLevelsButNeverBelowZero() {
+        final RenderPlan plan = new RenderPlan();
+        plan.setBins(4, 0, 4, 1, RenderPlan.MAPPING_LINEAR);
+        plan.layoutSpaced(false, 10f);
+        plan.setBaseline(0f, 1);
+        plan.setScale(1f, 0f);
+        final float[] magnitudes = { 30f, 12.5f, 6f, 0f };
+        final float[] targets = new float[4];
+
+        plan.fillTargets(magnitudes, targets);
+        assertEquals(30f, targets[0], 0f);
+        assertEquals(12f, targets[1], 0f);
+
+        // what FadingBlockRenderer sets for a 64 bin capture
+        plan.setGain((float) (10 * Math.log10(64 / 512.0)));
+        plan.fillTargets(magnitudes, targets);
+        assertEquals(20f, targets[0], 0f);
+        assertEquals(3f, targets[1], 0f);
+        assertEquals(0f, targets[2], 0f);
+        assertEquals(0f, targets[3], 0f);
+    }
+
+    @Test
+    public void headsFollowTheLoudestBin() {
+        final RenderPlan plan = new RenderPlan();
+        plan.setBins(8, 0, 2, 0, RenderPlan.MAPPING_LOG);
+        plan.layoutSpaced(true, 10f);
+        plan.setBaseline(50f, 1);
+        plan.setScale(2f, 1f);
+        final float[] magnitudes = { 99f, 3.9f, 7.5f, 1f, 2f, 12.7f, 0f, 4f };
+        plan.fillLines(magnitudes);
+        final float[] targets = new float[2];
+        plan.fillTargets(magnitudes, targets);
+
+        final float[] lines = plan.getLines();
+        for (int i = 0; i < 2; i++) {
+            int loudest = 0;
+            for (int k = plan.getBinStart(i); k < plan.getBinEnd(i); k++) {
+                loudest = Math.max(loudest, (int) magnitudes[k]);
+            }
+            final float head = 50f + loudest * 2f + 1f;
+            assertEquals(i * 10f, lines[i * 4 + 1], 0f);
+            assertEquals(head, lines[i * 4 + 2], 0f);
+            assertEquals(head, targets[i], 0f);
+        }
+    }
+
+    private static int width(RenderPlan plan, int bar) {
+        return plan.getBinEnd(bar) - plan.getBinStart(bar);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SilenceMonitorTest {
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long HOLD_NANOS = 1000 * NANOS_PER_MILLI;
+    // one capture at 15 captures a second
+    private static final long FRAME_NANOS = 1000000000L / SyntheticCapture.DEF_FRAME_RATE;
+
+    @Test
+    public void gapsLongerThanHoldAreSilent() throws IOException {
+        final SilenceMonitor monitor = new SilenceMonitor(SilenceMonitor.DEF_SILENCE_POWER,
+                SilenceMonitor.DEF_SOUND_POWER, HOLD_NANOS);
+        final List<Long> changes = replay(monitor, "gaps.plsc");
+
+        // gaps at 0-1.5s and 3-4.5s, silent a hold after each starts,
+        // awake again on the first frame of sound after it
+        assertEquals(4, changes.size());
+        assertNear(HOLD_NANOS, changes.get(0));
+        assertNear(1500 * NANOS_PER_MILLI, changes.get(1));
+        assertNear(3000 * NANOS_PER_MILLI + HOLD_NANOS, changes.get(2));
+        assertNear(4500 * NANOS_PER_MILLI, changes.get(3));
+        assertFalse(monitor.isSilent());
+        assertEquals(2, monitor.getEpisodeCount());
+        assertNear(2 * (1500 * NANOS_PER_MILLI - HOLD_NANOS), monitor.getSilentNanos());
+    }
+
+    @Test
+    public void gapsShorterThanHoldAreIgnored() throws IOException {
+        final SilenceMonitor monitor = new SilenceMonitor();
+        assertTrue(replay(monitor, "gaps.plsc").isEmpty());
+        assertEquals(0, monitor.getEpisodeCount());
+    }
+
+    @Test
+    public void musicAndNoiseNeverGoSilent() throws IOException {
+        for (String name : new String[] { "music.plsc", "noise.plsc" }) {
+            final SilenceMonitor monitor = new SilenceMonitor(SilenceMonitor.DEF_SILENCE_POWER,
+                    SilenceMonitor.DEF_SOUND_POWER, 0);
+            assertTrue(name, replay(monitor, name).isEmpty());
+        }
+    }
+
+    @Test
+    public void quietMusicNeverGoesSilent() throws IOException {
+        // the tail of each note fades to nothing, the next one is never a hold away
+        final SilenceMonitor monitor = new SilenceMonitor();
+        assertTrue(replay(monitor, "quiet.plsc").isEmpty());
+    }
+
+    @Test
+    public void levelsBetweenThresholdsKeepTheState() {
+        final SilenceMonitor monitor = new SilenceMonitor(SilenceMonitor.DEF_SILENCE_POWER,
+                SilenceMonitor.DEF_SOUND_POWER, HOLD_NANOS);
+        // every bin at re = im = 1, power 2: over silence, under sound
+        final byte[] between = new byte[1024];
+        Arrays.fill(between, (byte) 1);
+        final byte[] silence = new byte[1024];
+
+        long now = FRAME_NANOS;
+        for (int i = 0; i < 60; i++, now += FRAME_NANOS) {
+            assertFalse(monitor.onFrame(between, now));
+        }
+        assertFalse(monitor.isSilent());
+
+        for (; !monitor.onFrame(silence, now); now += FRAME_NANOS) {
+        }
+        assertTrue(monitor.isSilent());
+        for (int i = 0; i < 60; i++, now += FRAME_NANOS) {
+            assertFalse(monitor.onFrame(between, now));
+        }
+        assertTrue(monitor.isSilent());
+
+        monitor.reset(now);
+        assertFalse(monitor.isSilent());
+        assertEquals(1, monitor.getEpisodeCount());
+    }
+
+    /**
+     * @return capture times, relative to the first frame, of every state change
+     */
+    private static List<Long> replay(SilenceMonitor monitor, String name) throws IOException {
+        final List<Long> changes = new ArrayList<>();
+        for (CaptureFile.Frame frame : Captures.fftFrames(Captures.load(name))) {
+            // SilenceMonitor treats 0 as "not yet", real capture times never are
+            final long now = frame.timeNanos + FRAME_NANOS;
+            if (monitor.onFrame(frame.data, now)) {
+                changes.add(now - FRAME_NANOS);
+            }
+        }
+        return changes;
+    }
+
+    // gap edges fall between captures, allow one capture either side
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected " + expected + " got " + actual,
+                Math.abs(expected - actual) <= 2 * FRAME_NANOS);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SpectrumMultiplexerTest {
+    private static final int[] SUBSCRIBER_COUNTS = { 1, 2, 4, 16, 64 };
+
+    @Test
+    public void dspRunsOncePerCaptureWhateverTheSubscribers() throws IOException {
+        final List<CaptureFile.Frame> captures =
+                Captures.fftFrames(Captures.load("music.plsc"));
+        for (int n : SUBSCRIBER_COUNTS) {
+            final SpectrumMultiplexer multiplexer = new SpectrumMultiplexer();
+            final List<FakeSubscriber> subscribers = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                final FakeSubscriber subscriber = new FakeSubscriber(0, 0);
+                subscribers.add(subscriber);
+                assertTrue(multiplexer.add(subscriber));
+            }
+
+            // the upstream half of PulseDspThread, then the main thread fan out
+            final CountingProcessor processor = new CountingProcessor();
+            final SpectrumSmoother smoother = new SpectrumSmoother();
+            final SpectrumFrame frame = new SpectrumFrame();
+            for (CaptureFile.Frame capture : captures) {
+                processor.process(capture.data, capture.timeNanos, frame);
+                smoother.apply(frame);
+                multiplexer.dispatchFFTUpdate(frame);
+            }
+
+            assertEquals(n + " subscribers", captures.size(), processor.calls);
+            assertEquals(captures.size(), multiplexer.getFramesDispatched());
+            assertEquals((long) captures.size() * n, multiplexer.getDeliveries());
+            for (FakeSubscriber subscriber : subscribers) {
+                assertEquals(captures.size(), subscriber.frames);
+                // one shared frame, nobody gets a copy
+                assertSame(frame, subscriber.lastFrame);
+            }
+        }
+    }
+
+    @Test
+    public void needsAreTheUnionOfSubscribers() {
+        final SpectrumMultiplexer multiplexer = new SpectrumMultiplexer();
+        assertEquals(0, multiplexer.getRequiredBins());
+        multiplexer.add(new FakeSubscriber(64, 20000));
+        multiplexer.add(new FakeSubscriber(128, 10000));
+        assertEquals(128, multiplexer.getRequiredBins());
+        assertEquals(20000, multiplexer.getRequiredCaptureRate());
+
+        // 0 asks for the most the source gives and beats any number
+        final FakeSubscriber greedy = new FakeSubscriber(0, 0);
+        multiplexer.add(greedy);
+        assertEquals(0, multiplexer.getRequiredBins());
+        assertEquals(0, multiplexer.getRequiredCaptureRate());
+        multiplexer.remove(greedy);
+        assertEquals(128, multiplexer.getRequiredBins());
+    }
+
+    @Test
+    public void subscribersAreAddedOnce() {
+        final SpectrumMultiplexer multiplexer = new SpectrumMultiplexer();
+        final FakeSubscriber subscriber = new FakeSubscriber(0, 0);
+        assertTrue(multiplexer.add(subscriber));
+        assertFalse(multiplexer.add(subscriber));
+        multiplexer.dispatchStreamAnalyzed(true);
+        multiplexer.dispatchVisualizerLinkChanged(true);
+        assertEquals(1, subscriber.events);
+        assertEquals(1, subscriber.links);
+        assertTrue(multiplexer.remove(subscriber));
+        assertFalse(multiplexer.remove(subscriber));
+        assertTrue(multiplexer.isEmpty());
+    }
+
+    private static final class CountingProcessor extends SpectrumProcessor {
+        int calls;
+
+        @Override
+        public SpectrumFrame process(byte[] fft, long captureTimeNanos, SpectrumFrame out) {
+            calls++;
+            return super.process(fft, captureTimeNanos, out);
+        }
+    }
+
+    private static final class FakeSubscriber implements SpectrumMultiplexer.Subscriber {
+        private final int mBins;
+        private final int mRate;
+        int frames;
+        int events;
+        int links;
+        SpectrumFrame lastFrame;
+
+        FakeSubscriber(int bins, int rate) {
+            mBins = bins;
+            mRate = rate;
+        }
+
+        @Override
+        public void onStreamAnalyzed(boolean isValid) {
+            events++;
+        }
+
+        @Override
+        public void onVisualizerLinkChanged(boolean linked) {
+            links++;
+        }
+
+        @Override
+        public void onFFTUpdate(SpectrumFrame frame) {
+            frames++;
+            lastFrame = frame;
+        }
+
+        @Override
+        public void onWaveFormUpdate(WaveformFrame frame) {
+        }
+
+        @Override
+        public int getWaveformColumns() {
+            return 0;
+        }
+
+        @Override
+        public int getRequiredBins() {
+            return mBins;
+        }
+
+        @Override
+        public int getRequiredCaptureRate() {
+            return mRate;
+        }
+    }
+}
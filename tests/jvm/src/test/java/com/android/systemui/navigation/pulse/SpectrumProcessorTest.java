@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class SpectrumProcessorTest {
+    private static final float TOLERANCE_DB = 1e-4f;
+
+    @Test
+    public void everyByteMatchesLog10() {
+        final SpectrumProcessor processor = new SpectrumProcessor();
+        final SpectrumFrame frame = new SpectrumFrame();
+        final byte[] fft = new byte[2];
+        for (int re = Byte.MIN_VALUE; re <= Byte.MAX_VALUE; re++) {
+            for (int im = Byte.MIN_VALUE; im <= Byte.MAX_VALUE; im++) {
+                fft[0] = (byte) re;
+                fft[1] = (byte) im;
+                processor.process(fft, 0, frame);
+                final int power = re * re + im * im;
+                final float expected = power > 0 ? (float) (10 * Math.log10(power)) : 0f;
+                assertEquals("re=" + re + " im=" + im, expected, frame.getMagnitudes()[0],
+                        TOLERANCE_DB);
+            }
+        }
+    }
+
+    @Test
+    public void binsReadBytePairs() {
+        final byte[] fft = { 0, 0, 3, 4, -6, 8, 1, 0 };
+        final SpectrumFrame frame = new SpectrumProcessor().process(fft, 42, new SpectrumFrame());
+        assertEquals(4, frame.getBinCount());
+        assertEquals(42, frame.getCaptureTimeNanos());
+        final float[] magnitudes = frame.getMagnitudes();
+        assertEquals(0f, magnitudes[0], 0f);
+        assertEquals(10 * Math.log10(25), magnitudes[1], TOLERANCE_DB);
+        assertEquals(10 * Math.log10(100), magnitudes[2], TOLERANCE_DB);
+        assertEquals(0f, magnitudes[3], 0f);
+    }
+
+    @Test
+    public void frameIsReusedAcrossCaptureSizes() {
+        final SpectrumProcessor processor = new SpectrumProcessor();
+        final SpectrumFrame frame = new SpectrumFrame();
+        processor.process(new byte[1024], 0, frame);
+        final float[] magnitudes = frame.getMagnitudes();
+        assertEquals(512, frame.getBinCount());
+
+        assertSame(frame, processor.process(new byte[128], 0, frame));
+        assertEquals(64, frame.getBinCount());
+        assertSame(magnitudes, frame.getMagnitudes());
+    }
+}
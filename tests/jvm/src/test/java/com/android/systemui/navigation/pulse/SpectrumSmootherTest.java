@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SpectrumSmootherTest {
+    private static final int BINS = 8;
+    private static final float STEP_DB = 10f;
+    private static final float TOLERANCE_DB = 1e-4f;
+
+    @Test
+    public void movingAverageRampsOverWindow() {
+        for (int window = 1; window <= 8; window++) {
+            final SpectrumSmoother smoother = new SpectrumSmoother();
+            smoother.setWindowLength(window);
+            for (int i = 0; i < window; i++) {
+                assertLevel(0f, apply(smoother, 0f));
+            }
+            for (int k = 1; k <= window; k++) {
+                assertLevel(STEP_DB * k / window, apply(smoother, STEP_DB));
+            }
+            assertLevel(STEP_DB, apply(smoother, STEP_DB));
+        }
+    }
+
+    @Test
+    public void attackReleaseIsOnePole() {
+        final float attack = 0.6f;
+        final float release = 0.2f;
+        final SpectrumSmoother smoother = new SpectrumSmoother();
+        smoother.setMode(SpectrumSmoother.MODE_ATTACK_RELEASE);
+        smoother.setAttackRelease(attack, release);
+        assertLevel(0f, apply(smoother, 0f));
+        for (int k = 1; k <= 10; k++) {
+            assertLevel(STEP_DB * (1f - (float) Math.pow(1f - attack, k)),
+                    apply(smoother, STEP_DB));
+        }
+        smoother.reset();
+        assertLevel(STEP_DB, apply(smoother, STEP_DB));
+        for (int k = 1; k <= 10; k++) {
+            assertLevel(STEP_DB * (float) Math.pow(1f - release, k), apply(smoother, 0f));
+        }
+    }
+
+    @Test
+    public void peakHoldsThenDecays() {
+        final int hold = 3;
+        final float decay = 1.5f;
+        final SpectrumSmoother smoother = new SpectrumSmoother();
+        smoother.setMode(SpectrumSmoother.MODE_PEAK_HOLD);
+        smoother.setPeakHold(hold, decay);
+        assertLevel(STEP_DB, apply(smoother, STEP_DB));
+        for (int k = 0; k < hold; k++) {
+            assertLevel(STEP_DB, apply(smoother, 0f));
+        }
+        for (int k = 1; k <= 4; k++) {
+            assertLevel(STEP_DB - decay * k, apply(smoother, 0f));
+        }
+        // a new peak is taken at once and holds again
+        assertLevel(STEP_DB, apply(smoother, STEP_DB));
+        assertLevel(STEP_DB, apply(smoother, 0f));
+    }
+
+    @Test
+    public void resetPassesNextFrameThrough() {
+        final SpectrumSmoother smoother = new SpectrumSmoother();
+        smoother.setWindowLength(4);
+        apply(smoother, STEP_DB);
+        apply(smoother, STEP_DB);
+        smoother.reset();
+        assertLevel(0f, apply(smoother, 0f));
+    }
+
+    @Test
+    public void applyDoesNotAllocateOnceWarm() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final int[] modes = {
+                SpectrumSmoother.MODE_MOVING_AVERAGE,
+                SpectrumSmoother.MODE_ATTACK_RELEASE,
+                SpectrumSmoother.MODE_PEAK_HOLD
+        };
+        final SpectrumFrame[] frames = pinkNoiseFrames();
+        final SpectrumFrame frame = new SpectrumFrame();
+        frame.ensureCapacity(frames[0].getBinCount());
+        for (int mode : modes) {
+            final SpectrumSmoother smoother = new SpectrumSmoother();
+            smoother.setMode(mode);
+            final int iterations = 10000;
+            run(smoother, frames, frame, iterations);
+            final long before = threads.getThreadAllocatedBytes(thread);
+            run(smoother, frames, frame, iterations);
+            final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            // the smallest object is 16 bytes, so one per call would be far over this
+            assertTrue("mode " + mode + " allocated " + allocated + " bytes",
+                    allocated < iterations);
+        }
+    }
+
+    private static void run(SpectrumSmoother smoother, SpectrumFrame[] frames,
+            SpectrumFrame frame, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            final SpectrumFrame source = frames[i % frames.length];
+            System.arraycopy(source.getMagnitudes(), 0, frame.getMagnitudes(), 0,
+                    source.getBinCount());
+            smoother.apply(frame);
+        }
+    }
+
+    private static SpectrumFrame[] pinkNoiseFrames() {
+        final SpectrumProcessor processor = new SpectrumProcessor();
+        final List<SpectrumFrame> frames = new ArrayList<>();
+        for (CaptureFile.Frame capture : SyntheticCapture.pinkNoise(2f, 0).getFrames()) {
+            if (capture.type == CaptureFile.FRAME_FFT) {
+                frames.add(processor.process(capture.data, 0, new SpectrumFrame()));
+            }
+        }
+        return frames.toArray(new SpectrumFrame[frames.size()]);
+    }
+
+    private static float[] apply(SpectrumSmoother smoother, float level) {
+        final SpectrumFrame frame = new SpectrumFrame();
+        frame.ensureCapacity(BINS);
+        Arrays.fill(frame.getMagnitudes(), level);
+        smoother.apply(frame);
+        return frame.getMagnitudes();
+    }
+
+    private static void assertLevel(float expected, float[] magnitudes) {
+        for (int i = 0; i < BINS; i++) {
+            assertEquals(expected, magnitudes[i], TOLERANCE_DB);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamValidatorTest {
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long FRAME_NANOS = 1000000000L / SyntheticCapture.DEF_FRAME_RATE;
+
+    @Test
+    public void musicIsValidOnTheFirstFrame() throws IOException {
+        assertEquals(0, firstValid(Captures.fftFrames(Captures.load("music.plsc"))));
+    }
+
+    @Test
+    public void noiseIsValidOnTheFirstFrame() throws IOException {
+        assertEquals(0, firstValid(Captures.fftFrames(Captures.load("noise.plsc"))));
+    }
+
+    @Test
+    public void quietMusicIsValidOnEveryNote() throws IOException {
+        final List<CaptureFile.Frame> frames = Captures.fftFrames(Captures.load("quiet.plsc"));
+        final int noteFrames = SyntheticCapture.DEF_FRAME_RATE / 2;
+        // linked anywhere, even deep in a fading tail, the next note is enough
+        for (int start = 0; start < frames.size() - noteFrames; start++) {
+            final int first = firstValid(frames.subList(start, frames.size()));
+            assertTrue("linked at frame " + start, first >= 0 && first <= noteFrames);
+        }
+    }
+
+    @Test
+    public void hissIsAcceptedAtTheTimeout() throws IOException {
+        final List<CaptureFile.Frame> hiss =
+                Captures.attenuate(Captures.fftFrames(Captures.load("noise.plsc")), 16);
+        final StreamValidator validator = new StreamValidator();
+        long now = 0;
+        // loop the capture well past both reject windows
+        for (int pass = 0; pass < 5; pass++) {
+            for (CaptureFile.Frame frame : hiss) {
+                assertEquals(StreamValidator.RESULT_PENDING, validator.onFrame(frame.data, now));
+                now += FRAME_NANOS;
+            }
+        }
+        // too quiet to call on a frame, but not zero either
+        assertEquals(StreamValidator.RESULT_VALID, validator.onTimeout());
+    }
+
+    @Test
+    public void constantPatternIsNeverValid() {
+        final byte[] stuck = new byte[1024];
+        Arrays.fill(stuck, (byte) 40);
+        final StreamValidator validator = new StreamValidator();
+        for (int i = 0; i < 30; i++) {
+            assertEquals(StreamValidator.RESULT_PENDING, validator.onFrame(stuck, i * FRAME_NANOS));
+        }
+    }
+
+    @Test
+    public void silentStartIsGivenTheWholeWindow() throws IOException {
+        // gaps.plsc opens on 1.5s of digital silence, like a buffering player
+        final List<CaptureFile.Frame> frames = Captures.fftFrames(Captures.load("gaps.plsc"));
+        final int first = firstValid(frames);
+        assertEquals(1500 * NANOS_PER_MILLI, frames.get(first).timeNanos, 2 * FRAME_NANOS);
+
+        // and a start that stays silent is only rejected once the window is up
+        final StreamValidator validator = new StreamValidator();
+        final byte[] silence = new byte[1024];
+        long now = 0;
+        for (; now < StreamValidator.DEF_ZERO_REJECT_NANOS; now += FRAME_NANOS) {
+            assertEquals(StreamValidator.RESULT_PENDING, validator.onFrame(silence, now));
+        }
+        assertEquals(StreamValidator.RESULT_INVALID, validator.onFrame(silence, now));
+    }
+
+    @Test
+    public void onlyZerosAreRejectedAtTheTimeout() {
+        final StreamValidator validator = new StreamValidator();
+        assertEquals(StreamValidator.RESULT_PENDING, validator.onTimeout());
+        final byte[] silence = new byte[1024];
+        validator.onFrame(silence, 0);
+        assertEquals(StreamValidator.RESULT_INVALID, validator.onTimeout());
+        // one low bin is still a signal
+        final byte[] faint = new byte[1024];
+        faint[40] = 1;
+        validator.onFrame(faint, FRAME_NANOS);
+        assertEquals(StreamValidator.RESULT_PENDING, validator.onFrame(silence, 2 * FRAME_NANOS));
+        assertEquals(StreamValidator.RESULT_VALID, validator.onTimeout());
+    }
+
+    @Test
+    public void lostSignalIsRejectedEarly() throws IOException {
+        final List<CaptureFile.Frame> hiss =
+                Captures.attenuate(Captures.fftFrames(Captures.load("noise.plsc")), 16);
+        final StreamValidator validator = new StreamValidator();
+        long now = 0;
+        for (CaptureFile.Frame frame : hiss) {
+            validator.onFrame(frame.data, now);
+            now += FRAME_NANOS;
+        }
+        final long lastData = now - FRAME_NANOS;
+        final byte[] silence = new byte[1024];
+        for (; now - lastData < StreamValidator.DEF_LOST_REJECT_NANOS; now += FRAME_NANOS) {
+            assertEquals(StreamValidator.RESULT_PENDING, validator.onFrame(silence, now));
+        }
+        assertEquals(StreamValidator.RESULT_INVALID, validator.onFrame(silence, now));
+        // well before a silent start would be
+        assertTrue(now < StreamValidator.DEF_ZERO_REJECT_NANOS);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        final StreamValidator validator = new StreamValidator();
+        final byte[] silence = new byte[1024];
+        validator.onFrame(new byte[] { 0, 0, 50, 50 }, 0);
+        validator.reset();
+        // a lost signal from the last stream doesn't carry over
+        assertEquals(StreamValidator.RESULT_PENDING,
+                validator.onFrame(silence, StreamValidator.DEF_LOST_REJECT_NANOS * 2));
+        assertEquals(1, validator.getFrameCount());
+    }
+
+    /**
+     * @return index of the first frame a fresh validator accepts, -1 if none
+     */
+    private static int firstValid(List<CaptureFile.Frame> frames) {
+        final StreamValidator validator = new StreamValidator();
+        for (int i = 0; i < frames.size(); i++) {
+            final CaptureFile.Frame frame = frames.get(i);
+            final int result = validator.onFrame(frame.data, frame.timeNanos);
+            if (result == StreamValidator.RESULT_VALID) {
+                return i;
+            }
+            assertEquals(StreamValidator.RESULT_PENDING, result);
+        }
+        return -1;
+    }
+}
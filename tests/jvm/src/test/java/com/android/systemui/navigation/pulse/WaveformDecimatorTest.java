@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WaveformDecimatorTest {
+    private static final int[] CAPTURE_SIZES = { 128, 256, 512, 1024 };
+    private static final int[] COLUMN_COUNTS = { 1, 7, 64, 100, 270, 1080 };
+
+    @Test
+    public void everyColumnHoldsItsExtremes() {
+        final Random random = new Random(0);
+        final WaveformDecimator decimator = new WaveformDecimator();
+        final WaveformFrame frame = new WaveformFrame();
+        for (int size : CAPTURE_SIZES) {
+            final byte[] waveform = new byte[size];
+            random.nextBytes(waveform);
+            for (int columns : COLUMN_COUNTS) {
+                decimator.setColumns(columns);
+                decimator.decimate(waveform, 0, frame);
+                final int expected = Math.min(columns, size);
+                assertEquals(expected, frame.getColumnCount());
+                for (int c = 0; c < expected; c++) {
+                    // the column's own run, plus the last sample before it
+                    final int start = (int) ((long) c * size / expected);
+                    final int end = (int) ((long) (c + 1) * size / expected);
+                    int lo = waveform[Math.max(0, start - 1)] & 0xff;
+                    int hi = lo;
+                    for (int i = start; i < end; i++) {
+                        lo = Math.min(lo, waveform[i] & 0xff);
+                        hi = Math.max(hi, waveform[i] & 0xff);
+                    }
+                    final String what = size + " samples, column " + c + "/" + expected;
+                    assertEquals(what, (lo - 128) / 128f, frame.getMin()[c], 0f);
+                    assertEquals(what, (hi - 128) / 128f, frame.getMax()[c], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singleSampleSpikeSurvives() {
+        final WaveformDecimator decimator = new WaveformDecimator();
+        final WaveformFrame frame = new WaveformFrame();
+        final byte[] waveform = new byte[1024];
+        for (int spike = 0; spike < waveform.length; spike += 37) {
+            Arrays.fill(waveform, (byte) 128);
+            waveform[spike] = (byte) 255;
+            waveform[(spike + 500) % waveform.length] = 0;
+            for (int columns : COLUMN_COUNTS) {
+                decimator.setColumns(columns);
+                decimator.decimate(waveform, 0, frame);
+                float max = -1f;
+                float min = 1f;
+                for (int c = 0; c < frame.getColumnCount(); c++) {
+                    max = Math.max(max, frame.getMax()[c]);
+                    min = Math.min(min, frame.getMin()[c]);
+                }
+                assertEquals(127 / 128f, max, 0f);
+                assertEquals(-1f, min, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void columnsJoinIntoOneTrace() {
+        final WaveformDecimator decimator = new WaveformDecimator();
+        final WaveformFrame frame = new WaveformFrame();
+        final byte[] waveform = new byte[1024];
+        for (int i = 0; i < waveform.length; i++) {
+            waveform[i] = (byte) (128 + 100 * Math.sin(i * 2 * Math.PI / 300));
+        }
+        decimator.setColumns(270);
+        decimator.decimate(waveform, 0, frame);
+        for (int c = 1; c < frame.getColumnCount(); c++) {
+            // neighbouring columns overlap, no vertical gap between segments
+            assertTrue("column " + c, frame.getMin()[c] <= frame.getMax()[c - 1]
+                    && frame.getMax()[c] >= frame.getMin()[c - 1]);
+        }
+    }
+
+    @Test
+    public void frameIsReused() {
+        final WaveformDecimator decimator = new WaveformDecimator();
+        final WaveformFrame frame = new WaveformFrame();
+        decimator.setColumns(1080);
+        decimator.decimate(new byte[1024], 7, frame);
+        final float[] max = frame.getMax();
+        assertEquals(7, frame.getCaptureTimeNanos());
+        decimator.setColumns(64);
+        decimator.decimate(new byte[128], 8, frame);
+        assertEquals(64, frame.getColumnCount());
+        assertSame(max, frame.getMax());
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.navigation.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.animation.TimeAnimator;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ColorAnimatorTest {
+    private static final int[][] COLOR_PAIRS = {
+            { Color.parseColor(ColorAnimator.RED), Color.parseColor(ColorAnimator.BLUE) },
+            { 0xffff0000, 0xff00ff00 },
+            { 0xff202020, 0xfff0e010 },
+            { 0xff00ffff, 0xffff00ff },
+    };
+    private static final long[] DURATIONS = { 100, 1000, ColorAnimator.ANIM_DEF_DURATION, 60000 };
+
+    private final List<ColorAnimator> mAnimators = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (ColorAnimator animator : mAnimators) {
+            animator.stop();
+        }
+    }
+
+    @Test
+    public void tableMatchesHsvAtSamplePoints() {
+        for (int[] pair : COLOR_PAIRS) {
+            for (long duration : DURATIONS) {
+                final ColorAnimator animator = new ColorAnimator(duration, pair[0], pair[1]);
+                final int size = tableSize(duration);
+                for (int i = 0; i < size; i++) {
+                    final float fraction = i / (float) (size - 1);
+                    assertEquals(String.format("%08x..%08x %dms entry %d", pair[0], pair[1],
+                            duration, i), hsvColor(pair[0], pair[1], fraction),
+                            animator.getColorAt(fraction));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tableIsCloseToHsvBetweenSamplePoints() {
+        final Random random = new Random(0);
+        for (int[] pair : COLOR_PAIRS) {
+            final ColorAnimator animator = new ColorAnimator(ColorAnimator.ANIM_DEF_DURATION,
+                    pair[0], pair[1]);
+            for (int i = 0; i < 1000; i++) {
+                final float fraction = random.nextFloat();
+                final int exact = hsvColor(pair[0], pair[1], fraction);
+                final int table = animator.getColorAt(fraction);
+                // half a table step at most, a couple of levels per channel
+                assertTrue(String.format("%08x vs %08x", exact, table),
+                        Math.abs(Color.red(exact) - Color.red(table)) <= 2
+                        && Math.abs(Color.green(exact) - Color.green(table)) <= 2
+                        && Math.abs(Color.blue(exact) - Color.blue(table)) <= 2);
+            }
+            assertEquals(pair[0], animator.getColorAt(0f));
+            assertEquals(pair[1], animator.getColorAt(1f));
+        }
+    }
+
+    @Test
+    public void animatorsShareOneClock() {
+        final ColorAnimator a = animator(1000);
+        final ColorAnimator b = animator(2000);
+        final RecordingListener first = new RecordingListener();
+        final RecordingListener second = new RecordingListener();
+        a.addColorAnimatorListener(first);
+        b.addColorAnimatorListener(second);
+        assertEquals(1, TimeAnimator.getStartedCount());
+
+        for (long t = 0; t < 1000; t += 16) {
+            TimeAnimator.runFrame(t);
+        }
+        TimeAnimator.runFrame(1000);
+        // a is a whole sweep in, b half way
+        assertEquals(a.getColorAt(1f), a.getCurrentColor());
+        assertColorNear(b.getColorAt(0.5f), b.getCurrentColor());
+        assertEquals(first.colors.get(first.colors.size() - 1).intValue(), a.getCurrentColor());
+
+        a.removeColorAnimatorListener(first);
+        assertFalse(a.isRunning());
+        assertEquals(1, TimeAnimator.getStartedCount());
+        b.removeColorAnimatorListener(second);
+        assertEquals(0, TimeAnimator.getStartedCount());
+        assertEquals(1, first.stops);
+    }
+
+    @Test
+    public void laterListenersJoinWhereItIs() {
+        final ColorAnimator animator = animator(1000);
+        final RecordingListener first = new RecordingListener();
+        animator.addColorAnimatorListener(first);
+        for (long t = 0; t <= 500; t += 16) {
+            TimeAnimator.runFrame(t);
+        }
+        final RecordingListener late = new RecordingListener();
+        animator.addColorAnimatorListener(late);
+        assertEquals(animator.getCurrentColor(), late.startColor);
+        animator.removeColorAnimatorListener(late);
+        assertTrue(animator.isRunning());
+    }
+
+    @Test
+    public void sweepReversesAtTheEnd() {
+        final ColorAnimator animator = animator(1000);
+        animator.addColorAnimatorListener(new RecordingListener());
+        TimeAnimator.runFrame(0);
+        TimeAnimator.runFrame(1500);
+        assertColorNear(animator.getColorAt(0.5f), animator.getCurrentColor());
+        TimeAnimator.runFrame(2000);
+        assertEquals(animator.getColorAt(0f), animator.getCurrentColor());
+    }
+
+    private ColorAnimator animator(long duration) {
+        final ColorAnimator animator = new ColorAnimator(duration);
+        mAnimators.add(animator);
+        return animator;
+    }
+
+    // ColorAnimator's table holds this many entries
+    private static int tableSize(long duration) {
+        return (int) Math.max(2, Math.min(1024, duration * 60 / 1000));
+    }
+
+    /**
+     * What the animator computed every frame before it kept a table
+     */
+    private static int hsvColor(int fromColor, int toColor, float fraction) {
+        final float[] from = new float[3];
+        final float[] to = new float[3];
+        final float[] hsv = new float[3];
+        Color.colorToHSV(fromColor, from);
+        Color.colorToHSV(toColor, to);
+        for (int i = 0; i < 3; i++) {
+            hsv[i] = from[i] + (to[i] - from[i]) * fraction;
+        }
+        return Color.HSVToColor(hsv);
+    }
+
+    // frame times land between table entries
+    private static void assertColorNear(int expected, int actual) {
+        assertTrue(String.format("%08x vs %08x", expected, actual),
+                Math.abs(Color.red(expected) - Color.red(actual)) <= 4
+                && Math.abs(Color.green(expected) - Color.green(actual)) <= 4
+                && Math.abs(Color.blue(expected) - Color.blue(actual)) <= 4);
+    }
+
+    private static final class RecordingListener
+            implements ColorAnimator.ColorAnimationListener {
+        final List<Integer> colors = new ArrayList<>();
+        int startColor;
+        int stops;
+
+        @Override
+        public void onColorChanged(ColorAnimator colorAnimator, int color) {
+            colors.add(color);
+        }
+
+        @Override
+        public void onStartAnimation(ColorAnimator colorAnimator, int firstColor) {
+            startColor = firstColor;
+        }
+
+        @Override
+        public void onStopAnimation(ColorAnimator colorAnimator, int lastColor) {
+            stops++;
+        }
+    }
+}
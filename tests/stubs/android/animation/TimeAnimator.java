@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Host stand-in for the framework TimeAnimator. Nothing ticks on its
+ * own: a harness calls runFrame() to tick every started animator at
+ * the time it wants
+ *
+ */
+
+package android.animation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimeAnimator {
+    public interface TimeListener {
+        public void onTimeUpdate(TimeAnimator animation, long totalTime, long deltaTime);
+    }
+
+    private static final List<TimeAnimator> sStarted = new ArrayList<>();
+
+    private TimeListener mListener;
+    private long mStartTimeMillis = -1;
+    private long mLastTimeMillis;
+
+    public void setTimeListener(TimeListener listener) {
+        mListener = listener;
+    }
+
+    public void start() {
+        if (!sStarted.contains(this)) {
+            sStarted.add(this);
+            mStartTimeMillis = -1;
+        }
+    }
+
+    public void end() {
+        sStarted.remove(this);
+    }
+
+    public boolean isStarted() {
+        return sStarted.contains(this);
+    }
+
+    /**
+     * Host only
+     *
+     * @return animators started and not ended
+     */
+    public static int getStartedCount() {
+        return sStarted.size();
+    }
+
+    /**
+     * Host only. Tick every started animator, the way one frame would.
+     * Each one's total time counts from the first frame it saw
+     */
+    public static void runFrame(long timeMillis) {
+        final List<TimeAnimator> started = new ArrayList<>(sStarted);
+        for (TimeAnimator animator : started) {
+            if (animator.mStartTimeMillis < 0) {
+                animator.mStartTimeMillis = timeMillis;
+                animator.mLastTimeMillis = timeMillis;
+            }
+            if (animator.mListener != null) {
+                animator.mListener.onTimeUpdate(animator, timeMillis - animator.mStartTimeMillis,
+                        timeMillis - animator.mLastTimeMillis);
+            }
+            animator.mLastTimeMillis = timeMillis;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Host stand-in for the framework Color, enough of it for the pulse and
+ * navigation utils code. The HSV conversions follow Skia's SkRGBToHSV()
+ * and SkHSVToColor(), which the framework calls into, rounding and all,
+ * so tests compare against what a device would produce
+ *
+ */
+
+package android.graphics;
+
+public class Color {
+    public static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * #RRGGBB or #AARRGGBB only, no color names
+     */
+    public static int parseColor(String colorString) {
+        if (colorString.charAt(0) == '#') {
+            long color = Long.parseLong(colorString.substring(1), 16);
+            if (colorString.length() == 7) {
+                color |= 0x00000000ff000000L;
+            } else if (colorString.length() != 9) {
+                throw new IllegalArgumentException("Unknown color");
+            }
+            return (int) color;
+        }
+        throw new IllegalArgumentException("Unknown color");
+    }
+
+    public static void colorToHSV(int color, float[] hsv) {
+        RGBToHSV(red(color), green(color), blue(color), hsv);
+    }
+
+    public static void RGBToHSV(int red, int green, int blue, float[] hsv) {
+        if (hsv.length < 3) {
+            throw new RuntimeException("3 components required for hsv");
+        }
+        final int min = Math.min(red, Math.min(green, blue));
+        final int max = Math.max(red, Math.max(green, blue));
+        final int delta = max - min;
+        final float v = max / 255f;
+        if (delta == 0) {
+            hsv[0] = 0f;
+            hsv[1] = 0f;
+            hsv[2] = v;
+            return;
+        }
+        final float s = delta / (float) max;
+        float h;
+        if (red == max) {
+            h = (green - blue) / (float) delta;
+        } else if (green == max) {
+            h = 2f + (blue - red) / (float) delta;
+        } else {
+            h = 4f + (red - green) / (float) delta;
+        }
+        h *= 60f;
+        if (h < 0f) {
+            h += 360f;
+        }
+        hsv[0] = h;
+        hsv[1] = s;
+        hsv[2] = v;
+    }
+
+    public static int HSVToColor(float[] hsv) {
+        return HSVToColor(0xFF, hsv);
+    }
+
+    public static int HSVToColor(int alpha, float[] hsv) {
+        if (hsv.length < 3) {
+            throw new RuntimeException("3 components required for hsv");
+        }
+        final float s = Math.max(0f, Math.min(1f, hsv[1]));
+        final float v = Math.max(0f, Math.min(1f, hsv[2]));
+        final int vByte = Math.round(v * 255);
+        if (Math.abs(s) <= 1f / (1 << 12)) {
+            return argb(alpha, vByte, vByte, vByte);
+        }
+        final float hx = (hsv[0] < 0f || hsv[0] >= 360f) ? 0f : hsv[0] / 60f;
+        final float w = (float) Math.floor(hx);
+        final float f = hx - w;
+        final int p = Math.round((1f - s) * v * 255);
+        final int q = Math.round((1f - (s * f)) * v * 255);
+        final int t = Math.round((1f - (s * (1f - f))) * v * 255);
+        switch ((int) w) {
+            case 0:
+                return argb(alpha, vByte, t, p);
+            case 1:
+                return argb(alpha, q, vByte, p);
+            case 2:
+                return argb(alpha, p, vByte, t);
+            case 3:
+                return argb(alpha, p, q, vByte);
+            case 4:
+                return argb(alpha, t, p, vByte);
+            default:
+                return argb(alpha, vByte, p, q);
+        }
+    }
+}
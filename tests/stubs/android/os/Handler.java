@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Host stand-in for the framework Handler. Only there so classes with a
+ * Handler convenience constructor build on a plain JDK; host code goes
+ * through their clock or scheduler interfaces instead
+ *
+ */
+
+package android.os;
+
+public class Handler {
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        throw new UnsupportedOperationException("no looper on the host");
+    }
+
+    public void removeCallbacks(Runnable r) {
+        throw new UnsupportedOperationException("no looper on the host");
+    }
+}
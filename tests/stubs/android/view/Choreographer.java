@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019 The AquariOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Host stand-in for the framework Choreographer, so the pulse classes
+ * that only take frame callbacks build on a plain JDK. Nothing drives
+ * vsync here: a harness calls runFrame() with the frame time it wants
+ *
+ */
+
+package android.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class Choreographer {
+    public interface FrameCallback {
+        public void doFrame(long frameTimeNanos);
+    }
+
+    private static final Choreographer sInstance = new Choreographer();
+
+    private List<FrameCallback> mCallbacks = new ArrayList<>();
+    // swapped with mCallbacks while a frame runs, so frames don't allocate
+    private List<FrameCallback> mRunning = new ArrayList<>();
+
+    private Choreographer() {}
+
+    public static Choreographer getInstance() {
+        return sInstance;
+    }
+
+    public void postFrameCallback(FrameCallback callback) {
+        mCallbacks.add(callback);
+    }
+
+    public void removeFrameCallback(FrameCallback callback) {
+        while (mCallbacks.remove(callback)) {
+        }
+    }
+
+    /**
+     * Host only. Run every callback posted so far, the way one vsync
+     * would. Callbacks posted from inside wait for the next call
+     */
+    public void runFrame(long frameTimeNanos) {
+        final List<FrameCallback> callbacks = mCallbacks;
+        mCallbacks = mRunning;
+        mRunning = callbacks;
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).doFrame(frameTimeNanos);
+        }
+        callbacks.clear();
+    }
+
+    /**
+     * Host only. Forget every posted callback
+     */
+    public void reset() {
+        mCallbacks.clear();
+    }
+}